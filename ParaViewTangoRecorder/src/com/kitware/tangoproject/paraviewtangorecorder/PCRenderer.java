@@ -18,21 +18,25 @@ package com.kitware.tangoproject.paraviewtangorecorder;
 
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import com.kitware.tangoutils.Renderer;
+import com.kitware.tangoutils.math.Matrix4;
+import com.kitware.tangoutils.renderables.AccumulatedMap;
 import com.kitware.tangoutils.renderables.CameraFrustum;
 import com.kitware.tangoutils.renderables.CameraFrustumAndAxis;
 import com.kitware.tangoutils.renderables.Grid;
 import com.kitware.tangoutils.renderables.PointCloud;
+import com.kitware.tangoutils.renderables.RenderUtils;
+import com.kitware.tangoutils.renderables.Trajectory;
 
 /**
  * OpenGL rendering class for the Motion Tracking API sample. This class
  * managers the objects visible in the OpenGL view which are the
- * {@link CameraFrustum}, {@link PointCloud} and the {@link Grid}. These objects
+ * {@link CameraFrustum}, {@link PointCloud}, {@link AccumulatedMap},
+ * {@link Trajectory} and the {@link Grid}. These objects
  * are implemented in the TangoUtils library in the package
  * {@link com.kitware.tangoutils.renderables}.
  * 
@@ -44,40 +48,52 @@ import com.kitware.tangoutils.renderables.PointCloud;
  */
 public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
 
-    private PointCloud mPointCloud;
+    private final PointCloud mPointCloud;
+    private final AccumulatedMap mAccumulatedMap = new AccumulatedMap();
+    private final Trajectory mTrajectory = new Trajectory(3);
     private Grid mGrid;
     private CameraFrustumAndAxis mCameraFrustumAndAxis;
-    private int mMaxDepthPoints;
 
     public PCRenderer(int maxDepthPoints) {
-        mMaxDepthPoints = maxDepthPoints;
+        mPointCloud = new PointCloud(maxDepthPoints);
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         GLES20.glClearColor(1f, 1f, 1f, 1.0f);
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        mPointCloud = new PointCloud(mMaxDepthPoints);
+        // Programs of the previous context are gone
+        RenderUtils.onContextCreated();
+        // The point cloud, the map and the path outlive the GL context, only
+        // their GL objects are recreated
+        mPointCloud.onContextLost();
+        mAccumulatedMap.onContextLost();
+        mTrajectory.onContextLost();
         mGrid = new Grid();
         mCameraFrustumAndAxis = new CameraFrustumAndAxis();
-        Matrix.setIdentityM(mViewMatrix, 0);
-        Matrix.setLookAtM(mViewMatrix, 0, 5f, 5f, 5f, 0f, 0f, 0f, 0f, 1f, 0f);
-        mCameraFrustumAndAxis.setModelMatrix(getModelMatCalculator()
-                .getModelMatrix());
+        Matrix4.setLookAt(mViewMatrix, 5f, 5f, 5f, 0f, 0f, 0f, 0f, 1f, 0f);
+        mCameraFrustumAndAxis.copyModelMatrix(mPoseSnapshot.getModelMatrix());
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
         mCameraAspect = (float) width / height;
-        Matrix.perspectiveM(mProjectionMatrix, 0, CAMERA_FOV, mCameraAspect,
+        Matrix4.setPerspective(mProjectionMatrix, CAMERA_FOV, mCameraAspect,
                 CAMERA_NEAR, CAMERA_FAR);
+        mAccumulatedMap.setViewportHeight(height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        if (updatePoseSnapshot()) {
+            mCameraFrustumAndAxis.copyModelMatrix(mPoseSnapshot.getModelMatrix());
+        }
+        updateViewMatrix();
         mGrid.draw(mViewMatrix, mProjectionMatrix);
+        mAccumulatedMap.draw(mViewMatrix, mProjectionMatrix);
+        mTrajectory.draw(mViewMatrix, mProjectionMatrix);
         mPointCloud.draw(mViewMatrix, mProjectionMatrix);
         mCameraFrustumAndAxis.draw(mViewMatrix, mProjectionMatrix);
     }
@@ -85,4 +101,12 @@ public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
     public PointCloud getPointCloud() {
         return mPointCloud;
     }
+
+    public AccumulatedMap getAccumulatedMap() {
+        return mAccumulatedMap;
+    }
+
+    public Trajectory getTrajectory() {
+        return mTrajectory;
+    }
 }
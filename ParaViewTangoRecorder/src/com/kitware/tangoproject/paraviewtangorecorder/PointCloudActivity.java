@@ -36,6 +36,12 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
 import com.kitware.tangoutils.ModelMatCalculator;
+import com.kitware.tangoutils.PointCloudFrame;
+import com.kitware.tangoutils.PointCloudFramePool;
+import com.kitware.tangoutils.RenderScheduler;
+import com.kitware.tangoutils.io.PoseJournal;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataWriter;
+import com.kitware.tangoutils.math.Matrix4;
 
 import android.app.Activity;
 import android.content.Context;
@@ -44,7 +50,6 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.net.Uri;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
@@ -61,19 +66,13 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.text.DecimalFormat;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
 
 /**
  * Main Activity class for the Point Cloud Sample. Handles the connection to the
@@ -85,23 +84,49 @@ public class PointCloudActivity extends Activity implements OnClickListener {
 
     private static final String TAG = PointCloudActivity.class.getSimpleName();
     private static final int SECS_TO_MILLISECS = 1000;
+    private static final int RECORDING_QUEUE_CAPACITY = 4;
+    private static final RecordingPipeline.BackpressurePolicy RECORDING_BACKPRESSURE_POLICY =
+            RecordingPipeline.BackpressurePolicy.DROP_OLDEST;
+    // Boolean extra of the launching intent, true by default: whether the
+    // point cloud files hold the VERTICES cell ParaView needs to display them
+    // as they are. Without it the files are about half the size, and a filter
+    // generating vertices (e.g. Mask Points) is needed to display them.
+    public static final String EXTRA_WRITE_POINT_CLOUD_VERTICES =
+            "com.kitware.tangoproject.paraviewtangorecorder.WRITE_POINT_CLOUD_VERTICES";
+    // Every frame that can be held at once, so that the pool never runs dry
+    // before the backpressure policy of the pipeline applies: the frame being
+    // read by the depth callback, the frame waiting in the middle slot of the
+    // PointCloud triple buffer and the one the GL thread is uploading from its
+    // front slot (the back slot only holds the frame being read), the frames
+    // of the recording queue, and the frame the writer thread is writing. The
+    // queue capacity is a power of two, so the pipeline does not round it up.
+    private static final int POINT_CLOUD_FRAME_POOL_SIZE = 1 + 2
+            + RECORDING_QUEUE_CAPACITY + 1;
+    // Float samples barely compress: the fastest deflate level keeps most of
+    // the gain while leaving the CPU to the Tango service. Use STORED to not
+    // compress at all, or PARALLEL_DEFLATE to spread the work on more cores.
+    private static final ZipWriter.Compression ARCHIVE_COMPRESSION =
+            ZipWriter.Compression.DEFLATE;
+    private static final int ARCHIVE_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private static final int ARCHIVE_COMPRESSION_THREADS = 2;
+    // Frames per second of the GL view, 0 to render at every vsync. While
+    // recording, the view is throttled to leave the CPU and the GPU to the
+    // Tango service and the disk writer.
+    private static final int MAX_FRAME_RATE = 0;
+    private static final int RECORDING_FRAME_RATE = 15;
+    // The statistics are shown at 10 Hz
+    private static final long STATS_REFRESH_PERIOD_MILLIS = 100;
     private Tango mTango;
     private TangoConfig mConfig;
 
     private PCRenderer mRenderer;
     private GLSurfaceView mGLView;
+    private RenderScheduler mRenderScheduler;
 
-    private TextView mDeltaTextView;
-    private TextView mPoseCountTextView;
-    private TextView mPoseTextView;
-    private TextView mQuatTextView;
-    private TextView mPoseStatusTextView;
+    private StatsPresenter mStatsPresenter;
     private TextView mTangoEventTextView;
-    private TextView mPointCountTextView;
     private TextView mTangoServiceVersionTextView;
     private TextView mApplicationVersionTextView;
-    private TextView mAverageZTextView;
-    private TextView mFrequencyTextView;
 
     private Button mFirstPersonButton;
     private Button mThirdPersonButton;
@@ -110,9 +135,9 @@ public class PointCloudActivity extends Activity implements OnClickListener {
     private int mValidPoseCallbackCount;
     private int mPreviousPoseStatus;
     private float mDeltaTime;
-    private float mPosePreviousTimeStamp;
-    private float mXyIjPreviousTimeStamp;
-    private float mCurrentTimeStamp;
+    private double mPosePreviousTimeStamp;
+    private double mXyIjPreviousTimeStamp;
+    private double mCurrentTimeStamp;
     private String mServiceVersion;
     private boolean mIsTangoServiceConnected;
 
@@ -129,21 +154,25 @@ public class PointCloudActivity extends Activity implements OnClickListener {
             .getAbsolutePath() + "/Tango/";
     private static final String mSaveDirAbsPath = Environment.getExternalStorageDirectory()
             .getAbsolutePath() + "/Tango/MyPointCloudData/";
-    private String mFilename;
-    private int mNumberOfFilesWritten;
-    private Boolean mTimeToTakeSnap;
+    // Last file written, by the writer thread, shown by the UI thread
+    private volatile String mFilename;
+    private volatile boolean mTimeToTakeSnap;
     private Boolean mAutoMode;
-    private String mNowTimeString;
-    private ArrayList<float[]> mPosePositionBuffer;
-    private ArrayList<float[]> mPoseOrientationBuffer;
-    private ArrayList<Float> mPoseTimestampBuffer;
-    private ArrayList<String> mFilenameBuffer;
+    // Written to by the Tango and writer threads until the next recording
+    // starts, which waits for the previous one to be saved
+    private volatile Recording mRecording;
+    private boolean mWritePointCloudVertices;
     private float[] cam2dev_Transform;
-    private int mNumPoseInSequence;
-    boolean mIsRecording;
+    private final float[] mPointCloudModelMatrix = new float[16];
+    volatile boolean mIsRecording;
     private int mXyzIjCallbackCount;
-    private Semaphore mutex_on_mIsRecording;
-    private boolean mAppIsStarting;
+    private PointCloudFramePool mPointCloudFramePool;
+    private XyzIjReader mXyzIjReader;
+    private RecordingPipeline mRecordingPipeline;
+    // Used on the recording pipeline thread
+    private VtkLegacyPolyDataWriter mPointCloudWriter;
+    // Used by the task that saves the scan when the recording stops
+    private VtkLegacyPolyDataWriter mPoseWriter;
     // End of My variables
 
     @Override
@@ -152,17 +181,9 @@ public class PointCloudActivity extends Activity implements OnClickListener {
         setContentView(R.layout.activity_jpoint_cloud);
         setTitle(R.string.app_name);
 
-        mPoseTextView = (TextView) findViewById(R.id.pose);
-        mQuatTextView = (TextView) findViewById(R.id.quat);
-        mPoseCountTextView = (TextView) findViewById(R.id.posecount);
-        mDeltaTextView = (TextView) findViewById(R.id.deltatime);
         mTangoEventTextView = (TextView) findViewById(R.id.tangoevent);
-        mPoseStatusTextView = (TextView) findViewById(R.id.status);
-        mPointCountTextView = (TextView) findViewById(R.id.pointCount);
         mTangoServiceVersionTextView = (TextView) findViewById(R.id.version);
         mApplicationVersionTextView = (TextView) findViewById(R.id.appversion);
-        mAverageZTextView = (TextView) findViewById(R.id.averageZ);
-        mFrequencyTextView = (TextView) findViewById(R.id.frameDelta);
 
         mFirstPersonButton = (Button) findViewById(R.id.first_person_button);
         mFirstPersonButton.setOnClickListener(this);
@@ -177,10 +198,15 @@ public class PointCloudActivity extends Activity implements OnClickListener {
 
         int maxDepthPoints = mConfig.getInt("max_point_cloud_elements");
         mRenderer = new PCRenderer(maxDepthPoints);
+        mPointCloudFramePool = new PointCloudFramePool(maxDepthPoints,
+                POINT_CLOUD_FRAME_POOL_SIZE);
+        mXyzIjReader = new XyzIjReader(mPointCloudFramePool);
         mGLView = (GLSurfaceView) findViewById(R.id.gl_surface_view);
         mGLView.setEGLContextClientVersion(2);
         mGLView.setRenderer(mRenderer);
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mRenderScheduler = new RenderScheduler(mGLView, MAX_FRAME_RATE,
+                RECORDING_FRAME_RATE);
 
         PackageInfo packageInfo;
         try {
@@ -221,27 +247,39 @@ public class PointCloudActivity extends Activity implements OnClickListener {
         mWaitingLinearLayout.setVisibility(View.VISIBLE);
 
         mFilename = "";
-        mNumberOfFilesWritten = 0;
         mTimeToTakeSnap = false;
         mTakeSnapButton.setEnabled(false);
         mAutoMode = false;
         mAutoModeSwitch.setChecked(false);
         mIsRecording = false;
         mRecordSwitch.setChecked(false);
-        mPosePositionBuffer = new ArrayList<float[]>();
-        mPoseOrientationBuffer = new ArrayList<float[]>();
-        mPoseTimestampBuffer = new ArrayList<Float>();
-        mFilenameBuffer = new ArrayList<String>();
-        mNumPoseInSequence = 0;
         mXyzIjCallbackCount = 0;
-        mutex_on_mIsRecording = new Semaphore(1,true);
-        mAppIsStarting = true;
+        mPointCloudWriter = new VtkLegacyPolyDataWriter();
+        mWritePointCloudVertices = getIntent().getBooleanExtra(
+                EXTRA_WRITE_POINT_CLOUD_VERTICES, true);
+        if (mWritePointCloudVertices) {
+            mPointCloudWriter.reserveCellIds(maxDepthPoints);
+        }
+        mPoseWriter = new VtkLegacyPolyDataWriter();
+        mRecordingPipeline = new RecordingPipeline(RECORDING_QUEUE_CAPACITY,
+                RECORDING_BACKPRESSURE_POLICY, new RecordingPipeline.FrameWriter() {
+                    @Override
+                    public void writeFrame(PointCloudFrame frame) {
+                        writePointCloudToFile(frame);
+                    }
+                });
+        mRecordingPipeline.start();
+        mStatsPresenter = new StatsPresenter(this, mWaitingLinearLayout,
+                mRenderer.getPosePublisher(), mRenderer.getPointCloud(),
+                STATS_REFRESH_PERIOD_MILLIS);
         // End of My initializations
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        mRenderScheduler.stop();
+        mStatsPresenter.stop();
         try {
             mTango.disconnect();
             mIsTangoServiceConnected = false;
@@ -254,6 +292,8 @@ public class PointCloudActivity extends Activity implements OnClickListener {
     @Override
     protected void onResume() {
         super.onResume();
+        mRenderScheduler.start();
+        mStatsPresenter.start();
         if (!mIsTangoServiceConnected) {
             startActivityForResult(
                     Tango.getRequestPermissionIntent(Tango.PERMISSIONTYPE_MOTION_TRACKING),
@@ -302,6 +342,7 @@ public class PointCloudActivity extends Activity implements OnClickListener {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        mRecordingPipeline.stop();
     }
 
     @Override
@@ -309,12 +350,15 @@ public class PointCloudActivity extends Activity implements OnClickListener {
         switch (v.getId()) {
             case R.id.first_person_button:
                 mRenderer.setFirstPersonView();
+                mRenderScheduler.requestRender();
                 break;
             case R.id.third_person_button:
                 mRenderer.setThirdPersonView();
+                mRenderScheduler.requestRender();
                 break;
             case R.id.top_down_button:
                 mRenderer.setTopDownView();
+                mRenderScheduler.requestRender();
                 break;
             case R.id.take_snap_button:
                 takeSnapshot_ButtonClicked();
@@ -327,7 +371,9 @@ public class PointCloudActivity extends Activity implements OnClickListener {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        return mRenderer.onTouchEvent(event);
+        boolean handled = mRenderer.onTouchEvent(event);
+        mRenderScheduler.requestRender();
+        return handled;
     }
 
     private void setUpExtrinsics() {
@@ -361,33 +407,24 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                 color2IMUPose.getTranslationAsFloats(),
                 color2IMUPose.getRotationAsFloats());
 
-        // Get the Camera2Device transform
-        float[] rot_Dev2IMU = device2IMUPose.getRotationAsFloats();
-        float[] trans_Dev2IMU = device2IMUPose.getTranslationAsFloats();
-        float[] rot_Cam2IMU = color2IMUPose.getRotationAsFloats();
-        float[] trans_Cam2IMU = color2IMUPose.getTranslationAsFloats();
-
+        // Get the Camera2Device transform: invert(Device2IMU) * Camera2IMU
         float[] dev2IMU = new float[16];
-        Matrix.setIdentityM(dev2IMU, 0);
-        dev2IMU = ModelMatCalculator.quaternionMatrixOpenGL(rot_Dev2IMU);
-        dev2IMU[12] += trans_Dev2IMU[0];
-        dev2IMU[13] += trans_Dev2IMU[1];
-        dev2IMU[14] += trans_Dev2IMU[2];
-
+        setRigidTransform(dev2IMU, device2IMUPose);
         float[] IMU2dev = new float[16];
-        Matrix.setIdentityM(IMU2dev, 0);
-        Matrix.invertM(IMU2dev, 0, dev2IMU, 0);
+        Matrix4.invertRigid(IMU2dev, dev2IMU);
 
         float[] cam2IMU = new float[16];
-        Matrix.setIdentityM(cam2IMU, 0);
-        cam2IMU = ModelMatCalculator.quaternionMatrixOpenGL(rot_Cam2IMU);
-        cam2IMU[12] += trans_Cam2IMU[0];
-        cam2IMU[13] += trans_Cam2IMU[1];
-        cam2IMU[14] += trans_Cam2IMU[2];
+        setRigidTransform(cam2IMU, color2IMUPose);
 
         cam2dev_Transform = new float[16];
-        Matrix.setIdentityM(cam2dev_Transform, 0);
-        Matrix.multiplyMM(cam2dev_Transform, 0, IMU2dev, 0, cam2IMU, 0);
+        Matrix4.multiplyAffine(cam2dev_Transform, IMU2dev, cam2IMU);
+    }
+
+    private static void setRigidTransform(float[] matrix, TangoPoseData pose) {
+        Matrix4.setRigid(matrix, (float) pose.rotation[0], (float) pose.rotation[1],
+                (float) pose.rotation[2], (float) pose.rotation[3],
+                (float) pose.translation[0], (float) pose.translation[1],
+                (float) pose.translation[2]);
     }
 
     private void setTangoListeners() {
@@ -401,10 +438,10 @@ public class PointCloudActivity extends Activity implements OnClickListener {
         mTango.connectListener(framePairs, new OnTangoUpdateListener() {
 
             @Override
-            public void onPoseAvailable(final TangoPoseData pose) {
+            public void onPoseAvailable(TangoPoseData pose) {
                 mDeltaTime = (float) (pose.timestamp - mPosePreviousTimeStamp)
                         * SECS_TO_MILLISECS;
-                mPosePreviousTimeStamp = (float) pose.timestamp;
+                mPosePreviousTimeStamp = pose.timestamp;
                 if (mPreviousPoseStatus != pose.statusCode) {
                     mValidPoseCallbackCount = 0;
                 }
@@ -412,101 +449,51 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                 mPreviousPoseStatus = pose.statusCode;
 
                 // My pose buffering
-                if (mIsRecording && pose.statusCode == TangoPoseData.POSE_VALID) {
-                    mPosePositionBuffer.add(mNumPoseInSequence, pose.getTranslationAsFloats());
-                    mPoseOrientationBuffer.add(mNumPoseInSequence, pose.getRotationAsFloats());
-                    mPoseTimestampBuffer.add((float)pose.timestamp);
-                    mNumPoseInSequence++;
+                Recording recording = mRecording;
+                PoseJournal poseJournal = recording != null ? recording.mPoseJournal : null;
+                if (mIsRecording && pose.statusCode == TangoPoseData.POSE_VALID
+                        && poseJournal != null) {
+                    try {
+                        poseJournal.append(pose.timestamp, pose.translation, pose.rotation);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to journal pose", e);
+                    }
                 }
                 //End of My pose buffering
+                if (pose.statusCode == TangoPoseData.POSE_VALID) {
+                    mRenderer.getTrajectory().updateTrajectory(pose.translation);
+                }
 
-                mRenderer.getModelMatCalculator().updateModelMatrix(
-                        pose.getTranslationAsFloats(),
-                        pose.getRotationAsFloats());
-                mRenderer.updateViewMatrix();
-                mGLView.requestRender();
-                // Update the UI with TangoPose information
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        DecimalFormat threeDec = new DecimalFormat("0.000");
-                        String translationString = "["
-                                + threeDec.format(pose.translation[0]) + ", "
-                                + threeDec.format(pose.translation[1]) + ", "
-                                + threeDec.format(pose.translation[2]) + "] ";
-                        String quaternionString = "["
-                                + threeDec.format(pose.rotation[0]) + ", "
-                                + threeDec.format(pose.rotation[1]) + ", "
-                                + threeDec.format(pose.rotation[2]) + ", "
-                                + threeDec.format(pose.rotation[3]) + "] ";
-
-                        // Display pose data on screen in TextViews
-                        mPoseTextView.setText(translationString);
-                        mQuatTextView.setText(quaternionString);
-                        mPoseCountTextView.setText(Integer.toString(mValidPoseCallbackCount));
-                        mDeltaTextView.setText(threeDec.format(mDeltaTime));
-                        if (pose.statusCode == TangoPoseData.POSE_VALID) {
-                            mPoseStatusTextView.setText(R.string.pose_valid);
-                        } else if (pose.statusCode == TangoPoseData.POSE_INVALID) {
-                            mPoseStatusTextView.setText(R.string.pose_invalid);
-                        } else if (pose.statusCode == TangoPoseData.POSE_INITIALIZING) {
-                            mPoseStatusTextView.setText(R.string.pose_initializing);
-                        } else if (pose.statusCode == TangoPoseData.POSE_UNKNOWN) {
-                            mPoseStatusTextView.setText(R.string.pose_unknown);
-                        }
-                    }
-                });
+                ModelMatCalculator modelMatCalculator = mRenderer.getModelMatCalculator();
+                modelMatCalculator.updateModelMatrix(pose.translation, pose.rotation);
+                // The renderer and the UI read their own copy of the pose
+                mRenderer.getPosePublisher().publish(pose.timestamp,
+                        pose.statusCode, pose.translation, pose.rotation,
+                        modelMatCalculator.getModelMatrix());
+                mRenderScheduler.requestRender();
+                mStatsPresenter.onPose(mValidPoseCallbackCount, mDeltaTime);
             }
 
             @Override
             public void onXyzIjAvailable(final TangoXyzIjData xyzIj) {
-                mCurrentTimeStamp = (float) xyzIj.timestamp;
-                final float frameDelta = (mCurrentTimeStamp - mXyIjPreviousTimeStamp)
+                mCurrentTimeStamp = xyzIj.timestamp;
+                float frameDelta = (float) (mCurrentTimeStamp - mXyIjPreviousTimeStamp)
                         * SECS_TO_MILLISECS;
                 mXyIjPreviousTimeStamp = mCurrentTimeStamp;
                 mXyzIjCallbackCount++;
-                final byte[] buffer = new byte[xyzIj.xyzCount * 3 * 4];
-                FileInputStream fileStream = new FileInputStream(
-                        xyzIj.xyzParcelFileDescriptor.getFileDescriptor());
-                try {
-                    fileStream.read(buffer, xyzIj.xyzParcelFileDescriptorOffset, buffer.length);
-                    fileStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                final PointCloudFrame frame = mXyzIjReader.read(xyzIj);
+                if (frame == null) {
+                    Log.w(TAG, "No free point cloud frame, depth frame dropped");
+                    return;
                 }
 
                 // My writing to file function
 
-                // Background task for writing to file
-                class SendCommandTask extends AsyncTask<Void, Void, Boolean> {
-                    /** The system calls this to perform work in a worker thread and
-                     * delivers it the parameters given to AsyncTask.execute() */
-                    @Override
-                    protected Boolean doInBackground(Void... params) {
-
-                        try {
-                            mutex_on_mIsRecording.acquire();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        // Saving the frame or not, depending on the current mode.
-                        if ( mTimeToTakeSnap || ( mIsRecording && mAutoMode && mXyzIjCallbackCount % 3 == 0 ) ) {
-                            writePointCloudToFile(xyzIj, buffer, framePairs);
-                        }
-                        mutex_on_mIsRecording.release();
-                        return true;
-                    }
-
-                    /** The system calls this to perform work in the UI thread and delivers
-                     * the result from doInBackground() */
-                    @Override
-                    protected void onPostExecute(Boolean done) {
-
-                    }
+                // Saving the frame or not, depending on the current mode.
+                if (mTimeToTakeSnap || (mIsRecording && mAutoMode && mXyzIjCallbackCount % 3 == 0)) {
+                    mTimeToTakeSnap = false;
+                    mRecordingPipeline.offer(frame);
                 }
-                new SendCommandTask().execute();
-
-
 
                 // End of My writing to file function
 
@@ -514,15 +501,20 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                     TangoPoseData pointCloudPose = mTango.getPoseAtTime(
                             mCurrentTimeStamp, framePairs.get(0));
 
-                    mRenderer.getPointCloud().UpdatePoints(buffer,
-                            xyzIj.xyzCount);
                     mRenderer.getModelMatCalculator()
                             .updatePointCloudModelMatrix(
-                                    pointCloudPose.getTranslationAsFloats(),
-                                    pointCloudPose.getRotationAsFloats());
-                    mRenderer.getPointCloud().setModelMatrix(
-                            mRenderer.getModelMatCalculator()
-                                    .getPointCloudModelMatrixCopy());
+                                    pointCloudPose.translation,
+                                    pointCloudPose.rotation);
+                    mRenderer.getModelMatCalculator()
+                            .getPointCloudModelMatrixCopy(mPointCloudModelMatrix);
+                    mRenderer.getPointCloud().UpdatePoints(frame,
+                            mPointCloudModelMatrix);
+                    // Only frames with a known pose go to the global map
+                    if (pointCloudPose.statusCode == TangoPoseData.POSE_VALID) {
+                        mRenderer.getAccumulatedMap().addPoints(frame,
+                                mPointCloudModelMatrix);
+                    }
+                    mRenderScheduler.requestRender();
                 } catch (TangoErrorException e) {
                     Toast.makeText(getApplicationContext(),
                             R.string.TangoError, Toast.LENGTH_SHORT).show();
@@ -530,33 +522,8 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                     Toast.makeText(getApplicationContext(),
                             R.string.TangoError, Toast.LENGTH_SHORT).show();
                 }
-
-                // Must run UI changes on the UI thread. Running in the Tango
-                // service thread will result in an error.
-                runOnUiThread(new Runnable() {
-                    DecimalFormat threeDec = new DecimalFormat("0.000");
-
-                    @Override
-                    public void run() {
-                        // Display a waiting progress bar
-                        if(mAppIsStarting) {
-                            mWaitingLinearLayout.setVisibility(View.GONE);
-                            mAppIsStarting = false;
-                        }
-                        // Display number of points in the point cloud
-                        mPointCountTextView.setText(Integer
-                                .toString(xyzIj.xyzCount));
-                        mFrequencyTextView.setText(""
-                                + threeDec.format(frameDelta));
-                        mAverageZTextView.setText(""
-                                + threeDec.format(mRenderer.getPointCloud()
-                                .getAverageZ()));
-                        // My GUI updates
-                        mFilesWrittenToSDCardTextView.setText("" +
-                                String.valueOf(mNumberOfFilesWritten) + "\n" + mFilename);
-                        // End of My GUI updates
-                    }
-                });
+                frame.release();
+                mStatsPresenter.onDepthFrame(xyzIj.xyzCount, frameDelta);
             }
 
             @Override
@@ -575,6 +542,32 @@ public class PointCloudActivity extends Activity implements OnClickListener {
 
     // My functions
 
+    /**
+     * Files of one recording, created on the UI thread when it starts, and
+     * handed to the task saving them when it stops.
+     */
+    private static class Recording {
+        final String mTimeString;
+        // Counts of the pipeline when the recording started, which counts
+        // the frames of all the recordings
+        final long mStartWrittenFrameCount;
+        final long mStartDroppedFrameCount;
+        // The same for all the point cloud files of a recording
+        final boolean mWriteVertices;
+        ZipWriter mArchive;
+        PoseJournal mPoseJournal;
+        // Number of point cloud files written, writer thread only
+        int mFileCount;
+
+        Recording(String timeString, RecordingPipeline pipeline,
+                boolean writeVertices) {
+            mTimeString = timeString;
+            mStartWrittenFrameCount = pipeline.getWrittenFrameCount();
+            mStartDroppedFrameCount = pipeline.getDroppedFrameCount();
+            mWriteVertices = writeVertices;
+        }
+    }
+
     // This function is called when the Take Snapshot button is clicked
     private void takeSnapshot_ButtonClicked() {
         mTimeToTakeSnap=true;
@@ -587,28 +580,58 @@ public class PointCloudActivity extends Activity implements OnClickListener {
 
     // This function is called when the Record Switch is changed
     private void record_SwitchChanged(boolean isChecked) {
-        try {
-            mutex_on_mIsRecording.acquire();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        mIsRecording = isChecked;
         // Start Recording
-        if (mIsRecording) {
+        if (isChecked) {
             // Generate a new date number to create a new group of files
             Calendar rightNow = Calendar.getInstance();
             int hour = rightNow.get(Calendar.HOUR_OF_DAY);
             int minute = rightNow.get(Calendar.MINUTE);
             int sec = rightNow.get(Calendar.SECOND);
             int milliSec = rightNow.get(Calendar.MILLISECOND);
-            mNowTimeString = "" + (int)(1000000 * hour + 10000 * minute + 100 * sec +
-                    (float)milliSec / 10.0);
-            mNumberOfFilesWritten = 0;
+            Recording recording = new Recording("" + (int)(1000000 * hour
+                    + 10000 * minute + 100 * sec + (float)milliSec / 10.0),
+                    mRecordingPipeline, mWritePointCloudVertices);
+            mStatsPresenter.onFilesWritten(0, mFilename);
+            // Open the archive the frames are added to while they are recorded
+            createSaveDirectory();
+            try {
+                recording.mArchive = new ZipWriter(mSaveDirAbsPath + "TangoData_"
+                        + recording.mTimeString + ".zip", ARCHIVE_COMPRESSION,
+                        ARCHIVE_COMPRESSION_LEVEL, ARCHIVE_COMPRESSION_THREADS);
+            } catch (IOException e) {
+                e.printStackTrace();
+                Toast.makeText(getApplicationContext(), R.string.archiveError,
+                        Toast.LENGTH_SHORT).show();
+            }
+            // Poses go to a journal file until the recording stops
+            try {
+                recording.mPoseJournal = new PoseJournal(new File(mSaveDirAbsPath
+                        + "pc_" + recording.mTimeString + "_poses.journal"));
+            } catch (IOException e) {
+                e.printStackTrace();
+                Toast.makeText(getApplicationContext(), R.string.archiveError,
+                        Toast.LENGTH_SHORT).show();
+            }
+            mRecording = recording;
+            // The map and the path show this recording only
+            mRenderer.getAccumulatedMap().clear();
+            mRenderer.getTrajectory().clearPath();
+            mRecordingPipeline.setAcceptingFrames(true);
             // Enable snapshot button
             mTakeSnapButton.setEnabled(true);
+            mIsRecording = true;
+            mRenderScheduler.setLowPowerMode(true);
         }
         // Finish Recording
         else {
+            mIsRecording = false;
+            mRenderScheduler.setLowPowerMode(false);
+            // If a snap has been asked just before, but not saved, ignore it
+            mTimeToTakeSnap = false;
+            // The next recording waits for this one to be saved, so that the
+            // frames still queued go to this archive
+            final Recording recording = mRecording;
+            mRecordSwitch.setEnabled(false);
             // Disable snapshot button
             mTakeSnapButton.setEnabled(false);
             // Display a waiting progress bar
@@ -621,37 +644,49 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                 @Override
                 protected Uri doInBackground(Context... myAppContext) {
 
-                    // Stop the Pose Recording, and write them to a file.
-                    writePoseToFile(mNumPoseInSequence);
-                    // If a snap has been asked just before, but not saved, ignore it, otherwise,
-                    // it will be saved at the end dof this function, and the 2nd archive will override
-                    // the first.
-                    mTimeToTakeSnap = false;
-                    mNumPoseInSequence = 0;
-                    mPoseOrientationBuffer.clear();
-                    mPoseOrientationBuffer.clear();
-                    mPoseTimestampBuffer.clear();
-
-                    // Zip all the files from this sequence
-                    String zipFilename = mSaveDirAbsPath + "TangoData_" + mNowTimeString +
-                            "_" + mFilenameBuffer.size() + "files.zip";
-                    String[] fileList = mFilenameBuffer.toArray(new String[mFilenameBuffer.size()]);
-                    ZipWriter zipper = new ZipWriter(fileList, zipFilename);
-                    zipper.zip();
-
-                    // Delete the data files now that they are archived
-                    for (String s : mFilenameBuffer) {
-                        File file = new File(s);
-                        boolean deleted = file.delete();
-                        if (!deleted) {
-                            Log.w(TAG, "File \"" + s + "\" not deleted\n");
+                    // Refuse the frames offered from now on, and wait for the
+                    // ones still queued to be written
+                    mRecordingPipeline.setAcceptingFrames(false);
+                    mRecordingPipeline.flush();
+                    Log.i(TAG, (mRecordingPipeline.getWrittenFrameCount()
+                            - recording.mStartWrittenFrameCount) + " frames written, "
+                            + (mRecordingPipeline.getDroppedFrameCount()
+                            - recording.mStartDroppedFrameCount) + " frames dropped\n");
+
+                    // Stop the Pose Recording, and write them to the archive.
+                    ZipWriter archive = recording.mArchive;
+                    PoseJournal poseJournal = recording.mPoseJournal;
+                    if (poseJournal != null) {
+                        try {
+                            poseJournal.finish();
+                            if (archive != null) {
+                                writePoseToFile(archive, poseJournal,
+                                        recording.mTimeString);
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
                     }
-                    mFilenameBuffer.clear();
+                    if (archive == null) {
+                        return null;
+                    }
 
-                    // Send the zip file to another app
-                    File myZipFile = new File(zipFilename);
+                    // Only the central directory is left to write
+                    String zipFilename = mSaveDirAbsPath + "TangoData_" + recording.mTimeString +
+                            "_" + archive.getEntryCount() + "files.zip";
+                    File myZipFile;
+                    try {
+                        myZipFile = archive.close(zipFilename);
+                        // The journal is only kept if the archive could not be written
+                        if (poseJournal != null) {
+                            poseJournal.delete();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                    }
 
+                    // Send the zip file to another app
                     return FileProvider.getUriForFile(myAppContext[0], "com.kitware." +
                             "tangoproject.paraviewtangorecorder.fileprovider", myZipFile);
                 }
@@ -660,6 +695,13 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                  * the result from doInBackground() */
                 @Override
                 protected void onPostExecute(Uri fileURI) {
+                    mRecordSwitch.setEnabled(true);
+                    if (fileURI == null) {
+                        Toast.makeText(getApplicationContext(), R.string.archiveError,
+                                Toast.LENGTH_SHORT).show();
+                        mWaitingLinearLayout.setVisibility(View.GONE);
+                        return;
+                    }
                     Intent shareIntent = new Intent();
                     shareIntent.setAction(Intent.ACTION_SEND);
                     shareIntent.putExtra(Intent.EXTRA_STREAM, fileURI);
@@ -671,80 +713,39 @@ public class PointCloudActivity extends Activity implements OnClickListener {
             new SendCommandTask().execute(this);
 
         }
-        mutex_on_mIsRecording.release();
 
     }
 
-    // This function writes the XYZ points to .vtk files in binary
-    private void writePointCloudToFile(TangoXyzIjData xyzIj, byte[] buffer,
-                                       ArrayList<TangoCoordinateFramePair> framePairs) {
-
-        ByteBuffer myBuffer = ByteBuffer.allocate(xyzIj.xyzCount * 3 * 4);
-        myBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        myBuffer.put(buffer, xyzIj.xyzParcelFileDescriptorOffset, myBuffer.capacity());
-
+    // This function writes the XYZ points to a .vtk entry of the archive, in binary
+    private void writePointCloudToFile(PointCloudFrame frame) {
 
-        File mainDir = new File(mMainDirPath);
-        if(!mainDir.exists()) {
-            boolean created = mainDir.mkdir();
-            if (created) {
-                Log.i(TAG, "Folder: \"" + mMainDirPath + "\" created\n");
-            }
+        Recording recording = mRecording;
+        ZipWriter archive = recording != null ? recording.mArchive : null;
+        if (archive == null) {
+            return;
         }
-
-        File dir = new File(mSaveDirAbsPath);
-        if(!dir.exists()) {
-            boolean created = dir.mkdir();
-            if (created) {
-                Log.i(TAG, "Folder: \"" + mSaveDirAbsPath + "\" created\n");
-            }
-        }
-
-        mFilename = "pc_" + mNowTimeString + "_" + String.format("%03d", mNumberOfFilesWritten) +
-                ".vtk";
-        mFilenameBuffer.add(mSaveDirAbsPath + mFilename);
-        File file = new File(dir, mFilename);
-
+        String filename = "pc_" + recording.mTimeString + "_"
+                + String.format("%03d", recording.mFileCount) + ".vtk";
 
         try {
-
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(file)));
-
-            out.write(("# vtk DataFile Version 3.0\n" +
-                    "vtk output\n" +
-                    "BINARY\n" +
-                    "DATASET POLYDATA\n" +
-                    "POINTS " + xyzIj.xyzCount + " float\n").getBytes());
-
-            for (int i = 0; i < xyzIj.xyzCount; i++) {
-
-                out.writeFloat(myBuffer.getFloat(3 * i * 4));
-                out.writeFloat(myBuffer.getFloat((3 * i + 1) * 4));
-                out.writeFloat(myBuffer.getFloat((3 * i + 2) * 4));
-            }
-
-            out.write(("\nVERTICES 1 " + String.valueOf(xyzIj.xyzCount + 1) + "\n").getBytes());
-            out.writeInt(xyzIj.xyzCount);
-            for (int i = 0; i < xyzIj.xyzCount; i++) {
-                out.writeInt(i);
-            }
-
-            out.write(("\nFIELD FieldData 1\n" + "timestamp 1 1 float\n").getBytes());
-            out.writeFloat((float) xyzIj.timestamp);
-
-            out.close();
-            mNumberOfFilesWritten++;
-            mTimeToTakeSnap = false;
+            mPointCloudWriter.open(archive.beginEntry(filename));
+            FloatBuffer points = frame.getPoints().duplicate();
+            points.position(0);
+            mPointCloudWriter.writePointCloud(points, frame.getTimestamp(),
+                    recording.mWriteVertices);
+            mPointCloudWriter.flush();
+            archive.closeEntry();
+            recording.mFileCount++;
+            mFilename = filename;
+            mStatsPresenter.onFilesWritten(recording.mFileCount, filename);
 
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // This function writes the pose data and timestamps to .vtk files in binary
-    private void writePoseToFile(int numPoints) {
-
+    // This function creates the folders where the scans are saved
+    private void createSaveDirectory() {
         File mainDir = new File(mMainDirPath);
         if(!mainDir.exists()) {
             boolean created = mainDir.mkdir();
@@ -760,58 +761,41 @@ public class PointCloudActivity extends Activity implements OnClickListener {
                 Log.i(TAG, "Folder: \"" + mSaveDirAbsPath + "\" created\n");
             }
         }
-        String poseFileName = "pc_" + mNowTimeString + "_poses.vtk";
-        mFilenameBuffer.add(mSaveDirAbsPath + poseFileName);
-        File file = new File(dir, poseFileName);
+    }
 
-        try {
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(file)));
-
-            out.write(("# vtk DataFile Version 3.0\n" +
-                    "vtk output\n" +
-                    "BINARY\n" +
-                    "DATASET POLYDATA\n" +
-                    "POINTS " + numPoints + " float\n").getBytes());
-
-            for (int i = 0; i < numPoints; i++) {
-                out.writeFloat(mPosePositionBuffer.get(i)[0]);
-                out.writeFloat(mPosePositionBuffer.get(i)[1]);
-                out.writeFloat(mPosePositionBuffer.get(i)[2]);
-            }
+    // This function writes the pose data and timestamps to a .vtk entry of the archive, in binary
+    private void writePoseToFile(ZipWriter archive, PoseJournal poseJournal,
+            String timeString) throws IOException {
 
-            out.write(("\nLINES 1 " + String.valueOf(numPoints + 1) + "\n").getBytes());
-            out.writeInt(numPoints);
-            for (int i = 0; i < numPoints; i++) {
-                out.writeInt(i);
-            }
+        String poseFileName = "pc_" + timeString + "_poses.vtk";
+        int numPoints = poseJournal.size();
 
-            out.write(("\nFIELD FieldData 1\n" +
-                    "Cam2Dev_transform 16 1 float\n").getBytes());
-            for (int i = 0; i < cam2dev_Transform.length; i++) {
-                out.writeFloat(cam2dev_Transform[i]);
-            }
+        VtkLegacyPolyDataWriter writer = mPoseWriter;
+        writer.open(archive.beginEntry(poseFileName));
+        writer.writeHeader(numPoints);
+        poseJournal.writePositions(writer, numPoints);
 
-            out.write(("\nPOINT_DATA " + String.valueOf(numPoints) + "\n" +
-                    "FIELD FieldData 2\n" +
-                    "orientation 4 " + String.valueOf(numPoints) + " float\n").getBytes());
+        writer.writeCells(VtkLegacyPolyDataWriter.CELLS_LINES, numPoints);
 
-            for (int i = 0; i < numPoints; i++) {
-                out.writeFloat(mPoseOrientationBuffer.get(i)[0]);
-                out.writeFloat(mPoseOrientationBuffer.get(i)[1]);
-                out.writeFloat(mPoseOrientationBuffer.get(i)[2]);
-                out.writeFloat(mPoseOrientationBuffer.get(i)[3]);
-            }
+        writer.writeAscii("\nFIELD FieldData 1\n");
+        writer.writeArrayHeader("Cam2Dev_transform", 16, 1,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        writer.writeFloats(cam2dev_Transform, 0, cam2dev_Transform.length);
 
-            out.write(("\ntimestamp 1 " + String.valueOf(numPoints) + " float\n").getBytes());
-            for (int i = 0; i < numPoints; i++) {
-                out.writeFloat(mPoseTimestampBuffer.get(i));
-            }
+        writer.writeAscii("\nPOINT_DATA ");
+        writer.writeAscii(numPoints);
+        writer.writeAscii("\nFIELD FieldData 2\n");
+        writer.writeArrayHeader("orientation", 4, numPoints,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        poseJournal.writeOrientations(writer, numPoints);
 
-            out.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        writer.writeAscii("\n");
+        writer.writeArrayHeader("timestamp", 1, numPoints,
+                VtkLegacyPolyDataWriter.TYPE_DOUBLE);
+        poseJournal.writeTimestamps(writer, numPoints);
+
+        writer.flush();
+        archive.closeEntry();
     }
 
     // End of My functions
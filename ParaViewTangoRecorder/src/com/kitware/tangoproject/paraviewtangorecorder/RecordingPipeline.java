@@ -0,0 +1,251 @@
+package com.kitware.tangoproject.paraviewtangorecorder;
+
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+import com.kitware.tangoutils.PointCloudFrame;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the depth frames to record from the Tango callback thread to a single
+ * writer thread, through a bounded lock-free ring. When the ring is full, the
+ * {@link BackpressurePolicy} decides which frame is dropped, or whether the
+ * producer waits.
+ *
+ * Frames must be offered from one thread only (the Tango callback thread).
+ */
+public class RecordingPipeline {
+
+    private static final String TAG = RecordingPipeline.class.getSimpleName();
+    private static final long IDLE_PARK_NANOS = 50000000L;
+    private static final long BLOCK_PARK_NANOS = 1000000L;
+
+    public enum BackpressurePolicy {
+        /** Drop the oldest queued frame to make room for the new one */
+        DROP_OLDEST,
+        /** Drop the new frame */
+        DROP_NEWEST,
+        /** Wait on the producer side until the writer makes room */
+        BLOCK
+    }
+
+    /**
+     * Called on the writer thread for each frame taken from the queue.
+     */
+    public interface FrameWriter {
+        void writeFrame(PointCloudFrame frame);
+    }
+
+    private final AtomicReferenceArray<PointCloudFrame> mSlots;
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final BackpressurePolicy mPolicy;
+    private final FrameWriter mFrameWriter;
+    private volatile boolean mIsRunning;
+    private volatile boolean mIsAccepting = true;
+    // Offers in progress, which may have seen the pipeline accepting frames
+    private final AtomicInteger mPendingOfferCount = new AtomicInteger();
+    private volatile Thread mWriterThread;
+
+    /**
+     * @param capacity
+     *            the maximum number of queued frames, rounded up to a power
+     *            of two.
+     */
+    public RecordingPipeline(int capacity, BackpressurePolicy policy,
+            FrameWriter frameWriter) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = size - 1;
+        mSlots = new AtomicReferenceArray<PointCloudFrame>(size);
+        mPolicy = policy;
+        mFrameWriter = frameWriter;
+    }
+
+    public synchronized void start() {
+        if (mWriterThread != null) {
+            return;
+        }
+        mIsRunning = true;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "RecordingPipeline");
+        mWriterThread.start();
+    }
+
+    /**
+     * Writes the frames still queued, then stops the writer thread.
+     */
+    public synchronized void stop() {
+        if (mWriterThread == null) {
+            return;
+        }
+        mIsRunning = false;
+        LockSupport.unpark(mWriterThread);
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWriterThread = null;
+    }
+
+    /**
+     * Starts or stops accepting frames. When it stops, this waits for the
+     * offers in progress, so that a following {@link #flush()} returns with
+     * no frame left to write: frames offered from then on are refused.
+     */
+    public void setAcceptingFrames(boolean accepting) {
+        mIsAccepting = accepting;
+        if (!accepting) {
+            while (mPendingOfferCount.get() > 0) {
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Queues a frame to be written. The pipeline takes its own reference on
+     * the frame, the caller keeps its own.
+     *
+     * @return false if the frame was dropped, or refused because the pipeline
+     *         does not accept frames.
+     */
+    public boolean offer(PointCloudFrame frame) {
+        mPendingOfferCount.incrementAndGet();
+        try {
+            if (!mIsAccepting) {
+                return false;
+            }
+            return enqueue(frame);
+        } finally {
+            mPendingOfferCount.decrementAndGet();
+        }
+    }
+
+    private boolean enqueue(PointCloudFrame frame) {
+        frame.retain();
+        while (true) {
+            long tail = mTail.get();
+            if (tail - mHead.get() < mCapacity) {
+                mSlots.lazySet((int) tail & mMask, frame);
+                mTail.lazySet(tail + 1);
+                LockSupport.unpark(mWriterThread);
+                return true;
+            }
+            switch (mPolicy) {
+            case DROP_OLDEST:
+                PointCloudFrame oldest = poll();
+                if (oldest != null) {
+                    oldest.release();
+                    mDroppedCount.incrementAndGet();
+                    mCompletedCount.incrementAndGet();
+                }
+                break;
+            case BLOCK:
+                if (mIsRunning) {
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    break;
+                }
+                // The writer is gone, nobody will make room: drop the frame
+            case DROP_NEWEST:
+            default:
+                frame.release();
+                mDroppedCount.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Blocks until every frame queued so far has been written or dropped.
+     */
+    public void flush() {
+        while (mCompletedCount.get() < mTail.get()) {
+            if (mWriterThread == null) {
+                drain();
+            }
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+    }
+
+    public long getWrittenFrameCount() {
+        return mWrittenCount.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return mDroppedCount.get();
+    }
+
+    public int getQueuedFrameCount() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    private PointCloudFrame poll() {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return null;
+            }
+            int index = (int) head & mMask;
+            PointCloudFrame frame = mSlots.get(index);
+            if (mHead.compareAndSet(head, head + 1)) {
+                mSlots.compareAndSet(index, frame, null);
+                return frame;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            PointCloudFrame frame = poll();
+            if (frame == null) {
+                if (!mIsRunning) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                mFrameWriter.writeFrame(frame);
+                mWrittenCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to write frame", e);
+            } finally {
+                frame.release();
+                mCompletedCount.incrementAndGet();
+            }
+        }
+    }
+}
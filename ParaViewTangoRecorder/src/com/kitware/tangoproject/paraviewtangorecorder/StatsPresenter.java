@@ -0,0 +1,301 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoproject.paraviewtangorecorder;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kitware.tangoutils.PosePublisher;
+import com.kitware.tangoutils.PoseSnapshot;
+import com.kitware.tangoutils.renderables.PointCloud;
+
+/**
+ * Shows the pose and depth statistics of {@link PointCloudActivity}. The Tango
+ * callbacks only store the latest values in primitive fields, and the
+ * TextViews are refreshed from them at a fixed rate on the UI thread, instead
+ * of posting a message for every callback.
+ *
+ * Numbers are formatted into reused char arrays, and a TextView is only set
+ * when its text changes, so that a refresh does not allocate.
+ */
+public class StatsPresenter implements Runnable {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mRefreshPeriodMillis;
+    private final PosePublisher mPosePublisher;
+    private final PointCloud mPointCloud;
+
+    // Written by the Tango threads
+    private volatile int mValidPoseCount;
+    private volatile float mPoseDeltaTime;
+    private volatile boolean mHasDepthFrame;
+    private volatile int mPointCount;
+    private volatile float mFrameDelta;
+    private volatile int mFilesWrittenCount;
+    private volatile String mLastFilename = "";
+
+    // UI thread only
+    private final PoseSnapshot mPose = new PoseSnapshot();
+    private final TextField mTranslationField;
+    private final TextField mRotationField;
+    private final TextField mPoseCountField;
+    private final TextField mPoseDeltaTimeField;
+    private final TextField mPointCountField;
+    private final TextField mFrameDeltaField;
+    private final TextField mAverageZField;
+    private final TextField mFilesWrittenField;
+    private final TextView mPoseStatusTextView;
+    private int mShownPoseStatus = -1;
+    private View mWaitingView;
+    private boolean mStarted;
+
+    /**
+     * @param waitingView
+     *            the view hidden once the first depth frame arrives.
+     * @param refreshPeriodMillis
+     *            the time between two refreshes of the TextViews.
+     */
+    public StatsPresenter(Activity activity, View waitingView,
+            PosePublisher posePublisher, PointCloud pointCloud,
+            long refreshPeriodMillis) {
+        mWaitingView = waitingView;
+        mPosePublisher = posePublisher;
+        mPointCloud = pointCloud;
+        mRefreshPeriodMillis = refreshPeriodMillis;
+        mTranslationField = new TextField(activity, R.id.pose);
+        mRotationField = new TextField(activity, R.id.quat);
+        mPoseCountField = new TextField(activity, R.id.posecount);
+        mPoseDeltaTimeField = new TextField(activity, R.id.deltatime);
+        mPointCountField = new TextField(activity, R.id.pointCount);
+        mFrameDeltaField = new TextField(activity, R.id.frameDelta);
+        mAverageZField = new TextField(activity, R.id.averageZ);
+        mFilesWrittenField = new TextField(activity, R.id.fileWritten);
+        mPoseStatusTextView = (TextView) activity.findViewById(R.id.status);
+    }
+
+    /**
+     * Records the statistics of a pose callback. The pose itself is read from
+     * the PosePublisher.
+     *
+     * @param deltaTime
+     *            the time since the previous pose, in milliseconds.
+     */
+    public void onPose(int validPoseCount, float deltaTime) {
+        mValidPoseCount = validPoseCount;
+        mPoseDeltaTime = deltaTime;
+    }
+
+    /**
+     * Records the statistics of a depth frame.
+     *
+     * @param frameDelta
+     *            the time since the previous frame, in milliseconds.
+     */
+    public void onDepthFrame(int pointCount, float frameDelta) {
+        mPointCount = pointCount;
+        mFrameDelta = frameDelta;
+        mHasDepthFrame = true;
+    }
+
+    public void onFilesWritten(int count, String lastFilename) {
+        mFilesWrittenCount = count;
+        mLastFilename = lastFilename;
+    }
+
+    /**
+     * Starts the periodic refresh. To be called from the UI thread.
+     */
+    public void start() {
+        if (!mStarted) {
+            mStarted = true;
+            mHandler.post(this);
+        }
+    }
+
+    /**
+     * Stops the periodic refresh. To be called from the UI thread.
+     */
+    public void stop() {
+        mStarted = false;
+        mHandler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (!mStarted) {
+            return;
+        }
+        refresh();
+        mHandler.postDelayed(this, mRefreshPeriodMillis);
+    }
+
+    private void refresh() {
+        mPosePublisher.read(mPose);
+        float[] translation = mPose.getTranslation();
+        mTranslationField.clear().append('[').appendFixed(translation[0])
+                .append(", ").appendFixed(translation[1]).append(", ")
+                .appendFixed(translation[2]).append("] ").show();
+        float[] rotation = mPose.getRotation();
+        mRotationField.clear().append('[').appendFixed(rotation[0])
+                .append(", ").appendFixed(rotation[1]).append(", ")
+                .appendFixed(rotation[2]).append(", ")
+                .appendFixed(rotation[3]).append("] ").show();
+        mPoseCountField.clear().append(mValidPoseCount).show();
+        mPoseDeltaTimeField.clear().appendFixed(mPoseDeltaTime).show();
+        showPoseStatus(mPose.getPoseCount() > 0 ? mPose.getStatusCode() : -1);
+
+        if (!mHasDepthFrame) {
+            return;
+        }
+        if (mWaitingView != null) {
+            mWaitingView.setVisibility(View.GONE);
+            mWaitingView = null;
+        }
+        mPointCountField.clear().append(mPointCount).show();
+        mFrameDeltaField.clear().appendFixed(mFrameDelta).show();
+        mAverageZField.clear().appendFixed(mPointCloud.getAverageZ()).show();
+        mFilesWrittenField.clear().append(mFilesWrittenCount).append('\n')
+                .append(mLastFilename).show();
+    }
+
+    private void showPoseStatus(int statusCode) {
+        if (statusCode == mShownPoseStatus) {
+            return;
+        }
+        mShownPoseStatus = statusCode;
+        if (statusCode == TangoPoseData.POSE_VALID) {
+            mPoseStatusTextView.setText(R.string.pose_valid);
+        } else if (statusCode == TangoPoseData.POSE_INVALID) {
+            mPoseStatusTextView.setText(R.string.pose_invalid);
+        } else if (statusCode == TangoPoseData.POSE_INITIALIZING) {
+            mPoseStatusTextView.setText(R.string.pose_initializing);
+        } else if (statusCode == TangoPoseData.POSE_UNKNOWN) {
+            mPoseStatusTextView.setText(R.string.pose_unknown);
+        }
+    }
+
+    /**
+     * Text of a TextView, built in a reused char array. The TextView keeps a
+     * reference to the array it shows, so the text is built in a second array
+     * and only copied into the shown one when it changed.
+     */
+    private static class TextField {
+        private final TextView mView;
+        private char[] mText = new char[32];
+        private int mLength;
+        private char[] mShownText = new char[32];
+        private int mShownLength = -1;
+
+        TextField(Activity activity, int id) {
+            mView = (TextView) activity.findViewById(id);
+        }
+
+        TextField clear() {
+            mLength = 0;
+            return this;
+        }
+
+        TextField append(char c) {
+            ensureCapacity(mLength + 1);
+            mText[mLength++] = c;
+            return this;
+        }
+
+        TextField append(String s) {
+            int length = s.length();
+            ensureCapacity(mLength + length);
+            s.getChars(0, length, mText, mLength);
+            mLength += length;
+            return this;
+        }
+
+        TextField append(long value) {
+            if (value < 0) {
+                append('-');
+                value = -value;
+            }
+            // Digits are written backwards, then reversed
+            int start = mLength;
+            do {
+                append((char) ('0' + value % 10));
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = mLength - 1; i < j; i++, j--) {
+                char c = mText[i];
+                mText[i] = mText[j];
+                mText[j] = c;
+            }
+            return this;
+        }
+
+        /**
+         * Appends a number with 3 decimals, as DecimalFormat("0.000") does.
+         */
+        TextField appendFixed(float value) {
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                return append(Float.toString(value));
+            }
+            // Ties round to even, as in DecimalFormat
+            long thousandths = (long) Math.rint(value * 1000.0);
+            if (thousandths < 0) {
+                append('-');
+                thousandths = -thousandths;
+            }
+            append(thousandths / 1000);
+            int decimals = (int) (thousandths % 1000);
+            return append('.').append((char) ('0' + decimals / 100))
+                    .append((char) ('0' + decimals / 10 % 10))
+                    .append((char) ('0' + decimals % 10));
+        }
+
+        /**
+         * Sets the text of the TextView, if it changed.
+         */
+        void show() {
+            if (mLength == mShownLength) {
+                boolean changed = false;
+                for (int i = 0; i < mLength; i++) {
+                    if (mText[i] != mShownText[i]) {
+                        changed = true;
+                        break;
+                    }
+                }
+                if (!changed) {
+                    return;
+                }
+            }
+            if (mShownText.length < mLength) {
+                mShownText = new char[mText.length];
+            }
+            System.arraycopy(mText, 0, mShownText, 0, mLength);
+            mShownLength = mLength;
+            mView.setText(mShownText, 0, mLength);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > mText.length) {
+                char[] text = new char[Math.max(capacity, mText.length * 2)];
+                System.arraycopy(mText, 0, text, 0, mLength);
+                mText = text;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.kitware.tangoproject.paraviewtangorecorder;
+
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.google.atap.tangoservice.TangoXyzIjData;
+import com.kitware.tangoutils.PointCloudFrame;
+import com.kitware.tangoutils.PointCloudFramePool;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the XYZ samples of a {@link TangoXyzIjData} straight from its parcel
+ * file descriptor into a {@link PointCloudFrame} of a fixed pool, through a
+ * {@link FileChannel}. The frame is then shared by reference between the
+ * renderer and the file writer.
+ *
+ * The channel is kept as long as the service hands out the same descriptor,
+ * and read with positional reads, so reading a frame does not allocate.
+ */
+public class XyzIjReader {
+
+    private static final String TAG = XyzIjReader.class.getSimpleName();
+    private static final int BYTES_PER_POINT = PointCloudFrame.POINT_TO_XYZ
+            * PointCloudFrame.BYTES_PER_FLOAT;
+
+    private final PointCloudFramePool mPool;
+    private ParcelFileDescriptor mDescriptor;
+    private FileInputStream mStream;
+    private FileChannel mChannel;
+
+    public XyzIjReader(PointCloudFramePool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Reads the points of a depth frame. To be called from a single thread.
+     *
+     * @param xyzIj
+     *            the depth frame given by the Tango service.
+     * @return a frame with one reference owned by the caller, or null if no
+     *         frame is available in the pool. The frame only holds the points
+     *         actually read.
+     */
+    public PointCloudFrame read(TangoXyzIjData xyzIj) {
+        PointCloudFrame frame = mPool.acquire();
+        if (frame == null) {
+            return null;
+        }
+        int pointCount = Math.min(xyzIj.xyzCount, mPool.getMaxPoints());
+        ByteBuffer buffer = frame.getByteBuffer();
+        buffer.limit(pointCount * BYTES_PER_POINT);
+        long offset = xyzIj.xyzParcelFileDescriptorOffset;
+        try {
+            FileChannel channel = getChannel(xyzIj.xyzParcelFileDescriptor);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    Log.w(TAG, "Depth frame truncated at " + buffer.position()
+                            + " bytes");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read depth frame", e);
+        }
+        // Only whole points that were actually read are kept
+        int readCount = buffer.position() / BYTES_PER_POINT;
+        buffer.position(0);
+        frame.setPointCount(readCount, xyzIj.timestamp);
+        return frame;
+    }
+
+    /**
+     * @return the channel of a descriptor, opened again only when the
+     *         service hands out a different descriptor.
+     */
+    private FileChannel getChannel(ParcelFileDescriptor descriptor)
+            throws IOException {
+        if (descriptor != mDescriptor) {
+            if (mStream != null) {
+                // A stream created from a FileDescriptor does not own it: this
+                // does not close the descriptor of the service
+                mStream.close();
+            }
+            mStream = new FileInputStream(descriptor.getFileDescriptor());
+            mChannel = mStream.getChannel();
+            mDescriptor = descriptor;
+        }
+        return mChannel;
+    }
+}
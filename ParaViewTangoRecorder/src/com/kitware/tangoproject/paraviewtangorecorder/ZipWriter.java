@@ -16,57 +16,617 @@ package com.kitware.tangoproject.paraviewtangorecorder;
  * limitations under the License.
  *
  */
-/*
- * Based on example provided by:
- * http://www.jondev.net/articles/Zipping_Files_with_Android_%28Programmatically%29
- */
-
 
-import android.util.Log;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 
+/**
+ * Archive that stays open while a scan is recorded: each file is added as an
+ * entry as soon as it is produced, so finishing the archive only takes
+ * writing the last entries and the central directory.
+ *
+ * Entries are buffered in memory until {@link #closeEntry()}, then stored or
+ * deflated according to the {@link Compression} of the archive. With
+ * {@link Compression#PARALLEL_DEFLATE}, entries are compressed on a small
+ * worker pool and written in the order they were added. The archive is
+ * written to a temporary file, and renamed to its final name by
+ * {@link #close(String)}.
+ *
+ * An entry growing past {@link #MAX_BUFFERED_ENTRY_SIZE} is streamed to the
+ * archive instead, on the writing thread: deflated entries are followed by
+ * a data descriptor holding their CRC and sizes, and the local header of
+ * stored entries is completed once they are closed. Buffered entries are
+ * written without a data descriptor, and ZIP64 records are only added when
+ * the archive grows past 4 GB or 65535 entries.
+ */
 public class ZipWriter {
 
-    private static final int BUFFER = 2048;
-    private String[] _files;
-    private String _zipFile;
+    public enum Compression {
+        /** Entries are stored without compression */
+        STORED,
+        /** Entries are deflated on the thread closing them */
+        DEFLATE,
+        /** Entries are deflated on a worker pool, and written in order */
+        PARALLEL_DEFLATE
+    }
+
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final int INITIAL_ENTRY_SIZE = 64 * 1024;
+    // Covers a depth frame of up to about 200k points with its VERTICES
+    // cell, so that frames are never streamed and can be deflated in parallel
+    private static final int MAX_BUFFERED_ENTRY_SIZE = 4 * 1024 * 1024;
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    private static final int PARALLEL_ENTRIES_PER_THREAD = 2;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final short VERSION_DEFAULT = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+    private static final short FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int LOCAL_HEADER_CRC_OFFSET = 14;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final File mPartialFile;
+    private final FileOutputStream mFileStream;
+    private final FileChannel mOut;
+    private final Compression mCompression;
+    private final int mLevel;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(128).order(
+            ByteOrder.LITTLE_ENDIAN);
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    private final ArrayDeque<Future<Entry>> mPendingEntries = new ArrayDeque<Future<Entry>>();
+    private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<byte[]>();
+    private final EntryChannel mEntryChannel = new EntryChannel();
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final CRC32 mCrc = new CRC32();
+    private Deflater mDeflater;
+    // Deflaters of the worker pool, at most one per worker
+    private final ConcurrentLinkedQueue<Deflater> mFreeDeflaters =
+            new ConcurrentLinkedQueue<Deflater>();
+    private byte[] mDeflated;
+    private byte[] mStreamInput;
+    private byte[] mStreamOutput;
+    private ExecutorService mExecutor;
+    private int mMaxPendingEntries;
+    private Entry mCurrentEntry;
+    private long mOffset;
+
+    /**
+     * Creates an archive whose entries are deflated with the default level.
+     */
+    public ZipWriter(String zipFile) throws IOException {
+        this(zipFile, Compression.DEFLATE, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * @param compression
+     *            how the entries are compressed.
+     * @param level
+     *            the deflate level, from {@link Deflater#BEST_SPEED} to
+     *            {@link Deflater#BEST_COMPRESSION}. Ignored for STORED
+     *            archives.
+     * @param threadCount
+     *            the number of compression threads, used by PARALLEL_DEFLATE
+     *            archives only.
+     */
+    public ZipWriter(String zipFile, Compression compression, int level,
+            int threadCount) throws IOException {
+        mPartialFile = new File(zipFile + PARTIAL_SUFFIX);
+        mFileStream = new FileOutputStream(mPartialFile);
+        mOut = mFileStream.getChannel();
+        mCompression = compression;
+        mLevel = level;
+        if (compression == Compression.DEFLATE) {
+            mDeflater = new Deflater(level, true);
+        } else if (compression == Compression.PARALLEL_DEFLATE) {
+            threadCount = Math.max(threadCount, 1);
+            mExecutor = Executors.newFixedThreadPool(threadCount);
+            mMaxPendingEntries = threadCount * PARALLEL_ENTRIES_PER_THREAD;
+        }
+    }
+
+    /**
+     * Starts a new entry, closing the previous one if needed.
+     *
+     * @return the channel to write the content of the entry to. It must not
+     *         be closed.
+     */
+    public WritableByteChannel beginEntry(String name) throws IOException {
+        if (mCurrentEntry != null) {
+            closeEntry();
+        }
+        mCurrentEntry = new Entry(name, dosTime(System.currentTimeMillis()),
+                takeBuffer());
+        return mEntryChannel;
+    }
+
+    /**
+     * Compresses the current entry and writes it to the archive, or hands it
+     * to the worker pool for PARALLEL_DEFLATE archives.
+     */
+    public void closeEntry() throws IOException {
+        final Entry entry = mCurrentEntry;
+        if (entry == null) {
+            return;
+        }
+        mCurrentEntry = null;
+        if (entry.mStreamed) {
+            finishStreamedEntry(entry);
+            return;
+        }
+        switch (mCompression) {
+        case STORED:
+            entry.store(mCrc);
+            writeEntry(entry);
+            break;
+        case DEFLATE:
+            mDeflated = entry.deflate(mCrc, mDeflater, mDeflated);
+            writeEntry(entry);
+            break;
+        case PARALLEL_DEFLATE:
+            mPendingEntries.add(mExecutor.submit(new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    Deflater deflater = mFreeDeflaters.poll();
+                    if (deflater == null) {
+                        deflater = new Deflater(mLevel, true);
+                    }
+                    try {
+                        entry.deflate(new CRC32(), deflater, null);
+                    } finally {
+                        mFreeDeflaters.add(deflater);
+                    }
+                    return entry;
+                }
+            }));
+            writeCompletedEntries(mMaxPendingEntries - 1);
+            break;
+        }
+    }
+
+    public int getEntryCount() {
+        return mEntries.size() + mPendingEntries.size()
+                + (mCurrentEntry != null ? 1 : 0);
+    }
+
+    /**
+     * Writes the last entries and the central directory, closes the archive
+     * and gives it its final name.
+     *
+     * @return the archive file.
+     */
+    public File close(String zipFile) throws IOException {
+        try {
+            closeEntry();
+            writeCompletedEntries(0);
+            writeCentralDirectory();
+        } finally {
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+            }
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+            // A task still running after a failure keeps its deflater, which
+            // is then ended by the garbage collector
+            Deflater deflater;
+            while ((deflater = mFreeDeflaters.poll()) != null) {
+                deflater.end();
+            }
+            mFileStream.close();
+        }
+        File file = new File(zipFile);
+        if (!mPartialFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + mPartialFile + " to " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes the entries compressed by the worker pool, in order, until at
+     * most maxPending entries are left in the pool.
+     */
+    private void writeCompletedEntries(int maxPending) throws IOException {
+        while (!mPendingEntries.isEmpty()
+                && (mPendingEntries.size() > maxPending || mPendingEntries.peek().isDone())) {
+            Entry entry;
+            try {
+                entry = mPendingEntries.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing an entry");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to compress an entry: " + e.getCause());
+            }
+            writeEntry(entry);
+        }
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        if (entry.mCompressedSize >= ZIP64_MAGIC || entry.mSize >= ZIP64_MAGIC) {
+            throw new IOException("Entry " + entry.mName + " is larger than 4 GB");
+        }
+        entry.mOffset = mOffset;
+        mHeader.clear();
+        mHeader.putInt(LOCAL_HEADER_SIGNATURE);
+        mHeader.putShort(VERSION_DEFAULT);
+        mHeader.putShort(entry.mFlags);
+        putEntryDescription(entry);
+        mHeader.putShort((short) 0);
+        mHeader.flip();
+        write(mHeader);
+        write(ByteBuffer.wrap(entry.mNameBytes));
+        write(ByteBuffer.wrap(entry.mData, 0, (int) entry.mCompressedSize));
+        mOffset += 30 + entry.mNameBytes.length + entry.mCompressedSize;
+        mEntries.add(entry);
+        mFreeBuffers.add(entry.mBuffer);
+        entry.mBuffer = null;
+        entry.mData = null;
+    }
+
+    /**
+     * Writes the local header of the current entry and the content buffered
+     * so far, after which the content of the entry goes straight to the
+     * archive.
+     */
+    private void startStreamedEntry(Entry entry) throws IOException {
+        // Entries still in the worker pool come first
+        writeCompletedEntries(0);
+        entry.mStreamed = true;
+        if (mCompression == Compression.STORED) {
+            entry.mMethod = METHOD_STORED;
+        } else {
+            entry.mMethod = METHOD_DEFLATED;
+            entry.mFlags = FLAG_DATA_DESCRIPTOR;
+            if (mDeflater == null) {
+                mDeflater = new Deflater(mLevel, true);
+            }
+            mDeflater.reset();
+        }
+        if (mStreamInput == null) {
+            mStreamInput = new byte[STREAM_CHUNK_SIZE];
+            mStreamOutput = new byte[STREAM_CHUNK_SIZE];
+        }
+        mCrc.reset();
+
+        entry.mOffset = mOffset;
+        mHeader.clear();
+        mHeader.putInt(LOCAL_HEADER_SIGNATURE);
+        mHeader.putShort(VERSION_DEFAULT);
+        mHeader.putShort(entry.mFlags);
+        putEntryDescription(entry);
+        mHeader.putShort((short) 0);
+        mHeader.flip();
+        write(mHeader);
+        write(ByteBuffer.wrap(entry.mNameBytes));
+        mOffset += 30 + entry.mNameBytes.length;
+
+        int bufferedSize = (int) entry.mSize;
+        entry.mSize = 0;
+        streamData(entry, entry.mBuffer, 0, bufferedSize);
+        mFreeBuffers.add(entry.mBuffer);
+        entry.mBuffer = null;
+    }
+
+    private void streamData(Entry entry, ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            int length = src.remaining();
+            streamData(entry, src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.position() + length);
+            return;
+        }
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(), mStreamInput.length);
+            src.get(mStreamInput, 0, length);
+            streamData(entry, mStreamInput, 0, length);
+        }
+    }
+
+    private void streamData(Entry entry, byte[] data, int offset, int length)
+            throws IOException {
+        mCrc.update(data, offset, length);
+        entry.mSize += length;
+        if (entry.mMethod == METHOD_STORED) {
+            write(ByteBuffer.wrap(data, offset, length));
+            entry.mCompressedSize += length;
+            return;
+        }
+        mDeflater.setInput(data, offset, length);
+        while (!mDeflater.needsInput()) {
+            writeDeflated(entry);
+        }
+    }
+
+    private void writeDeflated(Entry entry) throws IOException {
+        int length = mDeflater.deflate(mStreamOutput, 0, mStreamOutput.length);
+        write(ByteBuffer.wrap(mStreamOutput, 0, length));
+        entry.mCompressedSize += length;
+    }
+
+    /**
+     * Writes the end of a streamed entry, and its CRC and sizes: in a data
+     * descriptor for deflated entries, or in place in the local header for
+     * stored ones, since readers expect stored data to have a known size.
+     */
+    private void finishStreamedEntry(Entry entry) throws IOException {
+        if (entry.mMethod == METHOD_DEFLATED) {
+            mDeflater.finish();
+            while (!mDeflater.finished()) {
+                writeDeflated(entry);
+            }
+        }
+        entry.mCrc = mCrc.getValue();
+        if (entry.mCompressedSize >= ZIP64_MAGIC || entry.mSize >= ZIP64_MAGIC) {
+            throw new IOException("Entry " + entry.mName + " is larger than 4 GB");
+        }
+        mOffset += entry.mCompressedSize;
+
+        mHeader.clear();
+        if (entry.mMethod == METHOD_DEFLATED) {
+            mHeader.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        }
+        mHeader.putInt((int) entry.mCrc);
+        mHeader.putInt((int) entry.mCompressedSize);
+        mHeader.putInt((int) entry.mSize);
+        mHeader.flip();
+        if (entry.mMethod == METHOD_DEFLATED) {
+            mOffset += mHeader.remaining();
+            write(mHeader);
+        } else {
+            long position = entry.mOffset + LOCAL_HEADER_CRC_OFFSET;
+            while (mHeader.hasRemaining()) {
+                position += mOut.write(mHeader, position);
+            }
+        }
+        mEntries.add(entry);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long directoryOffset = mOffset;
+        for (Entry entry : mEntries) {
+            boolean zip64 = entry.mOffset >= ZIP64_MAGIC;
+            mHeader.clear();
+            mHeader.putInt(CENTRAL_HEADER_SIGNATURE);
+            mHeader.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            mHeader.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            mHeader.putShort(entry.mFlags);
+            putEntryDescription(entry);
+            mHeader.putShort((short) (zip64 ? 12 : 0));
+            mHeader.putShort((short) 0);
+            mHeader.putShort((short) 0);
+            mHeader.putShort((short) 0);
+            mHeader.putInt(0);
+            mHeader.putInt((int) (zip64 ? ZIP64_MAGIC : entry.mOffset));
+            mHeader.flip();
+            write(mHeader);
+            write(ByteBuffer.wrap(entry.mNameBytes));
+            mOffset += 46 + entry.mNameBytes.length;
+            if (zip64) {
+                mHeader.clear();
+                mHeader.putShort(ZIP64_EXTRA_ID);
+                mHeader.putShort((short) 8);
+                mHeader.putLong(entry.mOffset);
+                mHeader.flip();
+                write(mHeader);
+                mOffset += 12;
+            }
+        }
+        long directorySize = mOffset - directoryOffset;
+        int entryCount = mEntries.size();
+        boolean zip64 = entryCount >= ZIP64_MAGIC_COUNT
+                || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC;
+
+        mHeader.clear();
+        if (zip64) {
+            long zip64EndOffset = mOffset;
+            mHeader.putInt(ZIP64_END_SIGNATURE);
+            mHeader.putLong(44);
+            mHeader.putShort(VERSION_ZIP64);
+            mHeader.putShort(VERSION_ZIP64);
+            mHeader.putInt(0);
+            mHeader.putInt(0);
+            mHeader.putLong(entryCount);
+            mHeader.putLong(entryCount);
+            mHeader.putLong(directorySize);
+            mHeader.putLong(directoryOffset);
+            mHeader.putInt(ZIP64_LOCATOR_SIGNATURE);
+            mHeader.putInt(0);
+            mHeader.putLong(zip64EndOffset);
+            mHeader.putInt(1);
+        }
+        mHeader.putInt(END_SIGNATURE);
+        mHeader.putShort((short) 0);
+        mHeader.putShort((short) 0);
+        mHeader.putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        mHeader.putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        mHeader.putInt((int) Math.min(directorySize, ZIP64_MAGIC));
+        mHeader.putInt((int) Math.min(directoryOffset, ZIP64_MAGIC));
+        mHeader.putShort((short) 0);
+        mHeader.flip();
+        write(mHeader);
+    }
 
-    public ZipWriter(String[] files, String zipFile) {
-        _files = files;
-        _zipFile = zipFile;
+    /**
+     * Puts the fields shared by the local and central headers, from the
+     * compression method to the extra field length excluded.
+     */
+    private void putEntryDescription(Entry entry) {
+        mHeader.putShort(entry.mMethod);
+        mHeader.putInt(entry.mDosTime);
+        mHeader.putInt((int) entry.mCrc);
+        mHeader.putInt((int) entry.mCompressedSize);
+        mHeader.putInt((int) entry.mSize);
+        mHeader.putShort((short) entry.mNameBytes.length);
     }
 
-    public void zip() {
-        try  {
-            BufferedInputStream origin = null;
-            FileOutputStream dest = new FileOutputStream(_zipFile);
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mOut.write(buffer);
+        }
+    }
+
+    private byte[] takeBuffer() {
+        byte[] buffer = mFreeBuffers.poll();
+        return buffer != null ? buffer : new byte[INITIAL_ENTRY_SIZE];
+    }
+
+    /**
+     * Converts a time to the MS-DOS date (high 16 bits) and time (low 16
+     * bits) used by ZIP headers.
+     */
+    private int dosTime(long time) {
+        mCalendar.setTimeInMillis(time);
+        int year = Math.max(mCalendar.get(Calendar.YEAR) - 1980, 0);
+        int date = (year << 9) | ((mCalendar.get(Calendar.MONTH) + 1) << 5)
+                | mCalendar.get(Calendar.DAY_OF_MONTH);
+        int dayTime = (mCalendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (mCalendar.get(Calendar.MINUTE) << 5)
+                | (mCalendar.get(Calendar.SECOND) >> 1);
+        return (date << 16) | dayTime;
+    }
 
-            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(dest));
+    /**
+     * An entry of the archive: its uncompressed content while it is buffered,
+     * then its compressed data until it is written to the archive, and its
+     * description for the central directory. Streamed entries only keep
+     * their description.
+     */
+    private static class Entry {
+        final String mName;
+        final byte[] mNameBytes;
+        final int mDosTime;
+        byte[] mBuffer;
+        byte[] mData;
+        short mMethod;
+        short mFlags;
+        boolean mStreamed;
+        long mSize;
+        long mCompressedSize;
+        long mCrc;
+        long mOffset;
 
-            byte data[] = new byte[BUFFER];
+        Entry(String name, int dosTime, byte[] buffer) {
+            mName = name;
+            mNameBytes = toBytes(name);
+            mDosTime = dosTime;
+            mBuffer = buffer;
+        }
+
+        void append(ByteBuffer src) {
+            int length = src.remaining();
+            int required = (int) mSize + length;
+            if (required > mBuffer.length) {
+                byte[] larger = new byte[Math.max(required, mBuffer.length * 2)];
+                System.arraycopy(mBuffer, 0, larger, 0, (int) mSize);
+                mBuffer = larger;
+            }
+            src.get(mBuffer, (int) mSize, length);
+            mSize = required;
+        }
+
+        void store(CRC32 crc) {
+            crc.reset();
+            crc.update(mBuffer, 0, (int) mSize);
+            mCrc = crc.getValue();
+            mMethod = METHOD_STORED;
+            mData = mBuffer;
+            mCompressedSize = mSize;
+        }
 
-            for (String _file : _files) {
-//                Log.i("Compress", "Adding: " + _file.substring(_file.lastIndexOf("/") + 1));
-                FileInputStream fi = new FileInputStream(_file);
-                origin = new BufferedInputStream(fi, BUFFER);
-                ZipEntry entry = new ZipEntry(_file.substring(_file.lastIndexOf("/") + 1));
-                out.putNextEntry(entry);
-                int count;
-                while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                    out.write(data, 0, count);
+        /**
+         * Deflates the entry into the given output buffer, or a new one if it
+         * is too small.
+         *
+         * @return the output buffer.
+         */
+        byte[] deflate(CRC32 crc, Deflater deflater, byte[] output) {
+            crc.reset();
+            crc.update(mBuffer, 0, (int) mSize);
+            mCrc = crc.getValue();
+            int bound = (int) mSize + (int) (mSize >> 12) + 64;
+            if (output == null || output.length < bound) {
+                output = new byte[bound];
+            }
+            deflater.reset();
+            deflater.setInput(mBuffer, 0, (int) mSize);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    byte[] larger = new byte[output.length * 2];
+                    System.arraycopy(output, 0, larger, 0, length);
+                    output = larger;
                 }
-                origin.close();
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            mMethod = METHOD_DEFLATED;
+            mData = output;
+            mCompressedSize = length;
+            return output;
+        }
+
+        private static byte[] toBytes(String name) {
+            byte[] bytes = new byte[name.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) name.charAt(i);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Channel appending to the entry being written, in memory or to the
+     * archive once the entry is streamed.
+     */
+    private class EntryChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            Entry entry = mCurrentEntry;
+            int length = src.remaining();
+            if (!entry.mStreamed && entry.mSize + length > MAX_BUFFERED_ENTRY_SIZE) {
+                startStreamedEntry(entry);
+            }
+            if (entry.mStreamed) {
+                streamData(entry, src);
+            } else {
+                entry.append(src);
             }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mCurrentEntry != null;
+        }
 
-            out.close();
-        } catch(Exception e) {
-            e.printStackTrace();
+        @Override
+        public void close() {
+            // The archive owns the channel
         }
     }
 }
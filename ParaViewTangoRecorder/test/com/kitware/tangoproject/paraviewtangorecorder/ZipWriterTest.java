@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoproject.paraviewtangorecorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Writes archives with {@link ZipWriter} and reads them back with
+ * java.util.zip, through both the central directory (ZipFile) and the local
+ * headers (ZipInputStream), comparing the names, sizes, CRCs and content of
+ * the entries.
+ */
+public class ZipWriterTest {
+
+    // The staging buffer size of VtkLegacyPolyDataWriter
+    private static final int WRITE_SIZE = 64 * 1024;
+    // Larger than the buffered entries, so that they are streamed
+    private static final int STREAMED_ENTRY_SIZE = 5 * 1024 * 1024;
+    // More entries than the 16 bits count of the end record
+    private static final int ZIP64_ENTRY_COUNT = 70000;
+
+    private final List<File> mFiles = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void storedEntriesRoundTrip() throws IOException {
+        List<byte[]> contents = createContents(new int[] { 0, 1, 100, 70000,
+                1000000 });
+        File file = writeArchive(ZipWriter.Compression.STORED, 1, contents,
+                false);
+        checkArchive(file, contents, ZipEntry.STORED);
+    }
+
+    @Test
+    public void deflatedEntriesRoundTrip() throws IOException {
+        List<byte[]> contents = createContents(new int[] { 0, 1, 100, 70000,
+                1000000 });
+        File file = writeArchive(ZipWriter.Compression.DEFLATE, 1, contents,
+                false);
+        checkArchive(file, contents, ZipEntry.DEFLATED);
+    }
+
+    @Test
+    public void parallelDeflatedEntriesKeepTheirOrder() throws IOException {
+        int[] sizes = new int[40];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = (i % 5) * 300000 + i;
+        }
+        List<byte[]> contents = createContents(sizes);
+        File file = writeArchive(ZipWriter.Compression.PARALLEL_DEFLATE, 3,
+                contents, false);
+        checkArchive(file, contents, ZipEntry.DEFLATED);
+    }
+
+    @Test
+    public void largeEntriesAreStreamed() throws IOException {
+        List<byte[]> contents = createContents(new int[] { 1000,
+                STREAMED_ENTRY_SIZE, 1000, STREAMED_ENTRY_SIZE + 1 });
+        for (ZipWriter.Compression compression : ZipWriter.Compression.values()) {
+            // Direct buffers, like the ones of VtkLegacyPolyDataWriter
+            File file = writeArchive(compression, 2, contents, true);
+            checkArchive(file, contents,
+                    compression == ZipWriter.Compression.STORED ? ZipEntry.STORED
+                            : ZipEntry.DEFLATED);
+        }
+    }
+
+    @Test
+    public void manyEntriesUseZip64EndRecords() throws IOException {
+        int[] sizes = new int[ZIP64_ENTRY_COUNT];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = i % 7;
+        }
+        List<byte[]> contents = createContents(sizes);
+        File file = writeArchive(ZipWriter.Compression.STORED, 1, contents,
+                false);
+        checkArchive(file, contents, ZipEntry.STORED);
+    }
+
+    @Test
+    public void closeRenamesThePartialFile() throws IOException {
+        File file = File.createTempFile("archive", ".zip");
+        mFiles.add(file);
+        File partial = new File(file.getPath() + ".part");
+        mFiles.add(partial);
+        File renamed = new File(file.getPath() + ".final");
+        mFiles.add(renamed);
+        ZipWriter writer = new ZipWriter(file.getPath());
+        assertTrue(partial.exists());
+        writer.beginEntry("a").write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        assertEquals(renamed, writer.close(renamed.getPath()));
+        assertFalse(partial.exists());
+        assertTrue(renamed.exists());
+    }
+
+    private static List<byte[]> createContents(int[] sizes) {
+        Random random = new Random(sizes.length);
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (int size : sizes) {
+            // Few distinct bytes, so that deflate has something to compress
+            byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) random.nextInt(16);
+            }
+            contents.add(content);
+        }
+        return contents;
+    }
+
+    private static String getName(int index) {
+        return "pc_" + index + ".vtk";
+    }
+
+    /**
+     * Writes each content as an entry, in chunks like VtkLegacyPolyDataWriter
+     * does, leaving the last entry for close() to finish.
+     */
+    private File writeArchive(ZipWriter.Compression compression,
+            int threadCount, List<byte[]> contents, boolean direct)
+            throws IOException {
+        File file = File.createTempFile("archive", ".zip");
+        mFiles.add(file);
+        ZipWriter writer = new ZipWriter(file.getPath(), compression,
+                Deflater.BEST_SPEED, threadCount);
+        ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(WRITE_SIZE)
+                : ByteBuffer.allocate(WRITE_SIZE);
+        for (int i = 0; i < contents.size(); i++) {
+            WritableByteChannel channel = writer.beginEntry(getName(i));
+            byte[] content = contents.get(i);
+            for (int offset = 0; offset < content.length; offset += WRITE_SIZE) {
+                chunk.clear();
+                chunk.put(content, offset,
+                        Math.min(WRITE_SIZE, content.length - offset));
+                chunk.flip();
+                channel.write(chunk);
+            }
+            if (i + 1 < contents.size()) {
+                writer.closeEntry();
+            }
+        }
+        assertEquals(contents.size(), writer.getEntryCount());
+        return writer.close(file.getPath());
+    }
+
+    private static void checkArchive(File file, List<byte[]> contents,
+            int method) throws IOException {
+        CRC32 crc = new CRC32();
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            assertEquals(contents.size(), zipFile.size());
+            for (int i = 0; i < contents.size(); i++) {
+                byte[] content = contents.get(i);
+                ZipEntry entry = zipFile.getEntry(getName(i));
+                assertNotNull(getName(i), entry);
+                assertEquals(method, entry.getMethod());
+                assertEquals(content.length, entry.getSize());
+                crc.reset();
+                crc.update(content);
+                assertEquals(crc.getValue(), entry.getCrc());
+                assertArrayEquals(content, readFully(zipFile.getInputStream(entry)));
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        ZipInputStream stream = new ZipInputStream(new FileInputStream(file));
+        try {
+            for (int i = 0; i < contents.size(); i++) {
+                byte[] content = contents.get(i);
+                ZipEntry entry = stream.getNextEntry();
+                assertEquals(getName(i), entry.getName());
+                assertArrayEquals(content, readFully(stream));
+                // Known once the entry is read, for streamed entries
+                assertEquals(content.length, entry.getSize());
+                crc.reset();
+                crc.update(content);
+                assertEquals(crc.getValue(), entry.getCrc());
+            }
+            assertNull(stream.getNextEntry());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -16,12 +16,19 @@
 
 package com.kitware.tangoutils;
 
-import android.opengl.Matrix;
+import com.kitware.tangoutils.math.Matrix4;
+import com.kitware.tangoutils.math.Quaternion;
 
 /**
  * Utility class to manage the calculation of a Model Matrix from the
  * translation and quaternion arrays obtained from an {@link TangoPose} object.
- * Delegates some mathematical computations to the {@link MathUtils}.
+ * Delegates the mathematical computations to {@link Matrix4} and
+ * {@link Quaternion}.
+ *
+ * The model matrix and the point cloud model matrix each have their own
+ * scratch space, so they can be updated from different threads (the pose and
+ * the depth callbacks of the Tango service), as long as each one is only
+ * updated from one thread at a time.
  */
 public class ModelMatCalculator {
 
@@ -29,6 +36,9 @@ public class ModelMatCalculator {
             0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
             0.0f, 1.0f };
 
+    private static final float[] INVERT_Y_AND_Z_SIGNS = new float[] { 1.0f,
+            -1.0f, -1.0f, 1.0f };
+
     private float[] mModelMatrix = new float[16];
     private float[] mPointCloudModelMatrix = new float[16];
     private float[] mDevice2IMUMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f,
@@ -40,14 +50,27 @@ public class ModelMatCalculator {
     private float[] mOpengl2ColorCameraMatrix = new float[] { 1.0f, 0.0f, 0.0f,
             0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f,
             0.0f, 1.0f };
+    // invert(Device2IMU) * ColorCamera2IMU * Opengl2ColorCamera, only
+    // recomputed when the extrinsics change
+    private float[] mExtrinsicMatrix = new float[16];
+    // Scratch space of the model matrix updates
+    private final float[] mQuaternionMatrix = new float[16];
+    private final float[] mTempMatrix = new float[16];
+    // Scratch space of the point cloud model matrix updates
+    private final float[] mPointCloudQuaternionMatrix = new float[16];
+    private final float[] mPointCloudTempMatrix = new float[16];
+    // Scratch space of the extrinsics updates
+    private final float[] mExtrinsicTempMatrix = new float[16];
+    private final float[] mExtrinsicTempMatrix2 = new float[16];
 
     public ModelMatCalculator() {
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.setIdentityM(mPointCloudModelMatrix, 0);
+        Matrix4.setIdentity(mModelMatrix);
+        Matrix4.setIdentity(mPointCloudModelMatrix);
+        updateExtrinsicMatrix();
     }
 
     /**
-     * Updates the model matrix (rotation and translation).
+     * Updates the point cloud model matrix (rotation and translation).
      * 
      * @param translation
      *            a three-element array of translation data.
@@ -56,32 +79,23 @@ public class ModelMatCalculator {
      */
     public void updatePointCloudModelMatrix(float[] translation,
             float[] quaternion) {
+        composeModelMatrix(mPointCloudModelMatrix, translation[0],
+                translation[1], translation[2], quaternion[0], quaternion[1],
+                quaternion[2], quaternion[3], mPointCloudQuaternionMatrix,
+                mPointCloudTempMatrix);
+    }
 
-        float[] tempMultMatrix = new float[16];
-        Matrix.setIdentityM(tempMultMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix, 0, mColorCamera2IMUMatrix, 0,
-                mOpengl2ColorCameraMatrix, 0);
-        float[] tempInvertMatrix = new float[16];
-        Matrix.setIdentityM(tempInvertMatrix, 0);
-        Matrix.invertM(tempInvertMatrix, 0, mDevice2IMUMatrix, 0);
-        float[] tempMultMatrix2 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix2, 0);
-        Matrix.multiplyMM(tempMultMatrix2, 0, tempInvertMatrix, 0,
-                tempMultMatrix, 0);
-
-        float[] quaternionMatrix = new float[16];
-        Matrix.setIdentityM(quaternionMatrix, 0);
-        quaternionMatrix = quaternionMatrixOpenGL(quaternion);
-        float[] tempMultMatrix3 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix3, 0);
-        Matrix.setIdentityM(mPointCloudModelMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix3, 0, quaternionMatrix, 0,
-                tempMultMatrix2, 0);
-        Matrix.multiplyMM(mPointCloudModelMatrix, 0, mConversionMatrix, 0,
-                tempMultMatrix3, 0);
-        mPointCloudModelMatrix[12] += translation[0];
-        mPointCloudModelMatrix[13] += translation[2];
-        mPointCloudModelMatrix[14] += -1f * translation[1];
+    /**
+     * Updates the point cloud model matrix from the translation and rotation
+     * arrays of a TangoPoseData, without converting them to floats first.
+     */
+    public void updatePointCloudModelMatrix(double[] translation,
+            double[] quaternion) {
+        composeModelMatrix(mPointCloudModelMatrix, (float) translation[0],
+                (float) translation[1], (float) translation[2],
+                (float) quaternion[0], (float) quaternion[1],
+                (float) quaternion[2], (float) quaternion[3],
+                mPointCloudQuaternionMatrix, mPointCloudTempMatrix);
     }
 
     /**
@@ -93,32 +107,21 @@ public class ModelMatCalculator {
      *            a four-element array of rotation data.
      */
     public void updateModelMatrix(float[] translation, float[] quaternion) {
+        composeModelMatrix(mModelMatrix, translation[0], translation[1],
+                translation[2], quaternion[0], quaternion[1], quaternion[2],
+                quaternion[3], mQuaternionMatrix, mTempMatrix);
+    }
 
-        float[] tempMultMatrix = new float[16];
-        Matrix.setIdentityM(tempMultMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix, 0, mColorCamera2IMUMatrix, 0,
-                mOpengl2ColorCameraMatrix, 0);
-        float[] tempInvertMatrix = new float[16];
-        Matrix.setIdentityM(tempInvertMatrix, 0);
-        Matrix.invertM(tempInvertMatrix, 0, mDevice2IMUMatrix, 0);
-        float[] tempMultMatrix2 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix2, 0);
-        Matrix.multiplyMM(tempMultMatrix2, 0, tempInvertMatrix, 0,
-                tempMultMatrix, 0);
-
-        float[] quaternionMatrix = new float[16];
-        Matrix.setIdentityM(quaternionMatrix, 0);
-        quaternionMatrix = quaternionMatrixOpenGL(quaternion);
-        float[] tempMultMatrix3 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix3, 0);
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix3, 0, quaternionMatrix, 0,
-                tempMultMatrix2, 0);
-        Matrix.multiplyMM(mModelMatrix, 0, mConversionMatrix, 0,
-                tempMultMatrix3, 0);
-        mModelMatrix[12] += translation[0];
-        mModelMatrix[13] += translation[2];
-        mModelMatrix[14] += -1f * translation[1];
+    /**
+     * Updates the model matrix from the translation and rotation arrays of a
+     * TangoPoseData, without converting them to floats first.
+     */
+    public void updateModelMatrix(double[] translation, double[] quaternion) {
+        composeModelMatrix(mModelMatrix, (float) translation[0],
+                (float) translation[1], (float) translation[2],
+                (float) quaternion[0], (float) quaternion[1],
+                (float) quaternion[2], (float) quaternion[3],
+                mQuaternionMatrix, mTempMatrix);
     }
 
     public void SetDevice2IMUMatrix(float[] translation, float[] quaternion) {
@@ -126,6 +129,7 @@ public class ModelMatCalculator {
         mDevice2IMUMatrix[12] = translation[0];
         mDevice2IMUMatrix[13] = translation[1];
         mDevice2IMUMatrix[14] = translation[2];
+        updateExtrinsicMatrix();
     }
 
     public void SetColorCamera2IMUMatrix(float[] translation, float[] quaternion) {
@@ -136,6 +140,7 @@ public class ModelMatCalculator {
         mColorCamera2IMUMatrix[12] = translation[0];
         mColorCamera2IMUMatrix[13] = translation[1];
         mColorCamera2IMUMatrix[14] = translation[2];
+        updateExtrinsicMatrix();
     }
 
     public float[] getModelMatrix() {
@@ -143,27 +148,83 @@ public class ModelMatCalculator {
     }
 
     public float[] getModelMatrixCopy() {
-        float[] modelMatCopy = new float[16];
-        System.arraycopy(mModelMatrix, 0, modelMatCopy, 0, 16);
-        return modelMatCopy;
+        return getModelMatrixCopy(new float[16]);
+    }
+
+    /**
+     * Copies the model matrix into dest.
+     * 
+     * @return dest
+     */
+    public float[] getModelMatrixCopy(float[] dest) {
+        System.arraycopy(mModelMatrix, 0, dest, 0, 16);
+        return dest;
     }
 
     public float[] getPointCloudModelMatrixCopy() {
-        float[] modelMatCopy = new float[16];
-        float[] tempMultMat = new float[16];
-        Matrix.setIdentityM(tempMultMat, 0);
-        float[] invertYandZMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
-                -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
-                1.0f };
-        Matrix.multiplyMM(tempMultMat, 0, mPointCloudModelMatrix, 0,
-                invertYandZMatrix, 0);
-        System.arraycopy(tempMultMat, 0, modelMatCopy, 0, 16);
-        return modelMatCopy;
+        return getPointCloudModelMatrixCopy(new float[16]);
+    }
+
+    /**
+     * Writes the point cloud model matrix, with the Y and Z axes inverted,
+     * into dest.
+     * 
+     * @return dest
+     */
+    public float[] getPointCloudModelMatrixCopy(float[] dest) {
+        // Same as multiplying by diag(1, -1, -1, 1): negates columns 1 and 2
+        for (int column = 0; column < 4; column++) {
+            float sign = INVERT_Y_AND_Z_SIGNS[column];
+            for (int row = 0; row < 4; row++) {
+                dest[column * 4 + row] = sign
+                        * mPointCloudModelMatrix[column * 4 + row];
+            }
+        }
+        return dest;
     }
 
     public float[] getTranslation() {
-        return new float[] { mModelMatrix[12], mModelMatrix[13],
-                mModelMatrix[14] };
+        return getTranslation(new float[3]);
+    }
+
+    /**
+     * Copies the translation of the model matrix into dest.
+     * 
+     * @return dest
+     */
+    public float[] getTranslation(float[] dest) {
+        dest[0] = mModelMatrix[12];
+        dest[1] = mModelMatrix[13];
+        dest[2] = mModelMatrix[14];
+        return dest;
+    }
+
+    private void updateExtrinsicMatrix() {
+        Matrix4.multiplyAffine(mExtrinsicTempMatrix, mColorCamera2IMUMatrix,
+                mOpengl2ColorCameraMatrix);
+        Matrix4.invertRigid(mExtrinsicTempMatrix2, mDevice2IMUMatrix);
+        Matrix4.multiplyAffine(mExtrinsicMatrix, mExtrinsicTempMatrix2,
+                mExtrinsicTempMatrix);
+    }
+
+    /**
+     * Writes conversion * rotation * extrinsics into dest, then adds the
+     * translation converted to the OpenGL frame.
+     *
+     * @param quaternionMatrix
+     *            scratch float[16] of the caller.
+     * @param tempMatrix
+     *            scratch float[16] of the caller.
+     */
+    private void composeModelMatrix(float[] dest, float tx, float ty,
+            float tz, float qx, float qy, float qz, float qw,
+            float[] quaternionMatrix, float[] tempMatrix) {
+        quaternionMatrixOpenGL(qx, qy, qz, qw, quaternionMatrix);
+        Matrix4.multiplyAffine(tempMatrix, quaternionMatrix, mExtrinsicMatrix);
+        Matrix4.multiplyAffine(dest, mConversionMatrix, tempMatrix);
+        dest[12] += tx;
+        dest[13] += tz;
+        dest[14] += -1f * ty;
     }
 
     /**
@@ -179,45 +240,24 @@ public class ModelMatCalculator {
     public static float[] quaternionMatrixOpenGL(float[] quaternion) {
         float[] matrix = new float[16];
         normalizeVector(quaternion);
-
-        float x = quaternion[0];
-        float y = quaternion[1];
-        float z = quaternion[2];
-        float w = quaternion[3];
-
-        float x2 = x * x;
-        float y2 = y * y;
-        float z2 = z * z;
-        float xy = x * y;
-        float xz = x * z;
-        float yz = y * z;
-        float wx = w * x;
-        float wy = w * y;
-        float wz = w * z;
-
-        matrix[0] = 1f - 2f * (y2 + z2);
-        matrix[4] = 2f * (xy - wz);
-        matrix[8] = 2f * (xz + wy);
-        matrix[12] = 0f;
-
-        matrix[1] = 2f * (xy + wz);
-        matrix[5] = 1f - 2f * (x2 + z2);
-        matrix[9] = 2f * (yz - wx);
-        matrix[13] = 0f;
-
-        matrix[2] = 2f * (xz - wy);
-        matrix[6] = 2f * (yz + wx);
-        matrix[10] = 1f - 2f * (x2 + y2);
-        matrix[14] = 0f;
-
-        matrix[3] = 0f;
-        matrix[7] = 0f;
-        matrix[11] = 0f;
-        matrix[15] = 1f;
-
+        quaternionMatrixOpenGL(quaternion[0], quaternion[1], quaternion[2],
+                quaternion[3], matrix);
         return matrix;
     }
 
+    /**
+     * Writes the rotation matrix of a quaternion into matrix, in the same
+     * Column Major Format as {@link #quaternionMatrixOpenGL(float[])}. The
+     * quaternion is normalized if needed.
+     * 
+     * @param matrix
+     *            the float[16] destination.
+     */
+    public static void quaternionMatrixOpenGL(float x, float y, float z,
+            float w, float[] matrix) {
+        Quaternion.toMatrix(x, y, z, w, matrix);
+    }
+
     /**
      * Creates a unit vector in the direction of an arbitrary vector. The
      * original vector is modified in place.
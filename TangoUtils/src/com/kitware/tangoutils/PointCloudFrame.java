@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One depth frame held in a direct buffer owned by a
+ * {@link PointCloudFramePool}. The frame is shared by reference between its
+ * consumers (renderer, file writer, statistics): each of them calls
+ * {@link #retain()} before keeping it and {@link #release()} when done, and
+ * the frame goes back to its pool when the last reference is released.
+ * 
+ * The buffers are shared by every holder of the frame, so consumers must only
+ * use absolute accessors on them, or work on a duplicate().
+ */
+public class PointCloudFrame {
+
+    public static final int BYTES_PER_FLOAT = 4;
+    public static final int POINT_TO_XYZ = 3;
+
+    private final PointCloudFramePool mPool;
+    private final ByteBuffer mByteBuffer;
+    private final FloatBuffer mPoints;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private int mPointCount;
+    private double mTimestamp;
+    private float mAverageZ;
+
+    PointCloudFrame(PointCloudFramePool pool, int maxPoints) {
+        mPool = pool;
+        mByteBuffer = ByteBuffer
+                .allocateDirect(maxPoints * POINT_TO_XYZ * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder());
+        mPoints = mByteBuffer.asFloatBuffer();
+    }
+
+    /**
+     * Called by the pool when the frame is handed out. The caller owns the
+     * first reference.
+     */
+    void reset() {
+        mRefCount.set(1);
+        mPointCount = 0;
+        mTimestamp = 0;
+        mAverageZ = 0;
+        mByteBuffer.clear();
+        mPoints.clear();
+    }
+
+    /**
+     * Sets the number of points held by the frame, and updates the statistics
+     * computed on its points. To be called by the producer once the buffer is
+     * filled, before the frame is shared.
+     */
+    public void setPointCount(int pointCount, double timestamp) {
+        mPointCount = pointCount;
+        mTimestamp = timestamp;
+        mByteBuffer.limit(pointCount * POINT_TO_XYZ * BYTES_PER_FLOAT);
+        mPoints.limit(pointCount * POINT_TO_XYZ);
+        float totalZ = 0;
+        for (int i = 2; i < pointCount * POINT_TO_XYZ; i = i + 3) {
+            totalZ = totalZ + mPoints.get(i);
+        }
+        mAverageZ = pointCount > 0 ? totalZ / pointCount : 0;
+    }
+
+    public void retain() {
+        mRefCount.incrementAndGet();
+    }
+
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount == 0) {
+            mPool.recycle(this);
+        } else if (refCount < 0) {
+            throw new IllegalStateException("PointCloudFrame released too many times");
+        }
+    }
+
+    /**
+     * @return the raw XYZ samples, in native order.
+     */
+    public ByteBuffer getByteBuffer() {
+        return mByteBuffer;
+    }
+
+    /**
+     * @return the XYZ samples as floats, with its position at 0.
+     */
+    public FloatBuffer getPoints() {
+        return mPoints;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public double getTimestamp() {
+        return mTimestamp;
+    }
+
+    public float getAverageZ() {
+        return mAverageZ;
+    }
+}
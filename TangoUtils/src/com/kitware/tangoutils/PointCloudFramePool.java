@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed set of {@link PointCloudFrame}s, all allocated up front. Acquiring and
+ * recycling a frame does not allocate, and the memory used by depth frames
+ * never grows past frameCount * maxPoints points.
+ */
+public class PointCloudFramePool {
+
+    private final ArrayBlockingQueue<PointCloudFrame> mFreeFrames;
+    private final int mFrameCount;
+    private final int mMaxPoints;
+
+    /**
+     * @param maxPoints
+     *            the maximum number of points of a frame, usually the
+     *            "max_point_cloud_elements" value of the Tango configuration.
+     * @param frameCount
+     *            the number of frames in the pool.
+     */
+    public PointCloudFramePool(int maxPoints, int frameCount) {
+        mFrameCount = frameCount;
+        mMaxPoints = maxPoints;
+        mFreeFrames = new ArrayBlockingQueue<PointCloudFrame>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            mFreeFrames.offer(new PointCloudFrame(this, maxPoints));
+        }
+    }
+
+    /**
+     * @return a frame with one reference owned by the caller, or null if all
+     *         the frames are in use.
+     */
+    public PointCloudFrame acquire() {
+        PointCloudFrame frame = mFreeFrames.poll();
+        if (frame != null) {
+            frame.reset();
+        }
+        return frame;
+    }
+
+    void recycle(PointCloudFrame frame) {
+        mFreeFrames.offer(frame);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getFreeFrameCount() {
+        return mFreeFrames.size();
+    }
+
+    public int getMaxPoints() {
+        return mMaxPoints;
+    }
+}
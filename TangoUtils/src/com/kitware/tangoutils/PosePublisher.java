@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the latest device pose from the Tango thread to the renderer and
+ * the UI through a sequence lock: the writer makes the sequence odd while it
+ * updates the pose, and readers retry when the sequence was odd or changed
+ * during their copy. Neither side locks or allocates, and readers never see
+ * a pose half written.
+ *
+ * The pose values are held in atomic arrays, so that their reads cannot be
+ * reordered around the reads of the sequence.
+ */
+public class PosePublisher {
+
+    private static final int TRANSLATION = 0;
+    private static final int ROTATION = 3;
+    private static final int MODEL_MATRIX = 7;
+    private static final int STATUS_CODE = 23;
+    private static final int VALUE_COUNT = 24;
+
+    private final AtomicIntegerArray mValues = new AtomicIntegerArray(VALUE_COUNT);
+    private final AtomicLong mTimestamp = new AtomicLong();
+    // Odd while the writer updates the values
+    private volatile int mSequence;
+
+    /**
+     * Publishes a pose. To be called from a single thread.
+     *
+     * @param translation
+     *            the x, y, z position of a TangoPoseData.
+     * @param rotation
+     *            the x, y, z, w orientation of a TangoPoseData.
+     * @param modelMatrix
+     *            the model matrix derived from the pose.
+     */
+    public void publish(double timestamp, int statusCode, double[] translation,
+            double[] rotation, float[] modelMatrix) {
+        int sequence = mSequence;
+        mSequence = sequence + 1;
+        mTimestamp.set(Double.doubleToRawLongBits(timestamp));
+        for (int i = 0; i < 3; i++) {
+            setFloat(TRANSLATION + i, (float) translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            setFloat(ROTATION + i, (float) rotation[i]);
+        }
+        for (int i = 0; i < 16; i++) {
+            setFloat(MODEL_MATRIX + i, modelMatrix[i]);
+        }
+        mValues.set(STATUS_CODE, statusCode);
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Copies the latest pose into a snapshot, unless the snapshot already
+     * holds it.
+     *
+     * @return whether the snapshot changed.
+     */
+    public boolean read(PoseSnapshot snapshot) {
+        while (true) {
+            int sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                // The writer is in the middle of an update
+                Thread.yield();
+                continue;
+            }
+            if (sequence == snapshot.mSequence) {
+                return false;
+            }
+            snapshot.mTimestamp = Double.longBitsToDouble(mTimestamp.get());
+            for (int i = 0; i < 3; i++) {
+                snapshot.mTranslation[i] = getFloat(TRANSLATION + i);
+            }
+            for (int i = 0; i < 4; i++) {
+                snapshot.mRotation[i] = getFloat(ROTATION + i);
+            }
+            for (int i = 0; i < 16; i++) {
+                snapshot.mModelMatrix[i] = getFloat(MODEL_MATRIX + i);
+            }
+            snapshot.mStatusCode = mValues.get(STATUS_CODE);
+            if (mSequence == sequence) {
+                snapshot.mSequence = sequence;
+                return true;
+            }
+        }
+    }
+
+    private void setFloat(int index, float value) {
+        mValues.set(index, Float.floatToRawIntBits(value));
+    }
+
+    private float getFloat(int index) {
+        return Float.intBitsToFloat(mValues.get(index));
+    }
+}
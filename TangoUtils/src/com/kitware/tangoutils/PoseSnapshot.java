@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+/**
+ * Consistent copy of the latest device pose, filled by
+ * {@link PosePublisher#read(PoseSnapshot)}. Each consumer thread owns its own
+ * snapshot and reuses it, so reading a pose does not allocate.
+ */
+public class PoseSnapshot {
+
+    final float[] mTranslation = new float[3];
+    final float[] mRotation = new float[4];
+    final float[] mModelMatrix = new float[16];
+    double mTimestamp;
+    int mStatusCode;
+    int mSequence;
+
+    public PoseSnapshot() {
+        // Until a pose is read, the device is at the origin
+        mRotation[3] = 1;
+        mModelMatrix[0] = mModelMatrix[5] = mModelMatrix[10] = mModelMatrix[15] = 1;
+    }
+
+    public double getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the TangoPoseData status code of the pose.
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return the x, y, z position, in the start of service frame.
+     */
+    public float[] getTranslation() {
+        return mTranslation;
+    }
+
+    /**
+     * @return the x, y, z, w orientation quaternion.
+     */
+    public float[] getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * @return the OpenGL model matrix of the device, as computed by
+     *         {@link ModelMatCalculator}.
+     */
+    public float[] getModelMatrix() {
+        return mModelMatrix;
+    }
+
+    /**
+     * @return the number of poses published before this one, 0 if no pose
+     *         was read yet.
+     */
+    public int getPoseCount() {
+        return mSequence / 2;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import com.kitware.tangoutils.math.Matrix4;
+import com.kitware.tangoutils.math.Quaternion;
+
+/**
+ * Immutable sequence of poses sorted by timestamp, in primitive columns, to
+ * find the pose of the device at any time: lookups are binary searches, and
+ * poses between two samples are interpolated, linearly for the position and
+ * by SLERP for the orientation. Times outside of the timeline get the first
+ * or last pose.
+ *
+ * {@link #associate} finds the poses of a whole sequence of frame timestamps
+ * in a single pass when they are sorted.
+ */
+public class PoseTimeline {
+
+    private static final int POSITION = 3;
+    private static final int ORIENTATION = 4;
+
+    private final double[] mTimestamps;
+    private final float[] mPositions;
+    private final float[] mOrientations;
+    private final int mSize;
+
+    /**
+     * Creates a timeline from columns sorted by timestamp. The arrays are
+     * used as they are, not copied.
+     *
+     * @param positions
+     *            3 floats per pose.
+     * @param orientations
+     *            4 floats (x, y, z, w) per pose.
+     */
+    public PoseTimeline(double[] timestamps, float[] positions,
+            float[] orientations, int size) {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                throw new IllegalArgumentException("Timestamps are not sorted at " + i);
+            }
+        }
+        mTimestamps = timestamps;
+        mPositions = positions;
+        mOrientations = orientations;
+        mSize = size;
+    }
+
+    /**
+     * Creates a timeline from columns that may not be sorted by timestamp,
+     * such as the ones read back from a poses file. The arrays are sorted in
+     * place and used as they are.
+     */
+    public static PoseTimeline fromUnsortedColumns(double[] timestamps,
+            float[] positions, float[] orientations, int size) {
+        sortByTimestamp(timestamps, positions, orientations, size);
+        return new PoseTimeline(timestamps, positions, orientations, size);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public double getStartTime() {
+        return mTimestamps[0];
+    }
+
+    public double getEndTime() {
+        return mTimestamps[mSize - 1];
+    }
+
+    public double getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * @return the index of the last pose at or before time, or -1 if time is
+     *         before the first pose.
+     */
+    public int floorIndex(double time) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (mTimestamps[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return the index of the pose closest in time, or -1 if the timeline is
+     *         empty.
+     */
+    public int nearestIndex(double time) {
+        if (mSize == 0) {
+            return -1;
+        }
+        int floor = floorIndex(time);
+        if (floor < 0) {
+            return 0;
+        }
+        if (floor == mSize - 1
+                || time - mTimestamps[floor] <= mTimestamps[floor + 1] - time) {
+            return floor;
+        }
+        return floor + 1;
+    }
+
+    /**
+     * Interpolates the pose at a given time.
+     *
+     * @param position
+     *            receives the x, y, z position.
+     * @param orientation
+     *            receives the x, y, z, w orientation.
+     * @return false if time is outside of the timeline, in which case the
+     *         closest end pose is given, or if the timeline is empty.
+     */
+    public boolean getPose(double time, float[] position, float[] orientation) {
+        return getPose(time, floorIndex(time), position, 0, orientation, 0);
+    }
+
+    /**
+     * Interpolates the pose at a given time, as a rigid transform matrix from
+     * the device to the start of service frame.
+     *
+     * @param matrix
+     *            the float[16] destination.
+     * @return false if time is outside of the timeline.
+     */
+    public boolean getPoseMatrix(double time, float[] matrix) {
+        // The matrix holds the interpolated pose until it is overwritten
+        boolean inRange = getPose(time, floorIndex(time), matrix, 12, matrix, 0);
+        Matrix4.setRigid(matrix, matrix[0], matrix[1], matrix[2], matrix[3],
+                matrix[12], matrix[13], matrix[14]);
+        return inRange;
+    }
+
+    /**
+     * Interpolates the poses of count frame timestamps. Sorted timestamps are
+     * associated in a single pass through the timeline; unsorted ones fall
+     * back to a binary search per frame.
+     *
+     * @param positions
+     *            receives 3 floats per frame.
+     * @param orientations
+     *            receives 4 floats per frame.
+     * @return the number of frames within the timeline.
+     */
+    public int associate(double[] frameTimestamps, int count,
+            float[] positions, float[] orientations) {
+        int inRange = 0;
+        int floor = -1;
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double time = frameTimestamps[i];
+            if (time >= previous) {
+                while (floor + 1 < mSize && mTimestamps[floor + 1] <= time) {
+                    floor++;
+                }
+            } else {
+                floor = floorIndex(time);
+            }
+            previous = time;
+            if (getPose(time, floor, positions, i * POSITION,
+                    orientations, i * ORIENTATION)) {
+                inRange++;
+            }
+        }
+        return inRange;
+    }
+
+    private boolean getPose(double time, int floor, float[] position,
+            int positionOffset, float[] orientation, int orientationOffset) {
+        if (mSize == 0) {
+            return false;
+        }
+        if (floor < 0 || floor >= mSize - 1) {
+            int index = floor < 0 ? 0 : mSize - 1;
+            System.arraycopy(mPositions, index * POSITION,
+                    position, positionOffset, POSITION);
+            System.arraycopy(mOrientations, index
+                    * ORIENTATION, orientation,
+                    orientationOffset, ORIENTATION);
+            return floor >= 0 && time == mTimestamps[index];
+        }
+        double start = mTimestamps[floor];
+        double duration = mTimestamps[floor + 1] - start;
+        float t = duration > 0 ? (float) ((time - start) / duration) : 0f;
+
+        int p = floor * POSITION;
+        for (int c = 0; c < POSITION; c++) {
+            float a = mPositions[p + c];
+            float b = mPositions[p + POSITION + c];
+            position[positionOffset + c] = a + (b - a) * t;
+        }
+        int q = floor * ORIENTATION;
+        int r = q + ORIENTATION;
+        Quaternion.slerp(orientation, orientationOffset, mOrientations[q],
+                mOrientations[q + 1], mOrientations[q + 2], mOrientations[q + 3],
+                mOrientations[r], mOrientations[r + 1], mOrientations[r + 2],
+                mOrientations[r + 3], t);
+        return true;
+    }
+
+    /**
+     * Sorts the columns by timestamp with an insertion sort, which is linear
+     * for the already sorted or nearly sorted logs given by the Tango service.
+     */
+    private static void sortByTimestamp(double[] timestamps,
+            float[] positions, float[] orientations, int size) {
+        float[] position = new float[POSITION];
+        float[] orientation = new float[ORIENTATION];
+        for (int i = 1; i < size; i++) {
+            double timestamp = timestamps[i];
+            int j = i - 1;
+            if (timestamps[j] <= timestamp) {
+                continue;
+            }
+            System.arraycopy(positions, i * POSITION, position, 0, POSITION);
+            System.arraycopy(orientations, i * ORIENTATION, orientation, 0, ORIENTATION);
+            while (j >= 0 && timestamps[j] > timestamp) {
+                timestamps[j + 1] = timestamps[j];
+                System.arraycopy(positions, j * POSITION, positions, (j + 1) * POSITION,
+                        POSITION);
+                System.arraycopy(orientations, j * ORIENTATION, orientations,
+                        (j + 1) * ORIENTATION, ORIENTATION);
+                j--;
+            }
+            timestamps[j + 1] = timestamp;
+            System.arraycopy(position, 0, positions, (j + 1) * POSITION, POSITION);
+            System.arraycopy(orientation, 0, orientations, (j + 1) * ORIENTATION,
+                    ORIENTATION);
+        }
+    }
+}
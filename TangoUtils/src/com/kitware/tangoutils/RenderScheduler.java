@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import android.opengl.GLSurfaceView;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces the rendering of a {@link GLSurfaceView} in RENDERMODE_WHEN_DIRTY to
+ * the display. Any thread marks the scene dirty with {@link #requestRender()},
+ * as often as it likes, and the view renders at most once per vsync, drawing
+ * the latest state. Nothing is rendered while the scene does not change.
+ *
+ * The frame rate can be capped, with a separate lower cap for a low power
+ * mode, to leave the CPU and the GPU to the Tango service and the disk
+ * writer while recording.
+ */
+public class RenderScheduler implements Choreographer.FrameCallback {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    // Vsync timestamps jitter: frames this much early still meet the cap
+    private static final long FRAME_TIME_TOLERANCE_NANOS = 2000000L;
+
+    private final GLSurfaceView mView;
+    private final Choreographer mChoreographer;
+    private final AtomicBoolean mDirty = new AtomicBoolean();
+    private final AtomicBoolean mFramePosted = new AtomicBoolean();
+    private volatile boolean mStarted;
+    private volatile int mMaxFrameRate;
+    private volatile int mLowPowerFrameRate;
+    private volatile boolean mLowPowerMode;
+    // UI thread only
+    private long mLastFrameTimeNanos;
+
+    /**
+     * To be created on the UI thread.
+     *
+     * @param maxFrameRate
+     *            the maximum number of frames per second, 0 to render at
+     *            every vsync.
+     * @param lowPowerFrameRate
+     *            the maximum number of frames per second in low power mode.
+     */
+    public RenderScheduler(GLSurfaceView view, int maxFrameRate,
+            int lowPowerFrameRate) {
+        mView = view;
+        mChoreographer = Choreographer.getInstance();
+        setMaxFrameRate(maxFrameRate);
+        setLowPowerFrameRate(lowPowerFrameRate);
+    }
+
+    public void setMaxFrameRate(int frameRate) {
+        if (frameRate < 0) {
+            throw new IllegalArgumentException("Invalid frame rate " + frameRate);
+        }
+        mMaxFrameRate = frameRate;
+    }
+
+    public void setLowPowerFrameRate(int frameRate) {
+        if (frameRate < 0) {
+            throw new IllegalArgumentException("Invalid frame rate " + frameRate);
+        }
+        mLowPowerFrameRate = frameRate;
+    }
+
+    /**
+     * Switches to the low power frame rate, e.g. while recording.
+     */
+    public void setLowPowerMode(boolean lowPowerMode) {
+        mLowPowerMode = lowPowerMode;
+    }
+
+    public boolean isLowPowerMode() {
+        return mLowPowerMode;
+    }
+
+    /**
+     * Marks the scene dirty, so that it is rendered at the next vsync the
+     * frame rate cap allows. Can be called from any thread.
+     */
+    public void requestRender() {
+        mDirty.set(true);
+        postFrame();
+    }
+
+    /**
+     * Starts rendering the dirty scene. To be called from onResume.
+     */
+    public void start() {
+        mStarted = true;
+        if (mDirty.get()) {
+            postFrame();
+        }
+    }
+
+    /**
+     * Stops rendering until the next start. To be called from onPause.
+     */
+    public void stop() {
+        mStarted = false;
+        mChoreographer.removeFrameCallback(this);
+        mFramePosted.set(false);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared first, so that a scene dirtied from now on posts a frame
+        mFramePosted.set(false);
+        if (!mStarted) {
+            return;
+        }
+        int frameRate = mLowPowerMode ? mLowPowerFrameRate : mMaxFrameRate;
+        if (frameRate > 0
+                && frameTimeNanos - mLastFrameTimeNanos < NANOS_PER_SECOND
+                        / frameRate - FRAME_TIME_TOLERANCE_NANOS) {
+            // Too early for the cap, wait for a later vsync
+            postFrame();
+            return;
+        }
+        if (mDirty.getAndSet(false)) {
+            mLastFrameTimeNanos = frameTimeNanos;
+            mView.requestRender();
+        }
+    }
+
+    private void postFrame() {
+        if (mStarted && mFramePosted.compareAndSet(false, true)) {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.kitware.tangoutils;
 
-import android.opengl.Matrix;
+import com.kitware.tangoutils.math.Matrix4;
+
 import android.util.Log;
 import android.view.MotionEvent;
 
@@ -19,6 +20,9 @@ public class Renderer {
     protected float mCameraAspect;
     protected float[] mProjectionMatrix = new float[MATRIX_4X4];
     private ModelMatCalculator mModelMatCalculator;
+    private final PosePublisher mPosePublisher = new PosePublisher();
+    // Pose the GL thread draws with
+    protected final PoseSnapshot mPoseSnapshot = new PoseSnapshot();
     private int viewId = 2;
     protected float[] mViewMatrix = new float[MATRIX_4X4];
     protected float[] mCameraPosition;
@@ -52,37 +56,30 @@ public class Renderer {
 
     /**
      * Update the view matrix of the Renderer to follow the position of the
-     * device in the current perspective.
+     * device in the current perspective. To be called from the GL thread,
+     * after {@link #updatePoseSnapshot()}.
      */
     public void updateViewMatrix() {
-        mDevicePosition = mModelMatCalculator.getTranslation();
+        float[] modelMatrix = mPoseSnapshot.getModelMatrix();
+        mDevicePosition[0] = modelMatrix[12];
+        mDevicePosition[1] = modelMatrix[13];
+        mDevicePosition[2] = modelMatrix[14];
 
         switch (viewId) {
         case FIRST_PERSON:
-            float[] invertModelMat = new float[MATRIX_4X4];
-            Matrix.setIdentityM(invertModelMat, 0);
-
-            float[] temporaryMatrix = new float[MATRIX_4X4];
-            Matrix.setIdentityM(temporaryMatrix, 0);
-
-            Matrix.setIdentityM(mViewMatrix, 0);
-            Matrix.invertM(invertModelMat, 0,
-                    mModelMatCalculator.getModelMatrix(), 0);
-            Matrix.multiplyMM(temporaryMatrix, 0, mViewMatrix, 0,
-                    invertModelMat, 0);
-            System.arraycopy(temporaryMatrix, 0, mViewMatrix, 0, 16);
+            // The model matrix is a rigid transform
+            Matrix4.invertRigid(mViewMatrix, modelMatrix);
             break;
         case THIRD_PERSON:
 
-            Matrix.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
+            Matrix4.setLookAt(mViewMatrix, mDevicePosition[0]
                     + mCameraPosition[0], mCameraPosition[1]
                     + mDevicePosition[1], mCameraPosition[2]
                     + mDevicePosition[2], mDevicePosition[0],
                     mDevicePosition[1], mDevicePosition[2], 0f, 1f, 0f);
             break;
         case TOP_DOWN:
-            // Matrix.setIdentityM(mViewMatrix, 0);
-            Matrix.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
+            Matrix4.setLookAt(mViewMatrix, mDevicePosition[0]
                     + mCameraPosition[0], mCameraPosition[1],
                     mCameraPosition[2] + mDevicePosition[2], mDevicePosition[0]
                             + mCameraPosition[0], mCameraPosition[1] - 5,
@@ -250,7 +247,7 @@ public class Renderer {
 
     public void setFirstPersonView() {
         viewId = FIRST_PERSON;
-        Matrix.perspectiveM(mProjectionMatrix, 0, CAMERA_FOV, mCameraAspect,
+        Matrix4.setPerspective(mProjectionMatrix, CAMERA_FOV, mCameraAspect,
                 CAMERA_NEAR, CAMERA_FAR);
     }
 
@@ -261,7 +258,7 @@ public class Renderer {
         mCameraPosition[2] = 5;
         mRotationX = mRotationY = (float) (Math.PI / 4);
         mCameraOrbitRadius = 5.0f;
-        Matrix.perspectiveM(mProjectionMatrix, 0, THIRD_PERSON_FOV,
+        Matrix4.setPerspective(mProjectionMatrix, THIRD_PERSON_FOV,
                 mCameraAspect, CAMERA_NEAR, CAMERA_FAR);
     }
 
@@ -270,10 +267,28 @@ public class Renderer {
         mCameraPosition[0] = 0;
         mCameraPosition[1] = 5;
         mCameraPosition[2] = 0;
-        Matrix.perspectiveM(mProjectionMatrix, 0, TOPDOWN_FOV, mCameraAspect,
+        Matrix4.setPerspective(mProjectionMatrix, TOPDOWN_FOV, mCameraAspect,
                 CAMERA_NEAR, CAMERA_FAR);
     }
 
+    /**
+     * Reads the latest pose published by the Tango thread into the snapshot
+     * of the GL thread.
+     *
+     * @return whether the pose changed since the previous call.
+     */
+    protected boolean updatePoseSnapshot() {
+        return mPosePublisher.read(mPoseSnapshot);
+    }
+
+    /**
+     * @return the publisher the device pose goes through to the GL thread and
+     *         the UI.
+     */
+    public PosePublisher getPosePublisher() {
+        return mPosePublisher;
+    }
+
     public void resetModelMatCalculator() {
         mModelMatCalculator = new ModelMatCalculator();
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to non-negative int values, with open addressing
+ * and linear probing in primitive arrays: no boxing, and no allocation except
+ * when the table grows.
+ */
+public class LongIntHashMap {
+
+    /** Value returned for absent keys */
+    public static final int NO_VALUE = -1;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] mKeys;
+    // NO_VALUE marks the free slots, so that any long can be a key
+    private int[] mValues;
+    private int mMask;
+    private int mSize;
+    private int mResizeThreshold;
+
+    public LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of entries the map holds without growing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the value of key, or {@link #NO_VALUE}.
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        while (mValues[slot] != NO_VALUE) {
+            if (mKeys[slot] == key) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Maps key to value unless key is already in the map.
+     *
+     * @param value
+     *            a value >= 0.
+     * @return the value already mapped to key, or {@link #NO_VALUE} if value
+     *         was added.
+     */
+    public int putIfAbsent(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        int slot = slot(key);
+        while (mValues[slot] != NO_VALUE) {
+            if (mKeys[slot] == key) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize > mResizeThreshold) {
+            grow();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes all the entries, keeping the table allocated.
+     */
+    public void clear() {
+        Arrays.fill(mValues, NO_VALUE);
+        mSize = 0;
+    }
+
+    private int slot(long key) {
+        // Finalizer of MurmurHash3, so that keys packed from small coordinates
+        // spread over the whole table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mMask;
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        allocate(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != NO_VALUE) {
+                int slot = slot(keys[i]);
+                while (mValues[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int tableSize) {
+        mKeys = new long[tableSize];
+        mValues = new int[tableSize];
+        Arrays.fill(mValues, NO_VALUE);
+        mMask = tableSize - 1;
+        mResizeThreshold = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    private static int tableSize(int expectedSize) {
+        int size = 16;
+        while (size * LOAD_FACTOR < expectedSize) {
+            size *= 2;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import com.kitware.tangoutils.math.Matrix4;
+
+/**
+ * Level of detail selection for a point cloud split in cubic nodes, each the
+ * root of an octree of {@link #getLevelCount()} levels. Every occupied cell
+ * of an octree level keeps one representative point, so drawing a node down
+ * to level L draws the representatives of levels 0 to L: a subsample of the
+ * node whose spacing is the cell size of level L.
+ *
+ * For a given view, {@link #select} skips the nodes outside of the view
+ * frustum, then refines the visible nodes level by level, largest projected
+ * error first, until the error is below a number of pixels or the point
+ * budget is spent. It is pure Java and does not depend on OpenGL.
+ */
+public class OctreeLod {
+
+    private static final int PLANE_COUNT = 6;
+    // Nodes closer than this are considered at this distance, in meters
+    private static final float MIN_DISTANCE = 0.01f;
+
+    private final int mLevelCount;
+    private final float[] mCellSizes;
+    private final float[] mPlanes = new float[PLANE_COUNT * 4];
+    private final float[] mClipMatrix = new float[16];
+    private float mCameraX;
+    private float mCameraY;
+    private float mCameraZ;
+    private float mPixelsPerRadian;
+    // Max heap of the nodes to refine, by projected error
+    private int[] mHeapNodes = new int[64];
+    private float[] mHeapErrors = new float[64];
+    private int mHeapSize;
+
+    /**
+     * @param rootCellSize
+     *            the edge length of the cells of level 0, in meters. Cells
+     *            are halved at each level.
+     * @param levelCount
+     *            the number of levels of the octrees.
+     */
+    public OctreeLod(float rootCellSize, int levelCount) {
+        mLevelCount = levelCount;
+        mCellSizes = new float[levelCount];
+        for (int i = 0; i < levelCount; i++) {
+            mCellSizes[i] = rootCellSize / (1 << i);
+        }
+    }
+
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    /**
+     * @return the edge length of the cells of a level, in meters.
+     */
+    public float getCellSize(int level) {
+        return mCellSizes[level];
+    }
+
+    /**
+     * Sets the view the nodes are selected for.
+     *
+     * @param viewMatrix
+     *            a rigid world to camera transform.
+     * @param projectionMatrix
+     *            a perspective projection.
+     * @param viewportHeight
+     *            the height of the view, in pixels.
+     */
+    public void setView(float[] viewMatrix, float[] projectionMatrix,
+            int viewportHeight) {
+        // The camera position is -R^T * t for a rigid view matrix
+        float tx = viewMatrix[12];
+        float ty = viewMatrix[13];
+        float tz = viewMatrix[14];
+        mCameraX = -(viewMatrix[0] * tx + viewMatrix[1] * ty + viewMatrix[2] * tz);
+        mCameraY = -(viewMatrix[4] * tx + viewMatrix[5] * ty + viewMatrix[6] * tz);
+        mCameraZ = -(viewMatrix[8] * tx + viewMatrix[9] * ty + viewMatrix[10] * tz);
+        // projection[5] is 1 / tan(fovy / 2)
+        mPixelsPerRadian = viewportHeight * projectionMatrix[5] * 0.5f;
+
+        // Frustum planes from the rows of the clip matrix (Gribb & Hartmann):
+        // left, right, bottom, top, near, far
+        float[] m = mClipMatrix;
+        Matrix4.multiply(m, projectionMatrix, viewMatrix);
+        for (int i = 0; i < PLANE_COUNT; i++) {
+            int row = i / 2;
+            float sign = (i % 2 == 0) ? 1f : -1f;
+            int p = i * 4;
+            for (int c = 0; c < 4; c++) {
+                mPlanes[p + c] = m[c * 4 + 3] + sign * m[c * 4 + row];
+            }
+        }
+    }
+
+    /**
+     * @return whether an axis aligned box intersects the view frustum. Boxes
+     *         close to the frustum corners may be reported visible.
+     */
+    public boolean isVisible(float minX, float minY, float minZ, float maxX,
+            float maxY, float maxZ) {
+        for (int i = 0; i < PLANE_COUNT; i++) {
+            int p = i * 4;
+            float a = mPlanes[p];
+            float b = mPlanes[p + 1];
+            float c = mPlanes[p + 2];
+            // Corner of the box furthest along the plane normal
+            float x = a >= 0 ? maxX : minX;
+            float y = b >= 0 ? maxY : minY;
+            float z = c >= 0 ? maxZ : minZ;
+            if (a * x + b * y + c * z + mPlanes[p + 3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size in pixels of a length seen at a given distance.
+     */
+    public float getProjectedSize(float length, float distance) {
+        return length * mPixelsPerRadian / Math.max(distance, MIN_DISTANCE);
+    }
+
+    /**
+     * Selects the level to draw each node at.
+     *
+     * @param nodeCount
+     *            the number of nodes.
+     * @param bounds
+     *            the axis aligned box of each node: min x, y, z then max x,
+     *            y, z.
+     * @param levelPointCounts
+     *            the number of representatives of each level of each node,
+     *            getLevelCount() values per node.
+     * @param maxError
+     *            the size in pixels under which a cell does not need to be
+     *            refined.
+     * @param pointBudget
+     *            the maximum number of points to draw. Level 0 of all visible
+     *            nodes is drawn even if it exceeds the budget.
+     * @param levels
+     *            receives the deepest level to draw for each node, or -1 for
+     *            nodes outside of the frustum.
+     * @return the number of points to draw.
+     */
+    public int select(int nodeCount, float[] bounds, int[] levelPointCounts,
+            float maxError, int pointBudget, int[] levels) {
+        int pointCount = 0;
+        mHeapSize = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int b = node * 6;
+            if (!isVisible(bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                levels[node] = -1;
+                continue;
+            }
+            levels[node] = 0;
+            pointCount += levelPointCounts[node * mLevelCount];
+            if (mLevelCount > 1) {
+                push(node, getError(bounds, node, 0));
+            }
+        }
+
+        while (mHeapSize > 0) {
+            float error = mHeapErrors[0];
+            int node = pop();
+            if (error <= maxError) {
+                // All the other nodes have smaller errors
+                break;
+            }
+            int level = levels[node] + 1;
+            int cost = levelPointCounts[node * mLevelCount + level];
+            if (pointCount + cost > pointBudget) {
+                // Smaller refinements of other nodes may still fit
+                continue;
+            }
+            levels[node] = level;
+            pointCount += cost;
+            if (level + 1 < mLevelCount) {
+                push(node, getError(bounds, node, level));
+            }
+        }
+        return pointCount;
+    }
+
+    /**
+     * @return the projected size of the cells of a level of a node, from the
+     *         closest point of the node.
+     */
+    private float getError(float[] bounds, int node, int level) {
+        int b = node * 6;
+        float dx = Math.max(Math.max(bounds[b] - mCameraX, mCameraX - bounds[b + 3]), 0);
+        float dy = Math.max(Math.max(bounds[b + 1] - mCameraY, mCameraY - bounds[b + 4]), 0);
+        float dz = Math.max(Math.max(bounds[b + 2] - mCameraZ, mCameraZ - bounds[b + 5]), 0);
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return getProjectedSize(mCellSizes[level], distance);
+    }
+
+    private void push(int node, float error) {
+        if (mHeapSize == mHeapNodes.length) {
+            int[] nodes = new int[mHeapSize * 2];
+            float[] errors = new float[mHeapSize * 2];
+            System.arraycopy(mHeapNodes, 0, nodes, 0, mHeapSize);
+            System.arraycopy(mHeapErrors, 0, errors, 0, mHeapSize);
+            mHeapNodes = nodes;
+            mHeapErrors = errors;
+        }
+        int i = mHeapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (mHeapErrors[parent] >= error) {
+                break;
+            }
+            mHeapNodes[i] = mHeapNodes[parent];
+            mHeapErrors[i] = mHeapErrors[parent];
+            i = parent;
+        }
+        mHeapNodes[i] = node;
+        mHeapErrors[i] = error;
+    }
+
+    private int pop() {
+        int top = mHeapNodes[0];
+        int size = --mHeapSize;
+        int node = mHeapNodes[size];
+        float error = mHeapErrors[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && mHeapErrors[child + 1] > mHeapErrors[child]) {
+                child++;
+            }
+            if (mHeapErrors[child] <= error) {
+                break;
+            }
+            mHeapNodes[i] = mHeapNodes[child];
+            mHeapErrors[i] = mHeapErrors[child];
+            i = child;
+        }
+        mHeapNodes[i] = node;
+        mHeapErrors[i] = error;
+        return top;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import java.util.Arrays;
+
+/**
+ * Merges point clouds into a sparse voxel grid, keeping one point per voxel:
+ * the centroid of the points that fell into it. Memory grows with the volume
+ * of the scanned scene rather than with the length of the recording, since
+ * frames seeing the same surfaces land in the same voxels.
+ *
+ * Voxels are found by their packed integer coordinates in a
+ * {@link LongIntHashMap}, and their centroids and counts are stored in
+ * primitive arrays, in the order the voxels were created.
+ */
+public class VoxelAccumulator {
+
+    /** Bits per packed voxel coordinate */
+    public static final int COORDINATE_BITS = 21;
+    /** Voxel coordinates must be within [-COORDINATE_RANGE, COORDINATE_RANGE) */
+    public static final int COORDINATE_RANGE = 1 << (COORDINATE_BITS - 1);
+
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final float mVoxelSize;
+    private final float mInverseVoxelSize;
+    private final LongIntHashMap mVoxels;
+    private float[] mCentroids;
+    private int[] mCounts;
+    private int mSize;
+    private long mDroppedPointCount;
+
+    /**
+     * @param voxelSize
+     *            the edge length of the voxels, in meters.
+     */
+    public VoxelAccumulator(float voxelSize) {
+        if (!(voxelSize > 0)) {
+            throw new IllegalArgumentException("Invalid voxel size " + voxelSize);
+        }
+        mVoxelSize = voxelSize;
+        mInverseVoxelSize = 1f / voxelSize;
+        mVoxels = new LongIntHashMap(INITIAL_CAPACITY);
+        mCentroids = new float[INITIAL_CAPACITY * 3];
+        mCounts = new int[INITIAL_CAPACITY];
+    }
+
+    public float getVoxelSize() {
+        return mVoxelSize;
+    }
+
+    /**
+     * @return the number of occupied voxels, which is the number of points of
+     *         the merged cloud.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of points ignored because they were not finite or
+     *         out of the range of the grid.
+     */
+    public long getDroppedPointCount() {
+        return mDroppedPointCount;
+    }
+
+    /**
+     * Packs integer voxel coordinates, each within
+     * [-COORDINATE_RANGE, COORDINATE_RANGE), into a single key.
+     */
+    public static long packKey(int x, int y, int z) {
+        return ((x + COORDINATE_RANGE) & COORDINATE_MASK)
+                | (((y + COORDINATE_RANGE) & COORDINATE_MASK) << COORDINATE_BITS)
+                | (((z + COORDINATE_RANGE) & COORDINATE_MASK) << (2 * COORDINATE_BITS));
+    }
+
+    /**
+     * Adds count points of 3 floats, already in the frame of the merged cloud.
+     *
+     * @return the number of voxels created by these points.
+     */
+    public int addPoints(float[] points, int offset, int count) {
+        int previousSize = mSize;
+        int end = offset + count * 3;
+        for (int i = offset; i < end; i += 3) {
+            addPoint(points[i], points[i + 1], points[i + 2]);
+        }
+        return mSize - previousSize;
+    }
+
+    /**
+     * Adds a point to its voxel, updating the running centroid of the voxel.
+     */
+    public void addPoint(float x, float y, float z) {
+        float vx = (float) Math.floor(x * mInverseVoxelSize);
+        float vy = (float) Math.floor(y * mInverseVoxelSize);
+        float vz = (float) Math.floor(z * mInverseVoxelSize);
+        // Also rejects NaN coordinates
+        if (!(vx >= -COORDINATE_RANGE && vx < COORDINATE_RANGE
+                && vy >= -COORDINATE_RANGE && vy < COORDINATE_RANGE
+                && vz >= -COORDINATE_RANGE && vz < COORDINATE_RANGE)) {
+            mDroppedPointCount++;
+            return;
+        }
+        long key = packKey((int) vx, (int) vy, (int) vz);
+        int voxel = mVoxels.putIfAbsent(key, mSize);
+        if (voxel == LongIntHashMap.NO_VALUE) {
+            if (mSize == mCounts.length) {
+                mCounts = Arrays.copyOf(mCounts, mSize * 2);
+                mCentroids = Arrays.copyOf(mCentroids, mSize * 2 * 3);
+            }
+            voxel = mSize++;
+        }
+        int count = ++mCounts[voxel];
+        int c = voxel * 3;
+        // Incremental mean, which keeps float precision however many points
+        // the voxel gets
+        float weight = 1f / count;
+        mCentroids[c] += (x - mCentroids[c]) * weight;
+        mCentroids[c + 1] += (y - mCentroids[c + 1]) * weight;
+        mCentroids[c + 2] += (z - mCentroids[c + 2]) * weight;
+    }
+
+    /**
+     * Copies the centroids of the voxels, 3 floats per voxel, in the order the
+     * voxels were created.
+     */
+    public void copyCentroids(float[] dst, int offset) {
+        System.arraycopy(mCentroids, 0, dst, offset, mSize * 3);
+    }
+
+    /**
+     * @return the centroids of the voxels, 3 floats per voxel. The array is
+     *         used by the accumulator, and only its first size() * 3 values
+     *         are meaningful.
+     */
+    public float[] getCentroids() {
+        return mCentroids;
+    }
+
+    /**
+     * @return the number of points merged into a voxel.
+     */
+    public int getCount(int voxel) {
+        return mCounts[voxel];
+    }
+
+    /**
+     * Forgets all the voxels, keeping the arrays allocated.
+     */
+    public void clear() {
+        mVoxels.clear();
+        Arrays.fill(mCentroids, 0, mSize * 3, 0f);
+        Arrays.fill(mCounts, 0, mSize, 0);
+        mSize = 0;
+        mDroppedPointCount = 0;
+    }
+}
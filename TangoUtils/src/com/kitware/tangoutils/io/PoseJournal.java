@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only file of the poses of a recording, so that the pose history does
+ * not have to be kept in memory, and survives the application being killed.
+ *
+ * The file starts with the 8-byte magic "TPOSEJ01", followed by fixed-size
+ * big-endian records: the timestamp as a double, the x, y, z position and the
+ * x, y, z, w orientation as floats. Records are staged in memory and written
+ * to the file at least every {@link #FLUSH_INTERVAL} seconds of pose time.
+ *
+ * Appending and reading are synchronized, so the journal can be read back
+ * from another thread than the one appending poses.
+ */
+public class PoseJournal {
+
+    public static final int RECORD_SIZE = 36;
+    public static final int TIMESTAMP_OFFSET = 0;
+    public static final int POSITION_OFFSET = 8;
+    public static final int ORIENTATION_OFFSET = 20;
+    /** Maximum pose time between two writes to the file, in seconds */
+    public static final double FLUSH_INTERVAL = 1.0;
+
+    private static final byte[] MAGIC = { 'T', 'P', 'O', 'S', 'E', 'J', '0', '1' };
+    private static final int STAGED_RECORDS = 256;
+    private static final int READ_RECORDS = 1024;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mStaging = ByteBuffer.allocate(
+            STAGED_RECORDS * RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+    private ByteBuffer mReadBuffer;
+    private double mLastFlushTimestamp = Double.NaN;
+    private int mSize;
+    private boolean mIsFinished;
+
+    /**
+     * Creates an empty journal, replacing any existing file.
+     */
+    public PoseJournal(File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+        write(ByteBuffer.wrap(MAGIC));
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends a pose, as given by TangoPoseData. Ignored once the journal is
+     * finished.
+     *
+     * @param translation
+     *            the x, y, z position.
+     * @param rotation
+     *            the x, y, z, w orientation quaternion.
+     */
+    public synchronized void append(double timestamp, double[] translation,
+            double[] rotation) throws IOException {
+        if (mIsFinished) {
+            return;
+        }
+        mStaging.putDouble(timestamp);
+        for (int i = 0; i < 3; i++) {
+            mStaging.putFloat((float) translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            mStaging.putFloat((float) rotation[i]);
+        }
+        mSize++;
+        if (!mStaging.hasRemaining()
+                || !(timestamp - mLastFlushTimestamp < FLUSH_INTERVAL)) {
+            flush();
+            mLastFlushTimestamp = timestamp;
+        }
+    }
+
+    /**
+     * Writes the staged records to the file.
+     */
+    public synchronized void flush() throws IOException {
+        mStaging.flip();
+        write(mStaging);
+        mStaging.clear();
+    }
+
+    /**
+     * Writes the staged records, and ignores the poses appended from now on,
+     * so that the journal can be read back.
+     */
+    public synchronized void finish() throws IOException {
+        flush();
+        mIsFinished = true;
+    }
+
+    /**
+     * @return the number of poses appended to the journal.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Closes the journal and deletes its file.
+     */
+    public synchronized void delete() throws IOException {
+        mIsFinished = true;
+        mRandomAccessFile.close();
+        if (!mFile.delete()) {
+            throw new IOException("Cannot delete " + mFile);
+        }
+    }
+
+    /**
+     * Streams the positions of the first poseCount poses to a VTK writer, as
+     * 3 floats per pose.
+     */
+    public void writePositions(VtkLegacyPolyDataWriter writer, int poseCount)
+            throws IOException {
+        writeFloatColumn(writer, poseCount, POSITION_OFFSET, 3);
+    }
+
+    /**
+     * Streams the orientations of the first poseCount poses to a VTK writer,
+     * as 4 floats per pose.
+     */
+    public void writeOrientations(VtkLegacyPolyDataWriter writer, int poseCount)
+            throws IOException {
+        writeFloatColumn(writer, poseCount, ORIENTATION_OFFSET, 4);
+    }
+
+    /**
+     * Streams the timestamps of the first poseCount poses to a VTK writer, as
+     * doubles.
+     */
+    public synchronized void writeTimestamps(VtkLegacyPolyDataWriter writer,
+            int poseCount) throws IOException {
+        long position = MAGIC.length;
+        int record = 0;
+        while (record < poseCount) {
+            int count = readRecords(position, poseCount - record);
+            for (int i = 0; i < count; i++) {
+                writer.writeDouble(mReadBuffer.getDouble(i * RECORD_SIZE
+                        + TIMESTAMP_OFFSET));
+            }
+            record += count;
+            position += (long) count * RECORD_SIZE;
+        }
+    }
+
+    private synchronized void writeFloatColumn(VtkLegacyPolyDataWriter writer,
+            int poseCount, int offset, int components) throws IOException {
+        long position = MAGIC.length;
+        int record = 0;
+        while (record < poseCount) {
+            int count = readRecords(position, poseCount - record);
+            for (int i = 0; i < count; i++) {
+                int base = i * RECORD_SIZE + offset;
+                for (int c = 0; c < components; c++) {
+                    writer.writeFloat(mReadBuffer.getFloat(base + c * 4));
+                }
+            }
+            record += count;
+            position += (long) count * RECORD_SIZE;
+        }
+    }
+
+    /**
+     * Reads up to maxRecords records from the file into the read buffer,
+     * starting at the given file position.
+     *
+     * @return the number of records read.
+     */
+    private int readRecords(long position, int maxRecords) throws IOException {
+        if (mReadBuffer == null) {
+            mReadBuffer = ByteBuffer.allocate(READ_RECORDS * RECORD_SIZE).order(
+                    ByteOrder.BIG_ENDIAN);
+        }
+        mReadBuffer.clear();
+        mReadBuffer.limit(Math.min(maxRecords, READ_RECORDS) * RECORD_SIZE);
+        while (mReadBuffer.hasRemaining()) {
+            int read = mChannel.read(mReadBuffer, position + mReadBuffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + mFile);
+            }
+        }
+        return mReadBuffer.position() / RECORD_SIZE;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
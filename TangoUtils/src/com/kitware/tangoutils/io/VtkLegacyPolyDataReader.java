@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/**
+ * Reads the binary VTK legacy PolyData files written by
+ * {@link VtkLegacyPolyDataWriter}: points, cells (skipped), field data and
+ * point data field arrays. The whole file is parsed from a buffer when the
+ * reader is created, and the values are only converted when asked for.
+ */
+public class VtkLegacyPolyDataReader {
+
+    private static final String[] CELL_KEYWORDS = { "VERTICES", "LINES",
+            "POLYGONS", "TRIANGLE_STRIPS" };
+
+    private final ByteBuffer mData;
+    private final HashMap<String, DataArray> mFieldArrays = new HashMap<String, DataArray>();
+    private final HashMap<String, DataArray> mPointDataArrays = new HashMap<String, DataArray>();
+    private DataArray mPoints;
+
+    /**
+     * A binary array of the file: where its values start, and how to read
+     * them.
+     */
+    private static class DataArray {
+        final int mComponents;
+        final int mTuples;
+        final int mOffset;
+        final int mValueSize;
+        final String mType;
+
+        DataArray(int components, int tuples, String type, int offset)
+                throws IOException {
+            mComponents = components;
+            mTuples = tuples;
+            mType = type;
+            mOffset = offset;
+            mValueSize = valueSize(type);
+        }
+
+        int byteLength() {
+            return mComponents * mTuples * mValueSize;
+        }
+    }
+
+    /**
+     * Parses a file held between the position and the limit of a buffer. The
+     * buffer must not be modified while the reader is used.
+     */
+    public VtkLegacyPolyDataReader(ByteBuffer data) throws IOException {
+        mData = data.slice().order(ByteOrder.BIG_ENDIAN);
+        parse();
+    }
+
+    public int getPointCount() {
+        return mPoints != null ? mPoints.mTuples : 0;
+    }
+
+    /**
+     * Reads the point coordinates, 3 floats per point.
+     */
+    public void readPoints(float[] dst, int offset) throws IOException {
+        if (mPoints != null) {
+            readFloats(mPoints, dst, offset);
+        }
+    }
+
+    public boolean hasFieldArray(String name) {
+        return mFieldArrays.containsKey(name);
+    }
+
+    /**
+     * @return the values of a field data array, or null if there is none with
+     *         that name.
+     */
+    public double[] getFieldArray(String name) throws IOException {
+        return readDoubles(mFieldArrays.get(name));
+    }
+
+    public boolean hasPointDataArray(String name) {
+        return mPointDataArrays.containsKey(name);
+    }
+
+    /**
+     * @return the values of a point data array, or null if there is none with
+     *         that name.
+     */
+    public double[] getPointDataArray(String name) throws IOException {
+        return readDoubles(mPointDataArrays.get(name));
+    }
+
+    /**
+     * Reads the values of a point data array as floats.
+     *
+     * @return false if there is no array with that name.
+     */
+    public boolean readPointDataArray(String name, float[] dst, int offset)
+            throws IOException {
+        DataArray array = mPointDataArrays.get(name);
+        if (array == null) {
+            return false;
+        }
+        readFloats(array, dst, offset);
+        return true;
+    }
+
+    private void parse() throws IOException {
+        readLine(); // # vtk DataFile Version x.x
+        readLine(); // Title
+        if (!"BINARY".equals(readLine().trim())) {
+            throw new IOException("Only binary VTK files are supported");
+        }
+        if (!"DATASET".equals(readToken()) || !"POLYDATA".equals(readToken())) {
+            throw new IOException("Only PolyData VTK files are supported");
+        }
+        HashMap<String, DataArray> fieldTarget = mFieldArrays;
+        String keyword;
+        while ((keyword = readToken()) != null) {
+            if ("POINTS".equals(keyword)) {
+                int count = readInt();
+                String type = readToken();
+                skipLine();
+                mPoints = skip(new DataArray(3, count, type, mData.position()));
+            } else if (isCellKeyword(keyword)) {
+                readInt();
+                int size = readInt();
+                skipLine();
+                skip(new DataArray(1, size, "int", mData.position()));
+            } else if ("POINT_DATA".equals(keyword)) {
+                readInt();
+                fieldTarget = mPointDataArrays;
+            } else if ("CELL_DATA".equals(keyword)) {
+                readInt();
+                fieldTarget = null;
+            } else if ("FIELD".equals(keyword)) {
+                readToken(); // Field name
+                int arrayCount = readInt();
+                for (int i = 0; i < arrayCount; i++) {
+                    String name = readToken();
+                    int components = readInt();
+                    int tuples = readInt();
+                    String type = readToken();
+                    skipLine();
+                    DataArray array = skip(new DataArray(components, tuples,
+                            type, mData.position()));
+                    if (fieldTarget != null) {
+                        fieldTarget.put(name, array);
+                    }
+                }
+            } else {
+                throw new IOException("Unsupported VTK keyword " + keyword);
+            }
+        }
+    }
+
+    private static boolean isCellKeyword(String keyword) {
+        for (String cellKeyword : CELL_KEYWORDS) {
+            if (cellKeyword.equals(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DataArray skip(DataArray array) throws IOException {
+        int end = array.mOffset + array.byteLength();
+        if (end > mData.limit()) {
+            throw new IOException("Truncated VTK file");
+        }
+        mData.position(end);
+        return array;
+    }
+
+    private void readFloats(DataArray array, float[] dst, int offset)
+            throws IOException {
+        int count = array.mComponents * array.mTuples;
+        if ("float".equals(array.mType)) {
+            ByteBuffer values = mData.duplicate().order(ByteOrder.BIG_ENDIAN);
+            values.position(array.mOffset);
+            values.asFloatBuffer().get(dst, offset, count);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = (float) readValue(array, i);
+        }
+    }
+
+    private double[] readDoubles(DataArray array) throws IOException {
+        if (array == null) {
+            return null;
+        }
+        double[] values = new double[array.mComponents * array.mTuples];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue(array, i);
+        }
+        return values;
+    }
+
+    private double readValue(DataArray array, int index) throws IOException {
+        int position = array.mOffset + index * array.mValueSize;
+        String type = array.mType;
+        if ("float".equals(type)) {
+            return mData.getFloat(position);
+        } else if ("double".equals(type)) {
+            return mData.getDouble(position);
+        } else if ("int".equals(type) || "vtkIdType".equals(type)) {
+            return mData.getInt(position);
+        } else if ("unsigned_int".equals(type)) {
+            return mData.getInt(position) & 0xFFFFFFFFL;
+        } else if ("short".equals(type)) {
+            return mData.getShort(position);
+        } else if ("unsigned_short".equals(type)) {
+            return mData.getShort(position) & 0xFFFF;
+        } else if ("char".equals(type)) {
+            return mData.get(position);
+        } else if ("unsigned_char".equals(type)) {
+            return mData.get(position) & 0xFF;
+        }
+        throw new IOException("Unsupported VTK data type " + type);
+    }
+
+    private static int valueSize(String type) throws IOException {
+        if ("double".equals(type)) {
+            return 8;
+        } else if ("float".equals(type) || "int".equals(type)
+                || "unsigned_int".equals(type) || "vtkIdType".equals(type)) {
+            return 4;
+        } else if ("short".equals(type) || "unsigned_short".equals(type)) {
+            return 2;
+        } else if ("char".equals(type) || "unsigned_char".equals(type)) {
+            return 1;
+        }
+        throw new IOException("Unsupported VTK data type " + type);
+    }
+
+    /**
+     * @return the next whitespace separated ASCII token, or null at the end of
+     *         the file.
+     */
+    private String readToken() {
+        while (mData.hasRemaining() && isWhitespace(mData.get(mData.position()))) {
+            mData.get();
+        }
+        if (!mData.hasRemaining()) {
+            return null;
+        }
+        StringBuilder token = new StringBuilder();
+        while (mData.hasRemaining() && !isWhitespace(mData.get(mData.position()))) {
+            token.append((char) mData.get());
+        }
+        return token.toString();
+    }
+
+    private int readInt() throws IOException {
+        String token = readToken();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Expected a number instead of " + token);
+        }
+    }
+
+    private String readLine() {
+        StringBuilder line = new StringBuilder();
+        while (mData.hasRemaining()) {
+            char c = (char) mData.get();
+            if (c == '\n') {
+                break;
+            }
+            line.append(c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Moves to the start of the next line, where binary data starts.
+     */
+    private void skipLine() {
+        while (mData.hasRemaining() && mData.get() != '\n') {
+            // Skip the end of the keyword line
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
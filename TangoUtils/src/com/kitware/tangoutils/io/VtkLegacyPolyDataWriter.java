@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes binary VTK legacy PolyData files. Values are staged in a reusable
+ * direct buffer, in the big-endian order required by the format, with bulk
+ * transfers from {@link FloatBuffer}s and arrays, and the buffer is flushed
+ * to a {@link WritableByteChannel} (usually a FileChannel) when full.
+ *
+ * A writer can be reused for several files, but is not thread safe.
+ */
+public class VtkLegacyPolyDataWriter {
+
+    public static final String TYPE_FLOAT = "float";
+    public static final String TYPE_DOUBLE = "double";
+    public static final String CELLS_VERTICES = "VERTICES";
+    public static final String CELLS_LINES = "LINES";
+
+    private static final int BYTES_PER_VALUE = 4;
+    private static final int BYTES_PER_DOUBLE = 8;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_CELL_IDS = 4 * 1024 * 1024;
+    private static final int POINT_COUNT_WIDTH = 10;
+    private static final String HEADER = "# vtk DataFile Version 3.0\n"
+            + "vtk output\n" + "BINARY\n" + "DATASET POLYDATA\n" + "POINTS ";
+
+    private final ByteBuffer mBuffer;
+    private final FloatBuffer mFloatView;
+    private final IntBuffer mIntView;
+    private final char[] mDigits = new char[11];
+    private ByteBuffer mCellIds;
+    private WritableByteChannel mChannel;
+    private long mFlushedBytes;
+
+    public VtkLegacyPolyDataWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            the size of the staging buffer in bytes.
+     */
+    public VtkLegacyPolyDataWriter(int bufferSize) {
+        bufferSize = Math.max(bufferSize, 64) & ~(BYTES_PER_VALUE - 1);
+        mBuffer = ByteBuffer.allocateDirect(bufferSize).order(
+                ByteOrder.BIG_ENDIAN);
+        mFloatView = mBuffer.asFloatBuffer();
+        mIntView = mBuffer.asIntBuffer();
+    }
+
+    /**
+     * Starts writing a file to the given channel.
+     */
+    public void open(WritableByteChannel channel) {
+        mChannel = channel;
+        mBuffer.clear();
+        mFlushedBytes = 0;
+    }
+
+    /**
+     * Flushes the staged data and closes the channel.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Writes the staged data to the channel, without closing it.
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        mFlushedBytes += mBuffer.remaining();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    /**
+     * @return the number of bytes written since the file was opened,
+     *         including the staged ones.
+     */
+    public long getPosition() {
+        return mFlushedBytes + mBuffer.position();
+    }
+
+    /**
+     * Writes the file header, up to the POINTS keyword of a PolyData with
+     * float points.
+     */
+    public void writeHeader(int pointCount) throws IOException {
+        writeAscii(HEADER);
+        writeAscii(pointCount);
+        writeAscii(" " + TYPE_FLOAT + "\n");
+    }
+
+    /**
+     * Writes the file header for a number of points that is not known yet.
+     * The number is left blank, to be filled by
+     * {@link #patchPointCount(FileChannel, long, int)} once the file is
+     * written.
+     *
+     * @return the position of the number of points in the file.
+     */
+    public long writeHeaderWithPointCountPlaceholder() throws IOException {
+        writeAscii(HEADER);
+        long position = getPosition();
+        for (int i = 0; i < POINT_COUNT_WIDTH; i++) {
+            writeAscii(" ");
+        }
+        writeAscii(" " + TYPE_FLOAT + "\n");
+        return position;
+    }
+
+    /**
+     * Writes the number of points in the blank left by
+     * {@link #writeHeaderWithPointCountPlaceholder()}. Readers skip the
+     * spaces that pad it.
+     */
+    public static void patchPointCount(FileChannel channel, long position,
+            int pointCount) throws IOException {
+        String count = Integer.toString(pointCount);
+        ByteBuffer bytes = ByteBuffer.allocate(count.length());
+        for (int i = 0; i < count.length(); i++) {
+            bytes.put((byte) count.charAt(i));
+        }
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+    }
+
+    /**
+     * Makes sure the cached point ids block holds at least pointCount ids, so
+     * that it does not have to grow while recording.
+     */
+    public void reserveCellIds(int pointCount) {
+        pointCount = Math.min(pointCount, MAX_CACHED_CELL_IDS);
+        if (mCellIds != null && mCellIds.capacity() >= pointCount * BYTES_PER_VALUE) {
+            return;
+        }
+        int capacity = pointCount;
+        if (mCellIds != null) {
+            int previous = mCellIds.capacity() / BYTES_PER_VALUE;
+            capacity = Math.min(Math.max(capacity, previous + previous / 2),
+                    MAX_CACHED_CELL_IDS);
+        }
+        mCellIds = ByteBuffer.allocateDirect(capacity * BYTES_PER_VALUE).order(
+                ByteOrder.BIG_ENDIAN);
+        IntBuffer ids = mCellIds.asIntBuffer();
+        for (int i = 0; i < capacity; i++) {
+            ids.put(i, i);
+        }
+    }
+
+    /**
+     * Writes a single cell of the given type (VERTICES or LINES) made of the
+     * points 0 to pointCount - 1, preceded by its keyword line. The point ids
+     * are always the same sequence, so they are written from a cached block
+     * sized to the largest cell written so far.
+     */
+    public void writeCells(String cellType, int pointCount) throws IOException {
+        writeAscii("\n");
+        writeAscii(cellType);
+        writeAscii(" 1 ");
+        writeAscii(pointCount + 1);
+        writeAscii("\n");
+        writeInt(pointCount);
+        reserveCellIds(pointCount);
+        flush();
+        int cachedIds = Math.min(pointCount, mCellIds.capacity() / BYTES_PER_VALUE);
+        mCellIds.clear();
+        mCellIds.limit(cachedIds * BYTES_PER_VALUE);
+        mFlushedBytes += mCellIds.remaining();
+        while (mCellIds.hasRemaining()) {
+            mChannel.write(mCellIds);
+        }
+        // Only clouds larger than the cache limit get here
+        for (int i = cachedIds; i < pointCount; i++) {
+            writeInt(i);
+        }
+    }
+
+    /**
+     * Writes the line describing a data array: name, number of components,
+     * number of tuples and type.
+     */
+    public void writeArrayHeader(String name, int components, int tuples,
+            String type) throws IOException {
+        writeAscii(name);
+        writeAscii(" ");
+        writeAscii(components);
+        writeAscii(" ");
+        writeAscii(tuples);
+        writeAscii(" ");
+        writeAscii(type);
+        writeAscii("\n");
+    }
+
+    /**
+     * Writes a whole point cloud file: the points between the position and
+     * the limit of a buffer, 3 floats per point, an optional VERTICES cell
+     * and the timestamp of the frame. The position of the buffer is moved to
+     * its limit, and the file is left open.
+     *
+     * @param writeVertices
+     *            whether to write the VERTICES cell that ParaView needs to
+     *            display the points as they are. Without it the file is
+     *            about half the size, and a filter generating vertices (e.g.
+     *            Mask Points) displays it.
+     */
+    public void writePointCloud(FloatBuffer points, double timestamp,
+            boolean writeVertices) throws IOException {
+        int pointCount = points.remaining() / 3;
+        writeHeader(pointCount);
+        writeFloats(points);
+        if (writeVertices) {
+            writeCells(CELLS_VERTICES, pointCount);
+        }
+        writeAscii("\nFIELD FieldData 1\n");
+        writeArrayHeader("timestamp", 1, 1, TYPE_DOUBLE);
+        writeDouble(timestamp);
+    }
+
+    /**
+     * Writes an ASCII string, such as a keyword line.
+     */
+    public void writeAscii(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+            mBuffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the decimal representation of an integer.
+     */
+    public void writeAscii(int value) throws IOException {
+        long v = value;
+        boolean negative = v < 0;
+        if (negative) {
+            v = -v;
+        }
+        int start = mDigits.length;
+        do {
+            mDigits[--start] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (negative) {
+            writeByte('-');
+        }
+        for (int i = start; i < mDigits.length; i++) {
+            writeByte(mDigits[i]);
+        }
+    }
+
+    public void writeFloat(float value) throws IOException {
+        if (mBuffer.remaining() < BYTES_PER_VALUE) {
+            flush();
+        }
+        mBuffer.putFloat(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        if (mBuffer.remaining() < BYTES_PER_VALUE) {
+            flush();
+        }
+        mBuffer.putInt(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        if (mBuffer.remaining() < BYTES_PER_DOUBLE) {
+            flush();
+        }
+        mBuffer.putDouble(value);
+    }
+
+    public void writeDoubles(double[] values, int offset, int length)
+            throws IOException {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * Writes the floats between the position and the limit of a buffer, in
+     * any byte order. The position of the buffer is moved to its limit.
+     */
+    public void writeFloats(FloatBuffer values) throws IOException {
+        int end = values.limit();
+        while (values.position() < end) {
+            int count = Math.min(end - values.position(), reserveValues());
+            values.limit(values.position() + count);
+            mFloatView.put(values);
+            values.limit(end);
+            mBuffer.position(mBuffer.position() + count * BYTES_PER_VALUE);
+        }
+    }
+
+    public void writeFloats(float[] values, int offset, int length)
+            throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, reserveValues());
+            mFloatView.put(values, offset, count);
+            mBuffer.position(mBuffer.position() + count * BYTES_PER_VALUE);
+            offset += count;
+        }
+    }
+
+    public void writeInts(int[] values, int offset, int length)
+            throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, reserveValues());
+            mIntView.put(values, offset, count);
+            mBuffer.position(mBuffer.position() + count * BYTES_PER_VALUE);
+            offset += count;
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            flush();
+        }
+        mBuffer.put((byte) c);
+    }
+
+    /**
+     * Makes sure at least one 4-byte value fits in the staging buffer, and
+     * places the float and int views at the current position, which must be
+     * 4-byte aligned for the views to be used.
+     *
+     * @return the number of 4-byte values that fit in the staging buffer.
+     */
+    private int reserveValues() throws IOException {
+        if (mBuffer.remaining() < BYTES_PER_VALUE
+                || mBuffer.position() % BYTES_PER_VALUE != 0) {
+            flush();
+        }
+        int index = mBuffer.position() / BYTES_PER_VALUE;
+        mFloatView.clear();
+        mFloatView.position(index);
+        mIntView.clear();
+        mIntView.position(index);
+        return mBuffer.remaining() / BYTES_PER_VALUE;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 4x4 matrix operations on float[16] arrays, in the column major layout of
+ * OpenGL and android.opengl.Matrix. Pure Java, so they run off-device, and
+ * none of them allocates.
+ *
+ * Affine variants assume the last row of their inputs is (0, 0, 0, 1), and
+ * rigid variants that the upper 3x3 block is a rotation: they are cheaper than
+ * the general operations, and are what pose transforms need. The result may
+ * be one of the inputs.
+ */
+public final class Matrix4 {
+
+    public static final int SIZE = 16;
+
+    private Matrix4() {
+    }
+
+    public static void setIdentity(float[] m) {
+        for (int i = 0; i < SIZE; i++) {
+            m[i] = 0f;
+        }
+        m[0] = 1f;
+        m[5] = 1f;
+        m[10] = 1f;
+        m[15] = 1f;
+    }
+
+    /**
+     * Sets a rigid transform from a rotation quaternion (x, y, z, w) and a
+     * translation (x, y, z).
+     */
+    public static void setRigid(float[] m, float qx, float qy, float qz,
+            float qw, float tx, float ty, float tz) {
+        Quaternion.toMatrix(qx, qy, qz, qw, m);
+        m[12] = tx;
+        m[13] = ty;
+        m[14] = tz;
+    }
+
+    /**
+     * result = lhs * rhs, for any matrices.
+     */
+    public static void multiply(float[] result, float[] lhs, float[] rhs) {
+        float l0 = lhs[0], l1 = lhs[1], l2 = lhs[2], l3 = lhs[3];
+        float l4 = lhs[4], l5 = lhs[5], l6 = lhs[6], l7 = lhs[7];
+        float l8 = lhs[8], l9 = lhs[9], l10 = lhs[10], l11 = lhs[11];
+        float l12 = lhs[12], l13 = lhs[13], l14 = lhs[14], l15 = lhs[15];
+        for (int c = 0; c < SIZE; c += 4) {
+            float r0 = rhs[c], r1 = rhs[c + 1], r2 = rhs[c + 2], r3 = rhs[c + 3];
+            result[c] = l0 * r0 + l4 * r1 + l8 * r2 + l12 * r3;
+            result[c + 1] = l1 * r0 + l5 * r1 + l9 * r2 + l13 * r3;
+            result[c + 2] = l2 * r0 + l6 * r1 + l10 * r2 + l14 * r3;
+            result[c + 3] = l3 * r0 + l7 * r1 + l11 * r2 + l15 * r3;
+        }
+    }
+
+    /**
+     * result = lhs * rhs, for affine matrices.
+     */
+    public static void multiplyAffine(float[] result, float[] lhs, float[] rhs) {
+        float l0 = lhs[0], l1 = lhs[1], l2 = lhs[2];
+        float l4 = lhs[4], l5 = lhs[5], l6 = lhs[6];
+        float l8 = lhs[8], l9 = lhs[9], l10 = lhs[10];
+        float l12 = lhs[12], l13 = lhs[13], l14 = lhs[14];
+        for (int c = 0; c < 12; c += 4) {
+            float r0 = rhs[c], r1 = rhs[c + 1], r2 = rhs[c + 2];
+            result[c] = l0 * r0 + l4 * r1 + l8 * r2;
+            result[c + 1] = l1 * r0 + l5 * r1 + l9 * r2;
+            result[c + 2] = l2 * r0 + l6 * r1 + l10 * r2;
+            result[c + 3] = 0f;
+        }
+        float r12 = rhs[12], r13 = rhs[13], r14 = rhs[14];
+        result[12] = l0 * r12 + l4 * r13 + l8 * r14 + l12;
+        result[13] = l1 * r12 + l5 * r13 + l9 * r14 + l13;
+        result[14] = l2 * r12 + l6 * r13 + l10 * r14 + l14;
+        result[15] = 1f;
+    }
+
+    /**
+     * Inverts a rigid transform: the rotation is transposed, and the
+     * translation rotated back.
+     */
+    public static void invertRigid(float[] result, float[] m) {
+        float m0 = m[0], m1 = m[1], m2 = m[2];
+        float m4 = m[4], m5 = m[5], m6 = m[6];
+        float m8 = m[8], m9 = m[9], m10 = m[10];
+        float tx = m[12], ty = m[13], tz = m[14];
+        result[0] = m0;
+        result[1] = m4;
+        result[2] = m8;
+        result[3] = 0f;
+        result[4] = m1;
+        result[5] = m5;
+        result[6] = m9;
+        result[7] = 0f;
+        result[8] = m2;
+        result[9] = m6;
+        result[10] = m10;
+        result[11] = 0f;
+        result[12] = -(m0 * tx + m1 * ty + m2 * tz);
+        result[13] = -(m4 * tx + m5 * ty + m6 * tz);
+        result[14] = -(m8 * tx + m9 * ty + m10 * tz);
+        result[15] = 1f;
+    }
+
+    /**
+     * Inverts any matrix, by cofactors.
+     *
+     * @return false if the matrix is singular, in which case result is left
+     *         unchanged.
+     */
+    public static boolean invert(float[] result, float[] m) {
+        float m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        float m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11];
+        float m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+
+        // 2x2 minors of the two left and the two right columns
+        float a0 = m0 * m5 - m4 * m1;
+        float a1 = m0 * m6 - m4 * m2;
+        float a2 = m0 * m7 - m4 * m3;
+        float a3 = m1 * m6 - m5 * m2;
+        float a4 = m1 * m7 - m5 * m3;
+        float a5 = m2 * m7 - m6 * m3;
+        float b0 = m8 * m13 - m12 * m9;
+        float b1 = m8 * m14 - m12 * m10;
+        float b2 = m8 * m15 - m12 * m11;
+        float b3 = m9 * m14 - m13 * m10;
+        float b4 = m9 * m15 - m13 * m11;
+        float b5 = m10 * m15 - m14 * m11;
+
+        float det = a0 * b5 - a1 * b4 + a2 * b3 + a3 * b2 - a4 * b1 + a5 * b0;
+        if (det == 0f) {
+            return false;
+        }
+        float invDet = 1f / det;
+
+        result[0] = (m5 * b5 - m6 * b4 + m7 * b3) * invDet;
+        result[1] = (-m1 * b5 + m2 * b4 - m3 * b3) * invDet;
+        result[2] = (m13 * a5 - m14 * a4 + m15 * a3) * invDet;
+        result[3] = (-m9 * a5 + m10 * a4 - m11 * a3) * invDet;
+        result[4] = (-m4 * b5 + m6 * b2 - m7 * b1) * invDet;
+        result[5] = (m0 * b5 - m2 * b2 + m3 * b1) * invDet;
+        result[6] = (-m12 * a5 + m14 * a2 - m15 * a1) * invDet;
+        result[7] = (m8 * a5 - m10 * a2 + m11 * a1) * invDet;
+        result[8] = (m4 * b4 - m5 * b2 + m7 * b0) * invDet;
+        result[9] = (-m0 * b4 + m1 * b2 - m3 * b0) * invDet;
+        result[10] = (m12 * a4 - m13 * a2 + m15 * a0) * invDet;
+        result[11] = (-m8 * a4 + m9 * a2 - m11 * a0) * invDet;
+        result[12] = (-m4 * b3 + m5 * b1 - m6 * b0) * invDet;
+        result[13] = (m0 * b3 - m1 * b1 + m2 * b0) * invDet;
+        result[14] = (-m12 * a3 + m13 * a1 - m14 * a0) * invDet;
+        result[15] = (m8 * a3 - m9 * a1 + m10 * a0) * invDet;
+        return true;
+    }
+
+    /**
+     * Sets a view matrix looking from an eye position to a center position,
+     * like android.opengl.Matrix.setLookAtM.
+     */
+    public static void setLookAt(float[] m, float eyeX, float eyeY,
+            float eyeZ, float centerX, float centerY, float centerZ,
+            float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float invLength = 1f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= invLength;
+        fy *= invLength;
+        fz *= invLength;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        invLength = 1f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= invLength;
+        sy *= invLength;
+        sz *= invLength;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[0] = sx;
+        m[1] = ux;
+        m[2] = -fx;
+        m[3] = 0f;
+        m[4] = sy;
+        m[5] = uy;
+        m[6] = -fy;
+        m[7] = 0f;
+        m[8] = sz;
+        m[9] = uz;
+        m[10] = -fz;
+        m[11] = 0f;
+        m[12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+        m[13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+        m[14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+        m[15] = 1f;
+    }
+
+    /**
+     * Sets a perspective projection matrix, like
+     * android.opengl.Matrix.perspectiveM.
+     *
+     * @param fovy
+     *            the vertical field of view, in degrees.
+     */
+    public static void setPerspective(float[] m, float fovy, float aspect,
+            float zNear, float zFar) {
+        float f = 1f / (float) Math.tan(fovy * (Math.PI / 360.0));
+        float rangeReciprocal = 1f / (zNear - zFar);
+        setIdentity(m);
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (zFar + zNear) * rangeReciprocal;
+        m[11] = -1f;
+        m[14] = 2f * zFar * zNear * rangeReciprocal;
+        m[15] = 0f;
+    }
+
+    /**
+     * Applies an affine matrix to count points of 3 floats, read from src
+     * and written to dst from their current positions. Positions are not
+     * moved, and dst may be src.
+     */
+    public static void transformPoints(float[] m, FloatBuffer src,
+            FloatBuffer dst, int count) {
+        float m0 = m[0], m1 = m[1], m2 = m[2];
+        float m4 = m[4], m5 = m[5], m6 = m[6];
+        float m8 = m[8], m9 = m[9], m10 = m[10];
+        float m12 = m[12], m13 = m[13], m14 = m[14];
+        int in = src.position();
+        int out = dst.position();
+        for (int i = 0; i < count; i++, in += 3, out += 3) {
+            float x = src.get(in);
+            float y = src.get(in + 1);
+            float z = src.get(in + 2);
+            dst.put(out, m0 * x + m4 * y + m8 * z + m12);
+            dst.put(out + 1, m1 * x + m5 * y + m9 * z + m13);
+            dst.put(out + 2, m2 * x + m6 * y + m10 * z + m14);
+        }
+    }
+
+    /**
+     * Applies an affine matrix to count points of 3 floats of an array.
+     */
+    public static void transformPoints(float[] m, float[] src, int srcOffset,
+            float[] dst, int dstOffset, int count) {
+        float m0 = m[0], m1 = m[1], m2 = m[2];
+        float m4 = m[4], m5 = m[5], m6 = m[6];
+        float m8 = m[8], m9 = m[9], m10 = m[10];
+        float m12 = m[12], m13 = m[13], m14 = m[14];
+        int end = srcOffset + count * 3;
+        for (int in = srcOffset, out = dstOffset; in < end; in += 3, out += 3) {
+            float x = src[in];
+            float y = src[in + 1];
+            float z = src[in + 2];
+            dst[out] = m0 * x + m4 * y + m8 * z + m12;
+            dst[out + 1] = m1 * x + m5 * y + m9 * z + m13;
+            dst[out + 2] = m2 * x + m6 * y + m10 * z + m14;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+/**
+ * Douglas-Peucker simplification of 3D polylines stored as x, y, z float
+ * triplets. The first and last vertices are always kept, and every removed
+ * vertex is within the tolerance of the simplified polyline.
+ *
+ * The recursion runs on an explicit stack, and the work arrays are kept
+ * between calls, so simplifying does not allocate once they are large
+ * enough. Pure Java, not thread safe.
+ */
+public class PolylineSimplifier {
+
+    private boolean[] mKeep = new boolean[0];
+    // Pairs of vertex indices delimiting the ranges left to simplify
+    private int[] mStack = new int[64];
+
+    /**
+     * Simplifies a polyline in place: the kept vertices are moved to the
+     * start of its range, in order.
+     *
+     * @param vertices
+     *            the polyline, 3 floats per vertex.
+     * @param offset
+     *            the index in vertices of the first float of the polyline.
+     * @param count
+     *            the number of vertices of the polyline.
+     * @param tolerance
+     *            the maximum distance between a removed vertex and the
+     *            simplified polyline.
+     * @return the number of vertices kept.
+     */
+    public int simplify(float[] vertices, int offset, int count, float tolerance) {
+        if (count <= 2) {
+            return count;
+        }
+        if (mKeep.length < count) {
+            mKeep = new boolean[count];
+        }
+        boolean[] keep = mKeep;
+        for (int i = 1; i < count - 1; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+        float tolerance2 = tolerance * tolerance;
+
+        int stackSize = 0;
+        stackSize = push(stackSize, 0, count - 1);
+        while (stackSize > 0) {
+            int last = mStack[--stackSize];
+            int first = mStack[--stackSize];
+            int farthest = -1;
+            float farthestDistance2 = tolerance2;
+            for (int i = first + 1; i < last; i++) {
+                float distance2 = getSegmentDistance2(vertices, offset + i * 3,
+                        offset + first * 3, offset + last * 3);
+                if (distance2 > farthestDistance2) {
+                    farthest = i;
+                    farthestDistance2 = distance2;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            if (farthest - first > 1) {
+                stackSize = push(stackSize, first, farthest);
+            }
+            if (last - farthest > 1) {
+                stackSize = push(stackSize, farthest, last);
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                if (kept != i) {
+                    System.arraycopy(vertices, offset + i * 3, vertices, offset
+                            + kept * 3, 3);
+                }
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private int push(int stackSize, int first, int last) {
+        if (stackSize + 2 > mStack.length) {
+            int[] stack = new int[mStack.length * 2];
+            System.arraycopy(mStack, 0, stack, 0, stackSize);
+            mStack = stack;
+        }
+        mStack[stackSize] = first;
+        mStack[stackSize + 1] = last;
+        return stackSize + 2;
+    }
+
+    /**
+     * @return the squared distance between the vertex at p and the segment
+     *         from the vertex at a to the vertex at b.
+     */
+    private static float getSegmentDistance2(float[] v, int p, int a, int b) {
+        float abX = v[b] - v[a];
+        float abY = v[b + 1] - v[a + 1];
+        float abZ = v[b + 2] - v[a + 2];
+        float apX = v[p] - v[a];
+        float apY = v[p + 1] - v[a + 1];
+        float apZ = v[p + 2] - v[a + 2];
+        float length2 = abX * abX + abY * abY + abZ * abZ;
+        float t = length2 > 0 ? (apX * abX + apY * abY + apZ * abZ) / length2 : 0;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        float dx = apX - t * abX;
+        float dy = apY - t * abY;
+        float dz = apZ - t * abZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
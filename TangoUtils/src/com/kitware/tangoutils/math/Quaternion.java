@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+/**
+ * Quaternion operations on float[4] arrays in the (x, y, z, w) order used by
+ * TangoPoseData. Pure Java, and none of them allocates.
+ */
+public final class Quaternion {
+
+    public static final int SIZE = 4;
+
+    // Below this angle cosine threshold, SLERP falls back to a normalized
+    // linear interpolation, to avoid dividing by sin(angle) close to 0
+    private static final float SLERP_LINEAR_THRESHOLD = 0.9995f;
+    private static final float NORMALIZED_TOLERANCE = 0.00001f;
+
+    private Quaternion() {
+    }
+
+    /**
+     * Normalizes q in place, unless it is already normalized or zero.
+     */
+    public static void normalize(float[] q) {
+        float mag2 = q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3];
+        if (Math.abs(mag2) > NORMALIZED_TOLERANCE
+                && Math.abs(mag2 - 1.0f) > NORMALIZED_TOLERANCE) {
+            float invMag = 1f / (float) Math.sqrt(mag2);
+            q[0] *= invMag;
+            q[1] *= invMag;
+            q[2] *= invMag;
+            q[3] *= invMag;
+        }
+    }
+
+    /**
+     * Writes the rotation matrix of a quaternion into the float[16] matrix,
+     * in column major order with no translation. The quaternion is normalized
+     * if needed.
+     */
+    public static void toMatrix(float x, float y, float z, float w,
+            float[] matrix) {
+        float mag2 = x * x + y * y + z * z + w * w;
+        if (Math.abs(mag2) > NORMALIZED_TOLERANCE
+                && Math.abs(mag2 - 1.0f) > NORMALIZED_TOLERANCE) {
+            float mag = (float) Math.sqrt(mag2);
+            x /= mag;
+            y /= mag;
+            z /= mag;
+            w /= mag;
+        }
+
+        float x2 = x * x;
+        float y2 = y * y;
+        float z2 = z * z;
+        float xy = x * y;
+        float xz = x * z;
+        float yz = y * z;
+        float wx = w * x;
+        float wy = w * y;
+        float wz = w * z;
+
+        matrix[0] = 1f - 2f * (y2 + z2);
+        matrix[4] = 2f * (xy - wz);
+        matrix[8] = 2f * (xz + wy);
+        matrix[12] = 0f;
+
+        matrix[1] = 2f * (xy + wz);
+        matrix[5] = 1f - 2f * (x2 + z2);
+        matrix[9] = 2f * (yz - wx);
+        matrix[13] = 0f;
+
+        matrix[2] = 2f * (xz - wy);
+        matrix[6] = 2f * (yz + wx);
+        matrix[10] = 1f - 2f * (x2 + y2);
+        matrix[14] = 0f;
+
+        matrix[3] = 0f;
+        matrix[7] = 0f;
+        matrix[11] = 0f;
+        matrix[15] = 1f;
+    }
+
+    public static void toMatrix(float[] q, float[] matrix) {
+        toMatrix(q[0], q[1], q[2], q[3], matrix);
+    }
+
+    /**
+     * result = a * b, the rotation b followed by the rotation a. The result
+     * may be one of the inputs.
+     */
+    public static void multiply(float[] result, float[] a, float[] b) {
+        float ax = a[0], ay = a[1], az = a[2], aw = a[3];
+        float bx = b[0], by = b[1], bz = b[2], bw = b[3];
+        result[0] = aw * bx + ax * bw + ay * bz - az * by;
+        result[1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions, along the
+     * shortest path. The result may be one of the inputs.
+     *
+     * @param t
+     *            0 for a, 1 for b.
+     */
+    public static void slerp(float[] result, float[] a, float[] b, float t) {
+        slerp(result, 0, a[0], a[1], a[2], a[3], b[0], b[1], b[2], b[3], t);
+    }
+
+    /**
+     * Same as {@link #slerp(float[], float[], float[], float)}, with the
+     * quaternions given by components, and the result written at an offset.
+     */
+    public static void slerp(float[] result, int offset, float ax, float ay,
+            float az, float aw, float bx, float by, float bz, float bw, float t) {
+        float cos = ax * bx + ay * by + az * bz + aw * bw;
+        // q and -q are the same rotation: take the shortest path
+        if (cos < 0f) {
+            cos = -cos;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+        float wa;
+        float wb;
+        if (cos > SLERP_LINEAR_THRESHOLD) {
+            wa = 1f - t;
+            wb = t;
+        } else {
+            float angle = (float) Math.acos(cos);
+            float invSin = 1f / (float) Math.sin(angle);
+            wa = (float) Math.sin((1f - t) * angle) * invSin;
+            wb = (float) Math.sin(t * angle) * invSin;
+        }
+        float x = wa * ax + wb * bx;
+        float y = wa * ay + wb * by;
+        float z = wa * az + wb * bz;
+        float w = wa * aw + wb * bw;
+        float invMag = 1f / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        result[offset] = x * invMag;
+        result[offset + 1] = y * invMag;
+        result[offset + 2] = z * invMag;
+        result[offset + 3] = w * invMag;
+    }
+}
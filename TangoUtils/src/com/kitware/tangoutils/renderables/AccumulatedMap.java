@@ -0,0 +1,648 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.renderables;
+
+import android.opengl.GLES20;
+
+import com.kitware.tangoutils.PointCloudFrame;
+import com.kitware.tangoutils.cloud.LongIntHashMap;
+import com.kitware.tangoutils.cloud.OctreeLod;
+import com.kitware.tangoutils.cloud.VoxelAccumulator;
+import com.kitware.tangoutils.math.Matrix4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Renderable} OpenGL showing every depth frame received so far, in
+ * world coordinates, so that the areas already scanned can be seen.
+ *
+ * Points are deduplicated on a voxel grid, keeping the first point falling
+ * into each voxel, and stored in spatial chunks. Each chunk has its own
+ * vertex buffer object, which only gets the points added since its last
+ * upload, so drawing a large map does not upload it again every frame. The
+ * storage of a chunk grows with the points it holds, so the many nearly
+ * empty chunks created by depth noise and far returns stay small.
+ *
+ * Each chunk is also the root of an {@link OctreeLod} octree: the first point
+ * falling into an empty cell of a level is stored as the representative of
+ * that level, in its own region of the chunk buffers. Every frame, chunks out
+ * of the view are skipped and the others are drawn down to the level their
+ * distance requires, within a point budget, so the frame time does not grow
+ * with the scanned area.
+ *
+ * Frames are added from the Tango callback thread, which owns the voxel
+ * grid and the chunks, and the map is drawn from the GL thread, which owns
+ * the buffer objects. They share no lock: after each frame, the producer
+ * publishes the chunks it changed through a triple buffer of snapshots, like
+ * {@link PointCloud}. A snapshot refers to the point arrays of the chunks
+ * with their point counts; the arrays are only appended to, and replaced
+ * rather than modified when they grow, so the GL thread uploads the points
+ * of a snapshot while the producer keeps adding points.
+ */
+public class AccumulatedMap extends Renderable {
+
+    /** Edge length of the voxels deduplicating the points, in meters */
+    public static final float DEFAULT_VOXEL_SIZE = 0.02f;
+    /** Edge length of the chunks, in voxels: 1 << CHUNK_SHIFT */
+    public static final int CHUNK_SHIFT = 6;
+    /** Number of octree levels of a chunk, the last one being the voxels */
+    public static final int LEVEL_COUNT = 4;
+    /** Maximum number of points per chunk */
+    public static final int MAX_CHUNK_POINTS = 16 * 1024;
+    /** Maximum number of points drawn per frame */
+    public static final int DEFAULT_POINT_BUDGET = 1000000;
+    /** Cells projected under this size, in pixels, are not refined */
+    public static final float MAX_SCREEN_ERROR = 2f;
+
+    // Maximum number of representatives per level. Level 0 has at most 8^3
+    // cells per chunk, and the last level takes all the remaining points.
+    private static final int[] LEVEL_CAPACITIES = { 512, 2048, 4096,
+            MAX_CHUNK_POINTS - 512 - 2048 - 4096 };
+    // Points a level gets room for with its first point, doubled as needed
+    private static final int INITIAL_LEVEL_CAPACITY = 64;
+    private static final int MAX_LEVEL_CAPACITY = LEVEL_CAPACITIES[LEVEL_COUNT - 1];
+
+    private static final int COORDS_PER_VERTEX = 3;
+    private static final int BYTES_PER_FLOAT = 4;
+    // Set on the middle snapshot index when the GL thread has not taken it
+    private static final int FRESH = 4;
+    private static final int SLOT_MASK = 3;
+
+    private static final String sVertexShaderCode = "uniform mat4 uMVPMatrix;"
+            + "attribute vec4 vPosition;" + "varying vec4 vColor;"
+            + "void main() {" + "gl_PointSize = 2.0;"
+            + "  gl_Position = uMVPMatrix * vPosition;"
+            + "  vColor = vec4(0.3, 0.3 + 0.2 * vPosition.y, 0.8, 1.0);" + "}";
+    private static final String sFragmentShaderCode = "precision mediump float;"
+            + "varying vec4 vColor;"
+            + "void main() {"
+            + "  gl_FragColor = vColor;" + "}";
+
+    /**
+     * Points of a region of the map, one array per octree level, allocated
+     * with the first point of the level and doubled when full. Producer
+     * thread only.
+     */
+    private static class Chunk {
+        final float[][] mLevelPoints = new float[LEVEL_COUNT][];
+        final int mIndex;
+        final int mX;
+        final int mY;
+        final int mZ;
+        final int[] mLevelCounts = new int[LEVEL_COUNT];
+        // Whether the chunk is in the touched or pending lists
+        boolean mTouched;
+        boolean mPending;
+
+        Chunk(int index, int x, int y, int z) {
+            mIndex = index;
+            mX = x;
+            mY = y;
+            mZ = z;
+        }
+    }
+
+    /**
+     * The chunks changed since the last snapshot taken by the GL thread, with
+     * their point arrays and counts at the time of the snapshot. A snapshot
+     * belongs to one thread at a time.
+     */
+    private static class Snapshot {
+        // Incremented by each clear of the map
+        int mGeneration;
+        int mChunkCount;
+        int mEntryCount;
+        int[] mChunkIndices = new int[16];
+        int[] mChunkCoordinates = new int[16 * 3];
+        float[][] mLevelPoints = new float[16 * LEVEL_COUNT][];
+        int[] mLevelCounts = new int[16 * LEVEL_COUNT];
+
+        void reset(int generation, int chunkCount) {
+            // Releases the arrays of the chunks of the previous use
+            Arrays.fill(mLevelPoints, 0, mEntryCount * LEVEL_COUNT, null);
+            mGeneration = generation;
+            mChunkCount = chunkCount;
+            mEntryCount = 0;
+        }
+
+        void add(Chunk chunk) {
+            if (mEntryCount == mChunkIndices.length) {
+                int capacity = mEntryCount * 2;
+                mChunkIndices = Arrays.copyOf(mChunkIndices, capacity);
+                mChunkCoordinates = Arrays.copyOf(mChunkCoordinates, capacity * 3);
+                mLevelPoints = Arrays.copyOf(mLevelPoints, capacity * LEVEL_COUNT);
+                mLevelCounts = Arrays.copyOf(mLevelCounts, capacity * LEVEL_COUNT);
+            }
+            int entry = mEntryCount++;
+            mChunkIndices[entry] = chunk.mIndex;
+            mChunkCoordinates[entry * 3] = chunk.mX;
+            mChunkCoordinates[entry * 3 + 1] = chunk.mY;
+            mChunkCoordinates[entry * 3 + 2] = chunk.mZ;
+            System.arraycopy(chunk.mLevelPoints, 0, mLevelPoints, entry
+                    * LEVEL_COUNT, LEVEL_COUNT);
+            System.arraycopy(chunk.mLevelCounts, 0, mLevelCounts, entry
+                    * LEVEL_COUNT, LEVEL_COUNT);
+        }
+    }
+
+    /**
+     * The points of a chunk as of the last snapshot, and the buffer object
+     * they are uploaded to. The buffer object holds the levels one after the
+     * other, each with the capacity of its array, and is reallocated when an
+     * array grew. Otherwise, only the points added since the last upload are
+     * uploaded. GL thread only.
+     */
+    private static class ChunkBuffer {
+        final float[][] mLevelPoints = new float[LEVEL_COUNT][];
+        final int[] mLevelCounts = new int[LEVEL_COUNT];
+        final int[] mVboOffsets = new int[LEVEL_COUNT];
+        final int[] mVboCapacities = new int[LEVEL_COUNT];
+        final int[] mUploadedCounts = new int[LEVEL_COUNT];
+        int mVbo;
+    }
+
+    private final float mVoxelSize;
+    private final float mInverseVoxelSize;
+    // Producer thread only
+    private final LongIntHashMap mVoxels = new LongIntHashMap(64 * 1024);
+    // Occupied cells of the octree levels above the voxels
+    private final LongIntHashMap[] mCells = new LongIntHashMap[LEVEL_COUNT - 1];
+    private final LongIntHashMap mChunkIndices = new LongIntHashMap();
+    private final ArrayList<Chunk> mChunks = new ArrayList<Chunk>();
+    // Chunks changed by the current frame, and since the last snapshot
+    // known to be taken
+    private final ArrayList<Chunk> mTouchedChunks = new ArrayList<Chunk>();
+    private final ArrayList<Chunk> mPendingChunks = new ArrayList<Chunk>();
+    private float[] mFramePoints = new float[0];
+    private int mGeneration;
+    private int mBackSnapshot = 0;
+    // Shared
+    private final Snapshot[] mSnapshots = { new Snapshot(), new Snapshot(),
+            new Snapshot() };
+    private final AtomicInteger mMiddleSnapshot = new AtomicInteger(1);
+    private final AtomicBoolean mClearRequested = new AtomicBoolean();
+    // Statistics of the latest frame, for the UI
+    private volatile int mPointCount;
+    private volatile int mChunkCount;
+    // GL thread only
+    private int mFrontSnapshot = 2;
+    private int mDrawnGeneration;
+    private boolean mUploadAll;
+    private final ArrayList<ChunkBuffer> mChunkBuffers = new ArrayList<ChunkBuffer>();
+    private final int[] mBufferHandle = new int[1];
+    // Staging of the uploads
+    private final FloatBuffer mUploadBuffer = ByteBuffer
+            .allocateDirect(MAX_LEVEL_CAPACITY * COORDS_PER_VERTEX * BYTES_PER_FLOAT)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final OctreeLod mLod;
+    private int mPointBudget = DEFAULT_POINT_BUDGET;
+    private int mViewportHeight = 1;
+    private int mDrawnPointCount;
+    // Selection inputs and output
+    private float[] mBounds = new float[0];
+    private int[] mSelectionCounts = new int[0];
+    private int[] mSelectionOffsets = new int[0];
+    private int[] mLevels = new int[0];
+    private int mProgram;
+    private int mPosHandle;
+    private int mMVPMatrixHandle;
+
+    public AccumulatedMap() {
+        this(DEFAULT_VOXEL_SIZE);
+    }
+
+    /**
+     * @param voxelSize
+     *            the edge length of the voxels, in meters. At most one point
+     *            is kept per voxel.
+     */
+    public AccumulatedMap(float voxelSize) {
+        mVoxelSize = voxelSize;
+        mInverseVoxelSize = 1f / voxelSize;
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = new LongIntHashMap();
+        }
+        mLod = new OctreeLod(voxelSize * (1 << (LEVEL_COUNT - 1)), LEVEL_COUNT);
+        Matrix4.setIdentity(getModelMatrix());
+    }
+
+    /**
+     * Sets the height of the view in pixels, which the level of detail
+     * depends on. To be called from onSurfaceChanged.
+     */
+    public void setViewportHeight(int viewportHeight) {
+        mViewportHeight = viewportHeight;
+    }
+
+    /**
+     * Sets the maximum number of points drawn per frame.
+     */
+    public void setPointBudget(int pointBudget) {
+        mPointBudget = pointBudget;
+    }
+
+    /**
+     * Adds the points of a depth frame to the map. To be called from a single
+     * thread.
+     *
+     * @param modelMatrix
+     *            the matrix transforming the frame to world coordinates, as
+     *            used to draw it with {@link PointCloud}.
+     * @return the number of points added, the others being already covered
+     *         by the map.
+     */
+    public int addPoints(PointCloudFrame frame, float[] modelMatrix) {
+        if (mClearRequested.compareAndSet(true, false)) {
+            removeAllPoints();
+        }
+        int count = frame.getPointCount();
+        if (mFramePoints.length < count * COORDS_PER_VERTEX) {
+            mFramePoints = new float[count * COORDS_PER_VERTEX];
+        }
+        FloatBuffer points = frame.getPoints().duplicate();
+        points.position(0);
+        points.get(mFramePoints, 0, count * COORDS_PER_VERTEX);
+        Matrix4.transformPoints(modelMatrix, mFramePoints, 0, mFramePoints, 0,
+                count);
+
+        int added = 0;
+        int range = VoxelAccumulator.COORDINATE_RANGE;
+        for (int i = 0; i < count * COORDS_PER_VERTEX; i += COORDS_PER_VERTEX) {
+            float x = mFramePoints[i];
+            float y = mFramePoints[i + 1];
+            float z = mFramePoints[i + 2];
+            float vx = (float) Math.floor(x * mInverseVoxelSize);
+            float vy = (float) Math.floor(y * mInverseVoxelSize);
+            float vz = (float) Math.floor(z * mInverseVoxelSize);
+            if (!(vx >= -range && vx < range && vy >= -range && vy < range
+                    && vz >= -range && vz < range)) {
+                continue;
+            }
+            int ix = (int) vx;
+            int iy = (int) vy;
+            int iz = (int) vz;
+            long voxelKey = VoxelAccumulator.packKey(ix, iy, iz);
+            if (mVoxels.get(voxelKey) != LongIntHashMap.NO_VALUE) {
+                continue;
+            }
+            Chunk chunk = getChunk(ix, iy, iz);
+            int level = chooseLevel(chunk, ix, iy, iz);
+            if (level < 0) {
+                continue;
+            }
+            mVoxels.putIfAbsent(voxelKey, 0);
+            float[] levelPoints = reserveLevelPoint(chunk, level);
+            int offset = chunk.mLevelCounts[level] * COORDS_PER_VERTEX;
+            levelPoints[offset] = x;
+            levelPoints[offset + 1] = y;
+            levelPoints[offset + 2] = z;
+            chunk.mLevelCounts[level]++;
+            if (!chunk.mTouched) {
+                chunk.mTouched = true;
+                mTouchedChunks.add(chunk);
+            }
+            added++;
+        }
+        mPointCount += added;
+        mChunkCount = mChunks.size();
+        publish();
+        return added;
+    }
+
+    /**
+     * Hands the chunks changed since the last snapshot taken by the GL
+     * thread to it, without waiting for it.
+     */
+    private void publish() {
+        for (int i = 0; i < mTouchedChunks.size(); i++) {
+            Chunk chunk = mTouchedChunks.get(i);
+            if (!chunk.mPending) {
+                chunk.mPending = true;
+                mPendingChunks.add(chunk);
+            }
+        }
+        Snapshot snapshot = mSnapshots[mBackSnapshot];
+        snapshot.reset(mGeneration, mChunks.size());
+        for (int i = 0; i < mPendingChunks.size(); i++) {
+            snapshot.add(mPendingChunks.get(i));
+        }
+
+        int previous = mMiddleSnapshot.getAndSet(mBackSnapshot | FRESH);
+        mBackSnapshot = previous & SLOT_MASK;
+        if ((previous & FRESH) == 0) {
+            // The GL thread took the previous snapshot, so only the chunks of
+            // this frame are left for it to see
+            for (int i = 0; i < mPendingChunks.size(); i++) {
+                mPendingChunks.get(i).mPending = false;
+            }
+            mPendingChunks.clear();
+            for (int i = 0; i < mTouchedChunks.size(); i++) {
+                Chunk chunk = mTouchedChunks.get(i);
+                chunk.mPending = true;
+                mPendingChunks.add(chunk);
+            }
+        }
+        for (int i = 0; i < mTouchedChunks.size(); i++) {
+            mTouchedChunks.get(i).mTouched = false;
+        }
+        mTouchedChunks.clear();
+    }
+
+    /**
+     * @return the coarsest level of a chunk whose cell containing a new voxel
+     *         has no representative yet, which is then marked as occupied, or
+     *         -1 if the chunk is full.
+     */
+    private int chooseLevel(Chunk chunk, int vx, int vy, int vz) {
+        for (int level = 0; level < LEVEL_COUNT - 1; level++) {
+            if (chunk.mLevelCounts[level] == LEVEL_CAPACITIES[level]) {
+                continue;
+            }
+            int shift = LEVEL_COUNT - 1 - level;
+            long key = VoxelAccumulator.packKey(vx >> shift, vy >> shift, vz >> shift);
+            if (mCells[level].putIfAbsent(key, 0) == LongIntHashMap.NO_VALUE) {
+                return level;
+            }
+        }
+        int last = LEVEL_COUNT - 1;
+        return chunk.mLevelCounts[last] < LEVEL_CAPACITIES[last] ? last : -1;
+    }
+
+    /**
+     * @return the array of a level of a chunk, grown if needed to hold one
+     *         more point. A grown array is a new one, since the GL thread may
+     *         still read the previous one.
+     */
+    private static float[] reserveLevelPoint(Chunk chunk, int level) {
+        float[] points = chunk.mLevelPoints[level];
+        int count = chunk.mLevelCounts[level];
+        if (points == null || count * COORDS_PER_VERTEX == points.length) {
+            int capacity = points == null ? INITIAL_LEVEL_CAPACITY : count * 2;
+            capacity = Math.min(capacity, LEVEL_CAPACITIES[level]);
+            float[] grown = new float[capacity * COORDS_PER_VERTEX];
+            if (points != null) {
+                System.arraycopy(points, 0, grown, 0, count * COORDS_PER_VERTEX);
+            }
+            chunk.mLevelPoints[level] = grown;
+            points = grown;
+        }
+        return points;
+    }
+
+    private Chunk getChunk(int vx, int vy, int vz) {
+        // Arithmetic shifts round down, so negative voxels get their own
+        // chunks
+        int x = vx >> CHUNK_SHIFT;
+        int y = vy >> CHUNK_SHIFT;
+        int z = vz >> CHUNK_SHIFT;
+        long key = VoxelAccumulator.packKey(x, y, z);
+        int index = mChunkIndices.putIfAbsent(key, mChunks.size());
+        if (index == LongIntHashMap.NO_VALUE) {
+            Chunk chunk = new Chunk(mChunks.size(), x, y, z);
+            mChunks.add(chunk);
+            return chunk;
+        }
+        return mChunks.get(index);
+    }
+
+    @Override
+    public void draw(float[] viewMatrix, float[] projectionMatrix) {
+        if (mProgram == 0) {
+            createProgram();
+        }
+        takeSnapshot();
+        int chunkCount = mChunkBuffers.size();
+        if (mUploadAll) {
+            for (int i = 0; i < chunkCount; i++) {
+                upload(i);
+            }
+            mUploadAll = false;
+        }
+        mLod.setView(viewMatrix, projectionMatrix, mViewportHeight);
+        mDrawnPointCount = mLod.select(chunkCount, mBounds, mSelectionCounts,
+                MAX_SCREEN_ERROR, mPointBudget, mLevels);
+
+        GLES20.glUseProgram(mProgram);
+        updateMvpMatrix(viewMatrix, projectionMatrix);
+        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
+        GLES20.glEnableVertexAttribArray(mPosHandle);
+        for (int i = 0; i < chunkCount; i++) {
+            if (mLevels[i] < 0) {
+                continue;
+            }
+            int counts = i * LEVEL_COUNT;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mChunkBuffers.get(i).mVbo);
+            GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
+                    GLES20.GL_FLOAT, false, 0, 0);
+            for (int level = 0; level <= mLevels[i]; level++) {
+                if (mSelectionCounts[counts + level] > 0) {
+                    GLES20.glDrawArrays(GLES20.GL_POINTS,
+                            mSelectionOffsets[counts + level],
+                            mSelectionCounts[counts + level]);
+                }
+            }
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Takes the latest snapshot, if the producer published one since the
+     * last draw, and uploads the new points of the chunks it lists.
+     */
+    private void takeSnapshot() {
+        if ((mMiddleSnapshot.get() & FRESH) == 0) {
+            return;
+        }
+        mFrontSnapshot = mMiddleSnapshot.getAndSet(mFrontSnapshot) & SLOT_MASK;
+        Snapshot snapshot = mSnapshots[mFrontSnapshot];
+        if (snapshot.mGeneration != mDrawnGeneration) {
+            deleteBuffers();
+            mDrawnGeneration = snapshot.mGeneration;
+        }
+        int chunkCount = snapshot.mChunkCount;
+        if (mLevels.length < chunkCount) {
+            int capacity = Math.max(chunkCount, mLevels.length * 2);
+            mBounds = Arrays.copyOf(mBounds, capacity * 6);
+            mSelectionCounts = Arrays.copyOf(mSelectionCounts, capacity * LEVEL_COUNT);
+            mSelectionOffsets = Arrays.copyOf(mSelectionOffsets, capacity * LEVEL_COUNT);
+            mLevels = new int[capacity];
+        }
+        while (mChunkBuffers.size() < chunkCount) {
+            mChunkBuffers.add(new ChunkBuffer());
+        }
+        float chunkSize = mVoxelSize * (1 << CHUNK_SHIFT);
+        for (int entry = 0; entry < snapshot.mEntryCount; entry++) {
+            int i = snapshot.mChunkIndices[entry];
+            ChunkBuffer buffer = mChunkBuffers.get(i);
+            System.arraycopy(snapshot.mLevelPoints, entry * LEVEL_COUNT,
+                    buffer.mLevelPoints, 0, LEVEL_COUNT);
+            System.arraycopy(snapshot.mLevelCounts, entry * LEVEL_COUNT,
+                    buffer.mLevelCounts, 0, LEVEL_COUNT);
+            int b = i * 6;
+            int c = entry * 3;
+            mBounds[b] = snapshot.mChunkCoordinates[c] * chunkSize;
+            mBounds[b + 1] = snapshot.mChunkCoordinates[c + 1] * chunkSize;
+            mBounds[b + 2] = snapshot.mChunkCoordinates[c + 2] * chunkSize;
+            mBounds[b + 3] = mBounds[b] + chunkSize;
+            mBounds[b + 4] = mBounds[b + 1] + chunkSize;
+            mBounds[b + 5] = mBounds[b + 2] + chunkSize;
+            upload(i);
+        }
+    }
+
+    /**
+     * Uploads the points added to each level of a chunk since its last
+     * upload, and updates its selection inputs. The buffer is (re)allocated,
+     * and all the points uploaded, when it is created or when a level
+     * outgrew its region.
+     */
+    private void upload(int index) {
+        ChunkBuffer chunk = mChunkBuffers.get(index);
+        boolean layoutChanged = chunk.mVbo == 0;
+        for (int level = 0; level < LEVEL_COUNT && !layoutChanged; level++) {
+            layoutChanged = getLevelCapacity(chunk, level) != chunk.mVboCapacities[level];
+        }
+        if (chunk.mVbo == 0) {
+            GLES20.glGenBuffers(1, mBufferHandle, 0);
+            chunk.mVbo = mBufferHandle[0];
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, chunk.mVbo);
+        if (layoutChanged) {
+            int capacity = 0;
+            for (int level = 0; level < LEVEL_COUNT; level++) {
+                chunk.mVboOffsets[level] = capacity;
+                chunk.mVboCapacities[level] = getLevelCapacity(chunk, level);
+                chunk.mUploadedCounts[level] = 0;
+                capacity += chunk.mVboCapacities[level];
+            }
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, capacity
+                    * COORDS_PER_VERTEX * BYTES_PER_FLOAT, null,
+                    GLES20.GL_DYNAMIC_DRAW);
+        }
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            int uploaded = chunk.mUploadedCounts[level];
+            int count = chunk.mLevelCounts[level];
+            if (uploaded == count) {
+                continue;
+            }
+            mUploadBuffer.clear();
+            mUploadBuffer.put(chunk.mLevelPoints[level], uploaded
+                    * COORDS_PER_VERTEX, (count - uploaded) * COORDS_PER_VERTEX);
+            mUploadBuffer.flip();
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER,
+                    (chunk.mVboOffsets[level] + uploaded) * COORDS_PER_VERTEX
+                            * BYTES_PER_FLOAT, mUploadBuffer.remaining()
+                            * BYTES_PER_FLOAT, mUploadBuffer);
+            chunk.mUploadedCounts[level] = count;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        System.arraycopy(chunk.mUploadedCounts, 0, mSelectionCounts, index
+                * LEVEL_COUNT, LEVEL_COUNT);
+        System.arraycopy(chunk.mVboOffsets, 0, mSelectionOffsets, index
+                * LEVEL_COUNT, LEVEL_COUNT);
+    }
+
+    private static int getLevelCapacity(ChunkBuffer chunk, int level) {
+        float[] points = chunk.mLevelPoints[level];
+        return points == null ? 0 : points.length / COORDS_PER_VERTEX;
+    }
+
+    private void deleteBuffers() {
+        for (ChunkBuffer chunk : mChunkBuffers) {
+            if (chunk.mVbo != 0) {
+                mBufferHandle[0] = chunk.mVbo;
+                GLES20.glDeleteBuffers(1, mBufferHandle, 0);
+            }
+        }
+        mChunkBuffers.clear();
+        mDrawnPointCount = 0;
+    }
+
+    private void createProgram() {
+        RenderUtils.Program program = RenderUtils.getProgram(sVertexShaderCode,
+                sFragmentShaderCode);
+        mProgram = program.getHandle();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+    }
+
+    /**
+     * Forgets the GL objects, which are lost with the GL context, so that they
+     * are created again and all the points uploaded at the next draw. To be
+     * called from onSurfaceCreated.
+     */
+    public void onContextLost() {
+        mProgram = 0;
+        for (ChunkBuffer chunk : mChunkBuffers) {
+            chunk.mVbo = 0;
+        }
+        mUploadAll = true;
+    }
+
+    /**
+     * Removes all the points, for instance when a new recording starts. Can
+     * be called from any thread: the map is cleared by the next frame added,
+     * and its buffers deleted by the draw showing that frame.
+     */
+    public void clear() {
+        mClearRequested.set(true);
+    }
+
+    /**
+     * Removes the points from the producer state, the next snapshot telling
+     * the GL thread to delete its buffers.
+     */
+    private void removeAllPoints() {
+        mChunks.clear();
+        mChunkIndices.clear();
+        mVoxels.clear();
+        for (LongIntHashMap cells : mCells) {
+            cells.clear();
+        }
+        mTouchedChunks.clear();
+        mPendingChunks.clear();
+        mPointCount = 0;
+        mGeneration++;
+    }
+
+    /**
+     * @return the number of points of the map, as of the last frame added.
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return the number of points drawn by the last frame.
+     */
+    public int getDrawnPointCount() {
+        return mDrawnPointCount;
+    }
+
+    /**
+     * @return the number of chunks of the map, as of the last frame added.
+     */
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+}
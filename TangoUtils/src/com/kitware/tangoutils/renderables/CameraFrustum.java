@@ -97,15 +97,13 @@ public class CameraFrustum extends Renderable {
         mColorBuffer.put(mColors);
         mColorBuffer.position(0);
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program and its locations
+        RenderUtils.Program program = RenderUtils.getProgram(sVertexShaderCode,
                 sFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mProgram = program.getHandle();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mColorHandle = program.getAttribLocation("aColor");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
     }
 
     @Override
@@ -118,19 +116,16 @@ public class CameraFrustum extends Renderable {
         updateMvpMatrix(viewMatrix, projectionMatrix);
 
         // Load vertex attribute data
-        mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
         GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
                 GLES20.GL_FLOAT, false, 0, mVertexBuffer);
         GLES20.glEnableVertexAttribArray(mPosHandle);
 
         // Load color attribute data
-        mColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
         GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
                 0, mColorBuffer);
         GLES20.glEnableVertexAttribArray(mColorHandle);
 
         // Draw the CameraFrustum
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
         GLES20.glLineWidth(1);
         GLES20.glDrawArrays(GLES20.GL_LINES, 0, 16);
@@ -16,20 +16,35 @@
 
 package com.kitware.tangoutils.renderables;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
+import com.kitware.tangoutils.PointCloudFrame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * {@link Renderable} OpenGL showing a PointCloud obtained from Tango XyzIj
  * data. The point count can vary over as the information is updated.
+ *
+ * The points are drawn from a vertex buffer object. A new frame is streamed
+ * into it once, orphaning the previous storage so that the upload does not
+ * wait for draws still using it, and redraws of the same frame do not upload
+ * anything.
+ *
+ * Frames go from the Tango thread to the GL thread through a triple buffer
+ * without locks: the producer fills its own slot and swaps it with the
+ * middle one atomically, and the GL thread swaps its slot with the middle
+ * one when a fresh frame is there. Neither thread ever waits for the other,
+ * and the GL thread always gets the latest frame.
  */
 public class PointCloud extends Renderable {
 
     private static final int COORDS_PER_VERTEX = 3;
+    private static final int BYTES_PER_FLOAT = 4;
+    // Set on the middle slot index when it holds a frame not drawn yet
+    private static final int FRESH = 4;
+    private static final int SLOT_MASK = 3;
 
     private static final String sVertexShaderCode = "uniform mat4 uMVPMatrix;"
             + "attribute vec4 vPosition;" + "varying vec4 vColor;"
@@ -41,64 +56,132 @@ public class PointCloud extends Renderable {
             + "void main() {"
             + "  gl_FragColor = vec4(vColor);" + "}";
 
-    private static final int BYTES_PER_FLOAT = 4;
-    private static final int POINT_TO_XYZ = 3;
-    private FloatBuffer mVertexBuffer;
-    private final int mProgram;
+    /**
+     * A frame and the model matrix it is drawn with. A slot belongs to one
+     * thread at a time.
+     */
+    private static class Slot {
+        PointCloudFrame mFrame;
+        final float[] mModelMatrix = new float[16];
+    }
+
+    private final Slot[] mSlots = { new Slot(), new Slot(), new Slot() };
+    private final AtomicInteger mMiddleSlot = new AtomicInteger(1);
+    // Tango thread only
+    private int mBackSlot = 0;
+    // GL thread only
+    private int mFrontSlot = 2;
+    private int mDrawnPointCount;
+    private final int mMaxBytes;
+    private final int[] mBufferHandle = new int[1];
+    private int mVbo;
+    private int mProgram;
     private int mPosHandle;
     private int mMVPMatrixHandle;
-    private int mPointCount;
-    private float mAverageZ;
+    // Statistics of the latest frame, for the UI
+    private volatile int mPointCount;
+    private volatile float mAverageZ;
 
+    /**
+     * Can be created without a GL context: the GL objects are created by the
+     * first draw.
+     */
     public PointCloud(int maxDepthPoints) {
         mAverageZ = 0;
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
-                sFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mMaxBytes = maxDepthPoints * COORDS_PER_VERTEX * BYTES_PER_FLOAT;
         Matrix.setIdentityM(getModelMatrix(), 0);
-        mVertexBuffer = ByteBuffer
-                .allocateDirect(maxDepthPoints * BYTES_PER_FLOAT * POINT_TO_XYZ)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
     }
 
-    public synchronized void UpdatePoints(byte[] byteArray, int pointCount) {
-        FloatBuffer mPointCloudFloatBuffer;
-        mPointCloudFloatBuffer = ByteBuffer.wrap(byteArray)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mPointCount = pointCount;
-        mVertexBuffer.clear();
-        mVertexBuffer.position(0);
-        mVertexBuffer.put(mPointCloudFloatBuffer);
-        float totalZ = 0;
-        for (int i = 0; i < mPointCloudFloatBuffer.capacity() - 3; i = i + 3) {
-            totalZ = totalZ + mPointCloudFloatBuffer.get(i + 2);
+    /**
+     * Shows a new depth frame. The frame is retained until it is uploaded by
+     * the next draw, or replaced by a newer frame. To be called from a single
+     * thread.
+     *
+     * @param modelMatrix
+     *            the model matrix to draw the frame with.
+     */
+    public void UpdatePoints(PointCloudFrame frame, float[] modelMatrix) {
+        Slot slot = mSlots[mBackSlot];
+        frame.retain();
+        slot.mFrame = frame;
+        System.arraycopy(modelMatrix, 0, slot.mModelMatrix, 0, 16);
+        mPointCount = frame.getPointCount();
+        mAverageZ = frame.getAverageZ();
+
+        int previous = mMiddleSlot.getAndSet(mBackSlot | FRESH);
+        mBackSlot = previous & SLOT_MASK;
+        // A frame the GL thread did not take in time is dropped
+        Slot dropped = mSlots[mBackSlot];
+        if (dropped.mFrame != null) {
+            dropped.mFrame.release();
+            dropped.mFrame = null;
         }
-        mAverageZ = totalZ / mPointCount;
     }
 
     @Override
-    public synchronized void draw(float[] viewMatrix, float[] projectionMatrix) {
-        if (mPointCount > 0) {
-            mVertexBuffer.position(0);
+    public void draw(float[] viewMatrix, float[] projectionMatrix) {
+        if (mProgram == 0) {
+            // Get the shared program and its locations
+            RenderUtils.Program program = RenderUtils.getProgram(
+                    sVertexShaderCode, sFragmentShaderCode);
+            mProgram = program.getHandle();
+            mPosHandle = program.getAttribLocation("vPosition");
+            mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+        }
+        if ((mMiddleSlot.get() & FRESH) != 0) {
+            mFrontSlot = mMiddleSlot.getAndSet(mFrontSlot) & SLOT_MASK;
+            Slot slot = mSlots[mFrontSlot];
+            upload(slot.mFrame);
+            mDrawnPointCount = slot.mFrame.getPointCount();
+            copyModelMatrix(slot.mModelMatrix);
+            slot.mFrame.release();
+            slot.mFrame = null;
+        }
+        if (mDrawnPointCount > 0) {
             GLES20.glUseProgram(mProgram);
             updateMvpMatrix(viewMatrix, projectionMatrix);
-            mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo);
             GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
-                    GLES20.GL_FLOAT, false, 0, mVertexBuffer);
+                    GLES20.GL_FLOAT, false, 0, 0);
             GLES20.glEnableVertexAttribArray(mPosHandle);
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram,
-                    "uMVPMatrix");
             GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false,
                     getMvpMatrix(), 0);
-            GLES20.glDrawArrays(GLES20.GL_POINTS, 0, mPointCount);
+            GLES20.glDrawArrays(GLES20.GL_POINTS, 0, mDrawnPointCount);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
         }
     }
 
+    /**
+     * Streams the points of a frame to the vertex buffer object, creating it
+     * on the first upload.
+     */
+    private void upload(PointCloudFrame frame) {
+        if (mVbo == 0) {
+            GLES20.glGenBuffers(1, mBufferHandle, 0);
+            mVbo = mBufferHandle[0];
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo);
+        // Orphans the storage the previous frame may still be drawn from
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mMaxBytes, null,
+                GLES20.GL_STREAM_DRAW);
+        int bytes = frame.getPointCount() * COORDS_PER_VERTEX * BYTES_PER_FLOAT;
+        if (bytes > 0) {
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes,
+                    frame.getPoints().duplicate());
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Forgets the GL objects, which are lost with the GL context. The points
+     * show again with the next frame. To be called from onSurfaceCreated.
+     */
+    public void onContextLost() {
+        mProgram = 0;
+        mVbo = 0;
+        mDrawnPointCount = 0;
+    }
+
     public float getAverageZ() {
         return mAverageZ;
     }
@@ -17,12 +17,110 @@
 package com.kitware.tangoutils.renderables;
 
 import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashMap;
 
 /**
  * Static functions used by Renderer classes in Tango Java samples.
+ *
+ * Programs are shared through a cache keyed by their shader sources: each
+ * program is compiled and linked once per GL context, and its attribute and
+ * uniform locations are looked up once. The cache belongs to the GL thread,
+ * and must be reset by {@link #onContextCreated()} when a new context is
+ * created, since the programs of the previous one are gone.
  */
 public class RenderUtils {
 
+    private static final String TAG = RenderUtils.class.getSimpleName();
+
+    private static final HashMap<String, Program> sPrograms = new HashMap<String, Program>();
+
+    /**
+     * A linked program of the current GL context, with its locations.
+     */
+    public static class Program {
+        private final int mHandle;
+        private final HashMap<String, Integer> mLocations = new HashMap<String, Integer>();
+
+        Program(int handle) {
+            mHandle = handle;
+        }
+
+        public int getHandle() {
+            return mHandle;
+        }
+
+        /**
+         * @return the location of an attribute, looked up on the first call
+         *         only. Renderables should keep it rather than call this
+         *         while drawing.
+         */
+        public int getAttribLocation(String name) {
+            Integer location = mLocations.get(name);
+            if (location == null) {
+                location = GLES20.glGetAttribLocation(mHandle, name);
+                mLocations.put(name, location);
+            }
+            return location;
+        }
+
+        /**
+         * @return the location of a uniform, looked up on the first call only.
+         */
+        public int getUniformLocation(String name) {
+            // Attributes and uniforms share the GLSL namespace, so one map
+            // holds both
+            Integer location = mLocations.get(name);
+            if (location == null) {
+                location = GLES20.glGetUniformLocation(mHandle, name);
+                mLocations.put(name, location);
+            }
+            return location;
+        }
+    }
+
+    /**
+     * Gets the program made of two shaders from the cache, compiling and
+     * linking it if this context does not have it yet.
+     */
+    public static Program getProgram(String vertexShaderCode,
+            String fragmentShaderCode) {
+        String key = vertexShaderCode + '\0' + fragmentShaderCode;
+        Program program = sPrograms.get(key);
+        if (program == null) {
+            int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER,
+                    vertexShaderCode);
+            int fragShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
+                    fragmentShaderCode);
+            int handle = GLES20.glCreateProgram();
+            GLES20.glAttachShader(handle, vertexShader);
+            GLES20.glAttachShader(handle, fragShader);
+            GLES20.glLinkProgram(handle);
+            int[] status = new int[1];
+            GLES20.glGetProgramiv(handle, GLES20.GL_LINK_STATUS, status, 0);
+            if (status[0] != GLES20.GL_TRUE) {
+                Log.e(TAG, "Could not link program: "
+                        + GLES20.glGetProgramInfoLog(handle));
+            }
+            // The program keeps the shaders it was linked with
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(fragShader);
+            program = new Program(handle);
+            sPrograms.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Forgets the cached programs, which were lost with the previous GL
+     * context. To be called from onSurfaceCreated, before the renderables get
+     * their programs.
+     */
+    public static void onContextCreated() {
+        sPrograms.clear();
+    }
+
     /**
      * Creates a vertex or fragment shader.
      * 
@@ -39,6 +137,12 @@ public class RenderUtils {
         // Compile the shader from source code
         GLES20.glShaderSource(shader, shaderCode);
         GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not compile shader: "
+                    + GLES20.glGetShaderInfoLog(shader));
+        }
 
         return shader;
     }
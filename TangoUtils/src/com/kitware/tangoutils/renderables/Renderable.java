@@ -16,7 +16,7 @@
 
 package com.kitware.tangoutils.renderables;
 
-import android.opengl.Matrix;
+import com.kitware.tangoutils.math.Matrix4;
 
 /**
  * Base class for all self-drawing OpenGL objects used in Tango Java examples.
@@ -43,10 +43,8 @@ public abstract class Renderable {
             float[] projectionMatrix) {
         // Compose the model, view, and projection matrices into a single mvp
         // matrix
-        Matrix.setIdentityM(mMvMatrix, 0);
-        Matrix.setIdentityM(mMvpMatrix, 0);
-        Matrix.multiplyMM(mMvMatrix, 0, viewMatrix, 0, mModelMatrix, 0);
-        Matrix.multiplyMM(mMvpMatrix, 0, projectionMatrix, 0, mMvMatrix, 0);
+        Matrix4.multiplyAffine(mMvMatrix, viewMatrix, mModelMatrix);
+        Matrix4.multiply(mMvpMatrix, projectionMatrix, mMvMatrix);
     }
 
     public float[] getModelMatrix() {
@@ -57,6 +55,14 @@ public abstract class Renderable {
         mModelMatrix = modelMatrix;
     }
 
+    /**
+     * Copies a matrix into the model matrix, so that the MVP matrix is never
+     * computed from a partially written model matrix.
+     */
+    public synchronized void copyModelMatrix(float[] modelMatrix) {
+        System.arraycopy(modelMatrix, 0, mModelMatrix, 0, 16);
+    }
+
     public float[] getMvMatrix() {
         return mMvMatrix;
     }
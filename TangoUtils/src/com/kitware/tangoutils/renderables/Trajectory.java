@@ -16,165 +16,476 @@
 
 package com.kitware.tangoutils.renderables;
 
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.kitware.tangoutils.math.PolylineSimplifier;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-
-import android.opengl.GLES20;
-import android.opengl.Matrix;
-import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link Renderable} OpenGL object showing the Trajectory of the Project Tango
  * device in 3D space. Points are added when the trajectory is updated by
  * passing translation data obtained from Tango Pose Data.
+ *
+ * The whole path is kept, in fixed-size chunks each drawn from its own vertex
+ * buffer object. New points go to a last, raw chunk. When it is full, it is
+ * simplified with Douglas-Peucker and its vertices are appended to the older
+ * chunks, so only the appended vertices are uploaded. When the older chunks
+ * reach the vertex budget, they are simplified again with twice the
+ * tolerance, so memory and draw cost stay bounded however long the path is,
+ * at the price of the precision of its older parts.
+ *
+ * The path is updated from the Tango callback thread, which owns the chunks,
+ * and drawn from the GL thread, which owns the buffer objects. They share no
+ * lock: after each new point, the producer publishes the vertex arrays of the
+ * chunks with their vertex counts through a triple buffer of snapshots, like
+ * {@link AccumulatedMap}. Published vertices are never modified: the arrays
+ * are only appended to, and the simplifications write new ones, which the GL
+ * thread uploads from the start.
  */
 public class Trajectory extends Renderable {
 
+    /** Number of vertices per chunk, the size of its buffer object */
+    public static final int CHUNK_VERTICES = 1024;
+    /** Default maximum number of vertices of the path */
+    public static final int DEFAULT_MAX_VERTICES = 32 * CHUNK_VERTICES;
+    /** Tolerance of the first simplifications, in meters */
+    public static final float INITIAL_TOLERANCE = 0.01f;
+
     private static final int COORDS_PER_VERTEX = 3;
     private static final float MIN_DISTANCE_CHECK = 0.025f;
-
-    /** Note: due to resetPath() logic, keep this as a multiple of 9 **/
-    private static final int MAX_VERTICES = 9000;
     private static final int BYTES_PER_FLOAT = 4;
-    private static int mTrajectoryCount = 0;
+    private static final int CHUNK_FLOATS = CHUNK_VERTICES * COORDS_PER_VERTEX;
+    private static final int CHUNK_BYTES = CHUNK_FLOATS * BYTES_PER_FLOAT;
+    // Set on the middle snapshot index when the GL thread has not taken it
+    private static final int FRESH = 4;
+    private static final int SLOT_MASK = 3;
 
-    private static final String TAG = Trajectory.class.getSimpleName();
-    private String mVertexShaderCode = "uniform mat4 uMVPMatrix;"
+    private static final String sVertexShaderCode = "uniform mat4 uMVPMatrix;"
             + "attribute vec4 vPosition;" + "uniform vec4 aColor;"
             + "varying vec4 vColor;" + "void main() {" + "gl_PointSize = 5.0;"
             + "vColor=aColor;" + "gl_Position = uMVPMatrix * vPosition;" + "}";
-    private String mFragmentShaderCode = "precision mediump float;"
+    private static final String sFragmentShaderCode = "precision mediump float;"
             + "varying vec4 vColor;" + "void main() {"
             + "gl_FragColor = vColor;" + "}";
-    private FloatBuffer mVertexBuffer;
-    private float[] mColor = { 0.22f, 0.28f, 0.67f, 1.0f };
-    private final int mProgram;
+
+    /**
+     * Consecutive vertices of the path. Each chunk starts with the last vertex
+     * of the previous one, so that drawing them as separate line strips draws
+     * a continuous path. Producer thread only.
+     */
+    private static class Chunk {
+        final float[] mVertices = new float[CHUNK_FLOATS];
+        int mVertexCount;
+    }
+
+    /**
+     * The vertex arrays of all the chunks, raw chunk last, with their vertex
+     * counts at the time of the snapshot. A snapshot belongs to one thread
+     * at a time.
+     */
+    private static class Snapshot {
+        int mChunkCount;
+        float[][] mVertices = new float[8][];
+        int[] mVertexCounts = new int[8];
+
+        void reset() {
+            // Releases the arrays of the chunks of the previous use
+            Arrays.fill(mVertices, 0, mChunkCount, null);
+            mChunkCount = 0;
+        }
+
+        void add(Chunk chunk) {
+            if (mChunkCount == mVertices.length) {
+                mVertices = Arrays.copyOf(mVertices, mChunkCount * 2);
+                mVertexCounts = Arrays.copyOf(mVertexCounts, mChunkCount * 2);
+            }
+            mVertices[mChunkCount] = chunk.mVertices;
+            mVertexCounts[mChunkCount] = chunk.mVertexCount;
+            mChunkCount++;
+        }
+    }
+
+    /**
+     * The vertices of a chunk as of the last snapshot, and the buffer object
+     * they are uploaded to. A buffer object holds a whole chunk, so it is
+     * kept for the chunk replacing it at the same index. GL thread only.
+     */
+    private static class ChunkBuffer {
+        float[] mVertices;
+        int mVertexCount;
+        int mUploadedCount;
+        int mVbo;
+    }
+
+    // Producer thread only. Simplified chunks, oldest first.
+    private final ArrayList<Chunk> mChunks = new ArrayList<Chunk>();
+    private Chunk mRawChunk = new Chunk();
+    private final PolylineSimplifier mSimplifier = new PolylineSimplifier();
+    private final int mMaxVertices;
+    private float mTolerance = INITIAL_TOLERANCE;
+    private int mSimplifiedVertexCount;
+    private float[] mSimplifiedVertices = new float[CHUNK_FLOATS];
+    private int mBackSnapshot = 0;
+    // Shared
+    private final Snapshot[] mSnapshots = { new Snapshot(), new Snapshot(),
+            new Snapshot() };
+    private final AtomicInteger mMiddleSnapshot = new AtomicInteger(1);
+    private final AtomicBoolean mClearRequested = new AtomicBoolean();
+    // Statistics of the latest point, for the UI
+    private volatile int mVertexCount;
+    private volatile float mPublishedTolerance = INITIAL_TOLERANCE;
+    // GL thread only
+    private int mFrontSnapshot = 2;
+    private final ArrayList<ChunkBuffer> mChunkBuffers = new ArrayList<ChunkBuffer>();
+    private final FloatBuffer mUploadBuffer = ByteBuffer
+            .allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    private final int[] mBufferHandle = new int[1];
+    private float[] mColor;
+    private int mProgram;
     private int mPosHandle;
     private int mMVPMatrixHandle;
     private int mColorHandle;
     private int mLineWidth;
 
     public Trajectory(int lineWidth) {
-        mLineWidth = lineWidth;
-        // Reset the model matrix to the identity
-        Matrix.setIdentityM(getModelMatrix(), 0);
-
-        // Allocate a vertex buffer
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
-        vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
-
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                mVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
-                mFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        this(lineWidth, new float[] { 0.22f, 0.28f, 0.67f, 1.0f });
     }
 
     // float[] color should contain only 4 elements.
     public Trajectory(int lineWidth, float[] color) {
+        this(lineWidth, color, DEFAULT_MAX_VERTICES);
+    }
+
+    /**
+     * Can be created without a GL context: the GL objects are created by the
+     * first draw.
+     *
+     * @param maxVertices
+     *            the vertex budget of the path, at least a few chunks.
+     */
+    public Trajectory(int lineWidth, float[] color, int maxVertices) {
+        if (maxVertices < 4 * CHUNK_VERTICES) {
+            throw new IllegalArgumentException("Vertex budget too small: "
+                    + maxVertices);
+        }
         mLineWidth = lineWidth;
         mColor = color;
+        mMaxVertices = maxVertices;
         // Reset the model matrix to the identity
         Matrix.setIdentityM(getModelMatrix(), 0);
+    }
 
-        // Allocate a vertex buffer
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
-        vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
+    /**
+     * Adds a position of the device to the path. To be called from a single
+     * thread, with the translation of a pose in the start of service frame.
+     */
+    public void updateTrajectory(float[] translation) {
+        addPoint(translation[0], translation[2], -translation[1]);
+    }
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                mVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
-                mFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+    /**
+     * Adds a position of the device to the path, from the translation of a
+     * TangoPoseData, without converting it to floats first.
+     */
+    public void updateTrajectory(double[] translation) {
+        addPoint((float) translation[0], (float) translation[2],
+                (float) -translation[1]);
     }
 
-    public void updateTrajectory(float[] translation) {
-        mVertexBuffer.position(mTrajectoryCount * 3);
-        if (((mTrajectoryCount + 1) * 3) >= MAX_VERTICES) {
-            Log.w(TAG, "Clearing float buffer");
-            resetPath();
+    private void addPoint(float x, float y, float z) {
+        if (mClearRequested.compareAndSet(true, false)) {
+            removeAllPoints();
         }
-        float dx = 0, dy = 0, dz = 0;
-        try {
-            dx = mVertexBuffer.get(mVertexBuffer.position() - 3)
-                    - translation[0];
-            dy = mVertexBuffer.get(mVertexBuffer.position() - 2)
-                    - translation[2];
-            dz = mVertexBuffer.get(mVertexBuffer.position() - 1)
-                    - (-translation[1]);
-        } catch (IndexOutOfBoundsException e) {
-            mVertexBuffer.put(new float[] { translation[0], translation[2],
-                    -translation[1] });
-            mTrajectoryCount++;
+        Chunk chunk = mRawChunk;
+        int count = chunk.mVertexCount;
+        if (count > 0) {
+            int last = (count - 1) * COORDS_PER_VERTEX;
+            float dx = chunk.mVertices[last] - x;
+            float dy = chunk.mVertices[last + 1] - y;
+            float dz = chunk.mVertices[last + 2] - z;
+            if (dx * dx + dy * dy + dz * dz <= MIN_DISTANCE_CHECK
+                    * MIN_DISTANCE_CHECK) {
+                return;
+            }
+            if (count == CHUNK_VERTICES) {
+                simplifyRawChunk();
+                chunk = mRawChunk;
+                count = chunk.mVertexCount;
+            }
         }
-        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
-        if (distance > MIN_DISTANCE_CHECK) {
-            mVertexBuffer.put(new float[] { translation[0], translation[2],
-                    -translation[1] });
-            mTrajectoryCount++;
+        int v = count * COORDS_PER_VERTEX;
+        chunk.mVertices[v] = x;
+        chunk.mVertices[v + 1] = y;
+        chunk.mVertices[v + 2] = z;
+        chunk.mVertexCount = count + 1;
+        publish();
+    }
+
+    /**
+     * Hands the vertex arrays and counts of all the chunks to the GL thread,
+     * without waiting for it.
+     */
+    private void publish() {
+        Snapshot snapshot = mSnapshots[mBackSnapshot];
+        snapshot.reset();
+        for (int i = 0; i < mChunks.size(); i++) {
+            snapshot.add(mChunks.get(i));
         }
+        snapshot.add(mRawChunk);
+        mBackSnapshot = mMiddleSnapshot.getAndSet(mBackSnapshot | FRESH)
+                & SLOT_MASK;
+
+        int rawCount = mRawChunk.mVertexCount;
+        // The raw chunk starts with the last simplified vertex
+        mVertexCount = mSimplifiedVertexCount
+                + (mChunks.isEmpty() ? rawCount : rawCount - 1);
+        mPublishedTolerance = mTolerance;
     }
 
-    public void resetPath() {
-        int currentPosition = mVertexBuffer.position();
-        int pointsToGet = (MAX_VERTICES / 3);
-        mVertexBuffer.position(currentPosition - pointsToGet);
+    /**
+     * Moves the simplified vertices of the full raw chunk to the simplified
+     * chunks, and starts a new raw chunk from its last vertex. The GL thread
+     * may still read the full chunk, so it is simplified in a copy.
+     */
+    private void simplifyRawChunk() {
+        Chunk raw = mRawChunk;
+        float[] vertices = reserveSimplifiedVertices(raw.mVertexCount);
+        System.arraycopy(raw.mVertices, 0, vertices, 0, raw.mVertexCount
+                * COORDS_PER_VERTEX);
+        int kept = mSimplifier.simplify(vertices, 0, raw.mVertexCount,
+                mTolerance);
+        // The first vertex is already the last simplified one
+        appendSimplified(vertices, mChunks.isEmpty() ? 0 : 1, kept);
+        Chunk next = new Chunk();
+        System.arraycopy(vertices, (kept - 1) * COORDS_PER_VERTEX,
+                next.mVertices, 0, COORDS_PER_VERTEX);
+        next.mVertexCount = 1;
+        mRawChunk = next;
+        if (mSimplifiedVertexCount > mMaxVertices - CHUNK_VERTICES) {
+            compact();
+        }
+    }
 
-        float[] tail = new float[pointsToGet];
-        mVertexBuffer.get(tail, 0, pointsToGet);
+    /**
+     * Simplifies the whole simplified path again, with a larger tolerance,
+     * until it holds at most half of the vertex budget, and repacks it in as
+     * few new chunks as possible.
+     */
+    private void compact() {
+        float[] vertices = reserveSimplifiedVertices(mSimplifiedVertexCount);
+        int count = 0;
+        for (int i = 0; i < mChunks.size(); i++) {
+            Chunk chunk = mChunks.get(i);
+            int first = i == 0 ? 0 : 1;
+            System.arraycopy(chunk.mVertices, first * COORDS_PER_VERTEX,
+                    vertices, count * COORDS_PER_VERTEX,
+                    (chunk.mVertexCount - first) * COORDS_PER_VERTEX);
+            count += chunk.mVertexCount - first;
+        }
+        do {
+            mTolerance *= 2;
+            count = mSimplifier.simplify(vertices, 0, count, mTolerance);
+        } while (count > mMaxVertices / 2);
 
-        mVertexBuffer.clear();
-        mVertexBuffer.put(tail);
+        mChunks.clear();
+        mSimplifiedVertexCount = 0;
+        appendSimplified(vertices, 0, count);
+    }
+
+    private float[] reserveSimplifiedVertices(int vertexCount) {
+        if (mSimplifiedVertices.length < vertexCount * COORDS_PER_VERTEX) {
+            mSimplifiedVertices = new float[vertexCount * COORDS_PER_VERTEX];
+        }
+        return mSimplifiedVertices;
+    }
 
-        mTrajectoryCount = pointsToGet / 3;
+    /**
+     * Appends vertices to the last simplified chunk, starting new chunks as
+     * needed.
+     */
+    private void appendSimplified(float[] vertices, int first, int end) {
+        Chunk chunk = mChunks.isEmpty() ? null : mChunks.get(mChunks.size() - 1);
+        for (int i = first; i < end; i++) {
+            if (chunk == null || chunk.mVertexCount == CHUNK_VERTICES) {
+                Chunk next = new Chunk();
+                if (chunk != null) {
+                    // Continues the path from the end of the previous chunk
+                    System.arraycopy(chunk.mVertices, (CHUNK_VERTICES - 1)
+                            * COORDS_PER_VERTEX, next.mVertices, 0,
+                            COORDS_PER_VERTEX);
+                    next.mVertexCount = 1;
+                    mSimplifiedVertexCount++;
+                }
+                mChunks.add(next);
+                chunk = next;
+            }
+            System.arraycopy(vertices, i * COORDS_PER_VERTEX, chunk.mVertices,
+                    chunk.mVertexCount * COORDS_PER_VERTEX, COORDS_PER_VERTEX);
+            chunk.mVertexCount++;
+            mSimplifiedVertexCount++;
+        }
     }
 
+    /**
+     * Removes all the points, for instance when a new recording starts. Can
+     * be called from any thread: the path is cleared by the next point added,
+     * and its buffers deleted by the draw showing that point.
+     */
     public void clearPath() {
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
-        vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
+        mClearRequested.set(true);
+    }
+
+    private void removeAllPoints() {
+        mChunks.clear();
+        mRawChunk = new Chunk();
+        mSimplifiedVertexCount = 0;
+        mTolerance = INITIAL_TOLERANCE;
     }
 
     @Override
     public void draw(float[] viewMatrix, float[] projectionMatrix) {
-        GLES20.glUseProgram(mProgram);
-        mVertexBuffer.position(0);
+        if (mProgram == 0) {
+            // Get the shared program and its locations
+            RenderUtils.Program program = RenderUtils.getProgram(
+                    sVertexShaderCode, sFragmentShaderCode);
+            mProgram = program.getHandle();
+            mPosHandle = program.getAttribLocation("vPosition");
+            mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+            mColorHandle = program.getUniformLocation("aColor");
+        }
+        takeSnapshot();
+        int chunkCount = mChunkBuffers.size();
+        for (int i = 0; i < chunkCount; i++) {
+            upload(mChunkBuffers.get(i));
+        }
 
+        GLES20.glUseProgram(mProgram);
         // Compose the model, view, and projection matrices into a single m-v-p
         // matrix
         updateMvpMatrix(viewMatrix, projectionMatrix);
-
-        // Load vertex attribute data
-        mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT, false, 0, mVertexBuffer);
-        GLES20.glEnableVertexAttribArray(mPosHandle);
-
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
-
-        mColorHandle = GLES20.glGetUniformLocation(mProgram, "aColor");
         GLES20.glUniform4f(mColorHandle, mColor[0], mColor[1], mColor[2],
                 mColor[3]);
         GLES20.glLineWidth(mLineWidth);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, mTrajectoryCount);
+        GLES20.glEnableVertexAttribArray(mPosHandle);
+        for (int i = 0; i < chunkCount; i++) {
+            ChunkBuffer chunk = mChunkBuffers.get(i);
+            if (chunk.mUploadedCount < 2) {
+                continue;
+            }
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, chunk.mVbo);
+            GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
+                    GLES20.GL_FLOAT, false, 0, 0);
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, chunk.mUploadedCount);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Takes the latest snapshot, if the producer published one since the
+     * last draw, into the chunk buffers, deleting the buffer objects of the
+     * chunks the path no longer has.
+     */
+    private void takeSnapshot() {
+        if ((mMiddleSnapshot.get() & FRESH) == 0) {
+            return;
+        }
+        mFrontSnapshot = mMiddleSnapshot.getAndSet(mFrontSnapshot) & SLOT_MASK;
+        Snapshot snapshot = mSnapshots[mFrontSnapshot];
+        int chunkCount = snapshot.mChunkCount;
+        while (mChunkBuffers.size() > chunkCount) {
+            ChunkBuffer chunk = mChunkBuffers.remove(mChunkBuffers.size() - 1);
+            if (chunk.mVbo != 0) {
+                mBufferHandle[0] = chunk.mVbo;
+                GLES20.glDeleteBuffers(1, mBufferHandle, 0);
+            }
+        }
+        while (mChunkBuffers.size() < chunkCount) {
+            mChunkBuffers.add(new ChunkBuffer());
+        }
+        for (int i = 0; i < chunkCount; i++) {
+            ChunkBuffer chunk = mChunkBuffers.get(i);
+            if (chunk.mVertices != snapshot.mVertices[i]) {
+                // Another chunk at this index, whose vertices all differ
+                chunk.mVertices = snapshot.mVertices[i];
+                chunk.mUploadedCount = 0;
+            }
+            chunk.mVertexCount = snapshot.mVertexCounts[i];
+        }
+    }
+
+    /**
+     * Uploads the vertices added to a chunk since its last upload, creating
+     * its buffer if needed.
+     */
+    private void upload(ChunkBuffer chunk) {
+        int uploaded = chunk.mUploadedCount;
+        int count = chunk.mVertexCount;
+        if (chunk.mVbo != 0 && uploaded == count) {
+            return;
+        }
+        if (chunk.mVbo == 0) {
+            GLES20.glGenBuffers(1, mBufferHandle, 0);
+            chunk.mVbo = mBufferHandle[0];
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, chunk.mVbo);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, CHUNK_BYTES, null,
+                    GLES20.GL_DYNAMIC_DRAW);
+            uploaded = 0;
+        } else {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, chunk.mVbo);
+        }
+        if (count > uploaded) {
+            mUploadBuffer.clear();
+            mUploadBuffer.put(chunk.mVertices, uploaded * COORDS_PER_VERTEX,
+                    (count - uploaded) * COORDS_PER_VERTEX);
+            mUploadBuffer.flip();
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, uploaded
+                    * COORDS_PER_VERTEX * BYTES_PER_FLOAT,
+                    mUploadBuffer.remaining() * BYTES_PER_FLOAT, mUploadBuffer);
+        }
+        chunk.mUploadedCount = count;
+    }
+
+    /**
+     * Forgets the GL objects, which are lost with the GL context, so that they
+     * are created again and the whole path uploaded at the next draw. To be
+     * called from onSurfaceCreated.
+     */
+    public void onContextLost() {
+        mProgram = 0;
+        for (ChunkBuffer chunk : mChunkBuffers) {
+            chunk.mVbo = 0;
+            chunk.mUploadedCount = 0;
+        }
+    }
+
+    /**
+     * @return the number of vertices of the path, after simplification, as
+     *         of the last point added.
+     */
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * @return the current simplification tolerance, in meters. Successive
+     *         simplifications keep the oldest part of the path within twice
+     *         this distance of the positions it was built from.
+     */
+    public float getTolerance() {
+        return mPublishedTolerance;
     }
 
     public void setColor(float[] color) {
         mColor = color;
     }
-}
\ No newline at end of file
+}
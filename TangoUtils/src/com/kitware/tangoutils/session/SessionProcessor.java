@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.session;
+
+import com.kitware.tangoutils.PoseTimeline;
+import com.kitware.tangoutils.cloud.VoxelAccumulator;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataReader;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataWriter;
+import com.kitware.tangoutils.math.Matrix4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Command-line tool turning a recorded archive into a single registered
+ * point cloud: each depth frame is transformed to the start of service frame
+ * with the pose interpolated at its timestamp and the Cam2Dev_transform of
+ * the poses file, like the ApplyPoseTransformToPointCloud and
+ * AccumulatePointClouds ParaView filters, and the merged cloud is written to
+ * a binary VTK file.
+ *
+ * Frames are read and transformed on a thread pool, and written in order as
+ * soon as they are ready, so that only a few frames are held in memory.
+ * Frames recorded outside of the pose timeline are skipped.
+ *
+ * With a voxel size, the frames are merged into a {@link VoxelAccumulator}
+ * instead, and one point per occupied voxel is written.
+ *
+ * Usage: SessionProcessor [--threads N] [--no-vertices] [--voxel-size S]
+ * archive.zip output.vtk
+ */
+public class SessionProcessor {
+
+    public static final String POSES_SUFFIX = "_poses.vtk";
+    public static final String FRAME_SUFFIX = ".vtk";
+
+    private static final int FRAMES_IN_FLIGHT_PER_THREAD = 2;
+
+    /**
+     * Orders frame names by the index the recorder appends to them. The index
+     * is zero padded to 3 digits only, so recordings of more than 999 frames
+     * do not sort by name. Names without an index go last, by name.
+     */
+    private static final Comparator<String> FRAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            long indexA = getFrameIndex(a);
+            long indexB = getFrameIndex(b);
+            if (indexA != indexB) {
+                if (indexA < 0 || indexB < 0) {
+                    return indexA < 0 ? 1 : -1;
+                }
+                return indexA < indexB ? -1 : 1;
+            }
+            return a.compareTo(b);
+        }
+    };
+
+    private final int mThreadCount;
+    private final boolean mWriteVertices;
+    private float mVoxelSize;
+    private VoxelAccumulator mAccumulator;
+    private int mFrameCount;
+    private int mSkippedFrameCount;
+    private int mPointCount;
+
+    /**
+     * @param threadCount
+     *            the number of threads transforming frames.
+     * @param writeVertices
+     *            whether to add a VERTICES cell to the output, so that
+     *            ParaView displays the points as they are.
+     */
+    public SessionProcessor(int threadCount, boolean writeVertices) {
+        mThreadCount = Math.max(threadCount, 1);
+        mWriteVertices = writeVertices;
+    }
+
+    /**
+     * Merges the frames into voxels of the given size, in meters, instead of
+     * writing all their points. 0 disables the merge.
+     */
+    public void setVoxelSize(float voxelSize) {
+        mVoxelSize = voxelSize;
+    }
+
+    /**
+     * The depth frame of an archive entry, transformed to the start of
+     * service frame. Null points mean the frame was skipped.
+     */
+    private static class TransformedFrame {
+        final String mName;
+        final float[] mPoints;
+
+        TransformedFrame(String name, float[] points) {
+            mName = name;
+            mPoints = points;
+        }
+    }
+
+    public static void main(String[] args) {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        boolean writeVertices = true;
+        float voxelSize = 0;
+        ArrayList<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if ("--voxel-size".equals(args[i]) && i + 1 < args.length) {
+                voxelSize = Float.parseFloat(args[++i]);
+            } else if ("--no-vertices".equals(args[i])) {
+                writeVertices = false;
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() != 2) {
+            System.err.println("Usage: SessionProcessor [--threads N] "
+                    + "[--no-vertices] [--voxel-size S] archive.zip output.vtk");
+            System.exit(1);
+        }
+        SessionProcessor processor = new SessionProcessor(threadCount,
+                writeVertices);
+        processor.setVoxelSize(voxelSize);
+        long start = System.nanoTime();
+        try {
+            processor.process(new File(files.get(0)), new File(files.get(1)));
+        } catch (IOException e) {
+            System.err.println("Failed to process " + files.get(0) + ": "
+                    + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println(processor.getFrameCount() + " frames, "
+                + processor.getSkippedFrameCount() + " skipped, "
+                + processor.getPointCount() + " points written in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Registers the depth frames of an archive and writes them to a single
+     * VTK file.
+     */
+    public void process(File archive, File output) throws IOException {
+        mFrameCount = 0;
+        mSkippedFrameCount = 0;
+        mPointCount = 0;
+        mAccumulator = mVoxelSize > 0 ? new VoxelAccumulator(mVoxelSize) : null;
+        final ZipFile zipFile = new ZipFile(archive);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        FileOutputStream outputStream = null;
+        try {
+            ZipEntry posesEntry = null;
+            ArrayList<String> frameNames = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(POSES_SUFFIX)) {
+                    posesEntry = entry;
+                } else if (entry.getName().endsWith(FRAME_SUFFIX)) {
+                    frameNames.add(entry.getName());
+                }
+            }
+            if (posesEntry == null) {
+                throw new IOException("No *" + POSES_SUFFIX + " file in the archive");
+            }
+            // Frame names end with their index in the recording
+            Collections.sort(frameNames, FRAME_ORDER);
+
+            VtkLegacyPolyDataReader poses = new VtkLegacyPolyDataReader(
+                    readEntry(zipFile, posesEntry));
+            final PoseTimeline timeline = readTimeline(poses);
+            double[] cam2Dev = poses.getFieldArray("Cam2Dev_transform");
+            if (cam2Dev == null || cam2Dev.length != Matrix4.SIZE) {
+                throw new IOException("No Cam2Dev_transform in the poses file");
+            }
+            final float[] cam2DevTransform = new float[Matrix4.SIZE];
+            for (int i = 0; i < Matrix4.SIZE; i++) {
+                cam2DevTransform[i] = (float) cam2Dev[i];
+            }
+
+            outputStream = new FileOutputStream(output);
+            FileChannel channel = outputStream.getChannel();
+            VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter();
+            writer.open(channel);
+            long pointCountPosition = writer.writeHeaderWithPointCountPlaceholder();
+
+            ArrayDeque<Future<TransformedFrame>> pending = new ArrayDeque<Future<TransformedFrame>>();
+            int maxPending = mThreadCount * FRAMES_IN_FLIGHT_PER_THREAD;
+            for (final String name : frameNames) {
+                pending.add(executor.submit(new Callable<TransformedFrame>() {
+                    @Override
+                    public TransformedFrame call() throws IOException {
+                        return transformFrame(zipFile, name, timeline,
+                                cam2DevTransform);
+                    }
+                }));
+                if (pending.size() >= maxPending) {
+                    writeFrame(writer, take(pending));
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeFrame(writer, take(pending));
+            }
+            if (mAccumulator != null) {
+                mPointCount = mAccumulator.size();
+                writer.writeFloats(mAccumulator.getCentroids(), 0, mPointCount * 3);
+                mAccumulator = null;
+            }
+
+            if (mWriteVertices) {
+                writer.writeCells(VtkLegacyPolyDataWriter.CELLS_VERTICES,
+                        mPointCount);
+            }
+            writer.writeAscii("\n");
+            writer.flush();
+            VtkLegacyPolyDataWriter.patchPointCount(channel,
+                    pointCountPosition, mPointCount);
+            writer.close();
+            outputStream = null;
+        } finally {
+            executor.shutdownNow();
+            zipFile.close();
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        }
+    }
+
+    private void writeFrame(VtkLegacyPolyDataWriter writer,
+            TransformedFrame frame) throws IOException {
+        mFrameCount++;
+        if (frame.mPoints == null) {
+            mSkippedFrameCount++;
+            System.err.println("Skipped " + frame.mName
+                    + ": outside of the pose timeline");
+            return;
+        }
+        if (mAccumulator != null) {
+            mAccumulator.addPoints(frame.mPoints, 0, frame.mPoints.length / 3);
+            return;
+        }
+        writer.writeFloats(frame.mPoints, 0, frame.mPoints.length);
+        mPointCount += frame.mPoints.length / 3;
+    }
+
+    private static TransformedFrame take(
+            ArrayDeque<Future<TransformedFrame>> pending) throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Reads a depth frame and transforms it with the pose at its timestamp.
+     * Runs on the thread pool.
+     */
+    private static TransformedFrame transformFrame(ZipFile zipFile,
+            String name, PoseTimeline timeline, float[] cam2DevTransform)
+            throws IOException {
+        VtkLegacyPolyDataReader frame = new VtkLegacyPolyDataReader(readEntry(
+                zipFile, zipFile.getEntry(name)));
+        double[] timestamp = frame.getFieldArray("timestamp");
+        if (timestamp == null || timestamp.length == 0) {
+            throw new IOException("No timestamp in " + name);
+        }
+        float[] transform = new float[Matrix4.SIZE];
+        if (!timeline.getPoseMatrix(timestamp[0], transform)) {
+            return new TransformedFrame(name, null);
+        }
+        Matrix4.multiplyAffine(transform, transform, cam2DevTransform);
+
+        int pointCount = frame.getPointCount();
+        float[] points = new float[pointCount * 3];
+        frame.readPoints(points, 0);
+        Matrix4.transformPoints(transform, points, 0, points, 0, pointCount);
+        return new TransformedFrame(name, points);
+    }
+
+    /**
+     * @return the index ending a frame name, as in pc_[time]_[index].vtk, or
+     *         -1 if the name does not end with one.
+     */
+    private static long getFrameIndex(String name) {
+        int end = name.length() - FRAME_SUFFIX.length();
+        int start = name.lastIndexOf('_', end - 1) + 1;
+        if (start == 0 || start == end || end - start > 18) {
+            return -1;
+        }
+        long index = 0;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    private static PoseTimeline readTimeline(VtkLegacyPolyDataReader poses)
+            throws IOException {
+        int poseCount = poses.getPointCount();
+        double[] timestamps = poses.getPointDataArray("timestamp");
+        float[] positions = new float[poseCount * 3];
+        float[] orientations = new float[poseCount * 4];
+        poses.readPoints(positions, 0);
+        if (timestamps == null
+                || !poses.readPointDataArray("orientation", orientations, 0)) {
+            throw new IOException("The poses file has no timestamp or orientation");
+        }
+        return PoseTimeline.fromUnsortedColumns(timestamps, positions,
+                orientations, poseCount);
+    }
+
+    private static ByteBuffer readEntry(ZipFile zipFile, ZipEntry entry)
+            throws IOException {
+        long size = entry.getSize();
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported size for " + entry.getName());
+        }
+        byte[] bytes = new byte[(int) size];
+        InputStream stream = zipFile.getInputStream(entry);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = stream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated entry " + entry.getName());
+                }
+                offset += read;
+            }
+        } finally {
+            stream.close();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
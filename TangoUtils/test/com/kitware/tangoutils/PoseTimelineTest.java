@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the lookups of {@link PoseTimeline}: the binary search at and past
+ * the ends of the timeline, the SLERP of orientations whose signs differ,
+ * and the association of frames with no pose around them.
+ */
+public class PoseTimelineTest {
+
+    private static final float TOLERANCE = 1e-5f;
+    private static final float SIN_45 = (float) Math.sin(Math.PI / 4);
+
+    @Test
+    public void floorIndexAtAndPastTheEnds() {
+        PoseTimeline timeline = createTimeline(new double[] { 1.0, 2.0, 2.0,
+                3.0 });
+        assertEquals(-1, timeline.floorIndex(0.5));
+        assertEquals(0, timeline.floorIndex(1.0));
+        assertEquals(0, timeline.floorIndex(1.5));
+        // The last of equal timestamps
+        assertEquals(2, timeline.floorIndex(2.0));
+        assertEquals(3, timeline.floorIndex(3.0));
+        assertEquals(3, timeline.floorIndex(10.0));
+
+        assertEquals(0, timeline.nearestIndex(-10.0));
+        assertEquals(0, timeline.nearestIndex(1.4));
+        assertEquals(3, timeline.nearestIndex(2.6));
+        assertEquals(3, timeline.nearestIndex(10.0));
+
+        PoseTimeline empty = createTimeline(new double[0]);
+        assertEquals(-1, empty.floorIndex(1.0));
+        assertEquals(-1, empty.nearestIndex(1.0));
+        assertFalse(empty.getPose(1.0, new float[3], new float[4]));
+    }
+
+    @Test
+    public void floorIndexMatchesLinearScan() {
+        Random random = new Random(42);
+        double[] timestamps = new double[1000];
+        for (int i = 1; i < timestamps.length; i++) {
+            // Some timestamps repeated
+            timestamps[i] = timestamps[i - 1] + random.nextInt(3) * 0.01;
+        }
+        PoseTimeline timeline = createTimeline(timestamps);
+        for (int i = 0; i < 10000; i++) {
+            double time = (random.nextDouble() * 1.2 - 0.1) * timestamps[999];
+            int expected = -1;
+            while (expected + 1 < timestamps.length
+                    && timestamps[expected + 1] <= time) {
+                expected++;
+            }
+            assertEquals("time " + time, expected, timeline.floorIndex(time));
+        }
+    }
+
+    @Test
+    public void posesPastTheEndsAreClamped() {
+        PoseTimeline timeline = createTimeline(new double[] { 1.0, 2.0, 3.0 });
+        float[] position = new float[3];
+        float[] orientation = new float[4];
+
+        assertFalse(timeline.getPose(0.0, position, orientation));
+        assertArrayEquals(new float[] { 0f, 0f, 0f }, position, TOLERANCE);
+        assertTrue(timeline.getPose(1.0, position, orientation));
+        assertArrayEquals(new float[] { 0f, 0f, 0f }, position, TOLERANCE);
+        assertTrue(timeline.getPose(2.5, position, orientation));
+        assertArrayEquals(new float[] { 1.5f, 3f, 4.5f }, position, TOLERANCE);
+        // The last pose is within the timeline, but not past it
+        assertTrue(timeline.getPose(3.0, position, orientation));
+        assertArrayEquals(new float[] { 2f, 4f, 6f }, position, TOLERANCE);
+        assertFalse(timeline.getPose(3.5, position, orientation));
+        assertArrayEquals(new float[] { 2f, 4f, 6f }, position, TOLERANCE);
+    }
+
+    @Test
+    public void slerpTakesTheShortestPathAcrossASignFlip() {
+        // Identity, then a quarter turn around Z with its sign flipped:
+        // halfway is an eighth of a turn, not a rotation the long way round
+        double[] timestamps = { 0.0, 1.0 };
+        float[] positions = new float[6];
+        float[] orientations = { 0f, 0f, 0f, 1f, 0f, 0f, -SIN_45, -SIN_45 };
+        PoseTimeline timeline = new PoseTimeline(timestamps, positions,
+                orientations, 2);
+        float[] position = new float[3];
+        float[] orientation = new float[4];
+        assertTrue(timeline.getPose(0.5, position, orientation));
+
+        float halfAngle = (float) (Math.PI / 8);
+        float[] expected = { 0f, 0f, (float) Math.sin(halfAngle),
+                (float) Math.cos(halfAngle) };
+        float dot = 0f;
+        for (int i = 0; i < 4; i++) {
+            dot += expected[i] * orientation[i];
+        }
+        assertEquals(1f, Math.abs(dot), TOLERANCE);
+
+        // The rotation matrix is the same whatever the sign of the quaternion
+        float[] matrix = new float[16];
+        timeline.getPoseMatrix(0.5, matrix);
+        assertEquals(Math.cos(Math.PI / 4), matrix[0], TOLERANCE);
+        assertEquals(Math.sin(Math.PI / 4), matrix[1], TOLERANCE);
+    }
+
+    @Test
+    public void associateFramesWithNoPoseAroundThem() {
+        PoseTimeline timeline = createTimeline(new double[] { 10.0, 20.0 });
+        float[] positions = new float[3 * 3];
+        float[] orientations = new float[3 * 4];
+
+        // All before, then all after the timeline: clamped, none in range
+        assertEquals(0, timeline.associate(new double[] { 1.0, 2.0, 3.0 }, 3,
+                positions, orientations));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0f, positions[i * 3], TOLERANCE);
+        }
+        assertEquals(0, timeline.associate(new double[] { 21.0, 22.0, 23.0 },
+                3, positions, orientations));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1f, positions[i * 3], TOLERANCE);
+        }
+
+        // Between two poses far apart, unsorted: interpolated
+        assertEquals(3, timeline.associate(new double[] { 15.0, 12.5, 17.5 },
+                3, positions, orientations));
+        assertEquals(0.5f, positions[0], TOLERANCE);
+        assertEquals(0.25f, positions[3], TOLERANCE);
+        assertEquals(0.75f, positions[6], TOLERANCE);
+
+        PoseTimeline empty = createTimeline(new double[0]);
+        assertEquals(0, empty.associate(new double[] { 1.0 }, 1, positions,
+                orientations));
+    }
+
+    /**
+     * @return a timeline whose pose i is at (i, 2i, 3i), with the identity
+     *         orientation.
+     */
+    private static PoseTimeline createTimeline(double[] timestamps) {
+        int size = timestamps.length;
+        float[] positions = new float[size * 3];
+        float[] orientations = new float[size * 4];
+        for (int i = 0; i < size; i++) {
+            positions[i * 3] = i;
+            positions[i * 3 + 1] = 2 * i;
+            positions[i * 3 + 2] = 3 * i;
+            orientations[i * 4 + 3] = 1f;
+        }
+        return new PoseTimeline(timestamps, positions, orientations, size);
+    }
+}
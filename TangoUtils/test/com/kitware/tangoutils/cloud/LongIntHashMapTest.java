@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LongIntHashMap} against java.util.HashMap, across its
+ * growth, and with keys colliding on the same slot.
+ */
+public class LongIntHashMapTest {
+
+    // The table of a map created for a single entry
+    private static final int SMALLEST_TABLE_SIZE = 16;
+
+    @Test
+    public void growsWhileKeepingItsEntries() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(1);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        long[] specialKeys = { 0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE };
+        for (int i = 0; i < 100000; i++) {
+            long key;
+            if (i < specialKeys.length) {
+                key = specialKeys[i];
+            } else if (i % 2 == 0) {
+                // Packed voxel coordinates, as used by the accumulators
+                key = VoxelAccumulator.packKey(random.nextInt(200) - 100,
+                        random.nextInt(200) - 100, random.nextInt(200) - 100);
+            } else {
+                key = random.nextLong();
+            }
+            int value = random.nextInt(Integer.MAX_VALUE);
+            Integer previous = expected.get(key);
+            int actual = map.putIfAbsent(key, value);
+            if (previous == null) {
+                assertEquals(LongIntHashMap.NO_VALUE, actual);
+                expected.put(key, value);
+            } else {
+                assertEquals(previous.intValue(), actual);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        for (int i = 0; i < 10000; i++) {
+            long key = random.nextLong();
+            if (!expected.containsKey(key)) {
+                assertEquals(LongIntHashMap.NO_VALUE, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void collidingKeysAreAllFound() {
+        // Keys sharing the last slot of the table, so that their probe
+        // sequence wraps around to the first slots
+        List<Long> colliding = findKeysWithSlot(SMALLEST_TABLE_SIZE - 1, 8);
+        LongIntHashMap map = new LongIntHashMap(1);
+        // Inserting every other key leaves absent keys whose probe sequence
+        // crosses the present ones
+        for (int i = 0; i < colliding.size(); i += 2) {
+            assertEquals(LongIntHashMap.NO_VALUE,
+                    map.putIfAbsent(colliding.get(i), i));
+        }
+        for (int i = 0; i < colliding.size(); i++) {
+            int expected = i % 2 == 0 ? i : LongIntHashMap.NO_VALUE;
+            assertEquals("key " + i, expected, map.get(colliding.get(i)));
+        }
+        for (int i = 0; i < colliding.size(); i += 2) {
+            assertEquals(i, map.putIfAbsent(colliding.get(i), 100 + i));
+        }
+        assertEquals(colliding.size() / 2, map.size());
+
+        // Growing spreads the chain over a larger table
+        for (long key = 1000; map.size() < SMALLEST_TABLE_SIZE * 4; key++) {
+            map.putIfAbsent(key, 7);
+        }
+        for (int i = 0; i < colliding.size(); i++) {
+            int expected = i % 2 == 0 ? i : LongIntHashMap.NO_VALUE;
+            assertEquals("key " + i, expected, map.get(colliding.get(i)));
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        for (long key : colliding) {
+            assertEquals(LongIntHashMap.NO_VALUE, map.get(key));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeValuesAreRejected() {
+        new LongIntHashMap().putIfAbsent(1L, -1);
+    }
+
+    /**
+     * @return count keys whose home slot in a table of SMALLEST_TABLE_SIZE
+     *         slots is slot.
+     */
+    private static List<Long> findKeysWithSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<Long>();
+        for (long key = 0; keys.size() < count; key++) {
+            if ((mix(key) & (SMALLEST_TABLE_SIZE - 1)) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The hash of LongIntHashMap: the finalizer of MurmurHash3.
+     */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.kitware.tangoutils.math.Matrix4;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the frustum culling and the level selection of {@link OctreeLod},
+ * from a camera at the origin looking down -Z with a 90 degree field of
+ * view, so that a length L at a distance D projects to 500 * L / D pixels on
+ * a 1000 pixel high view.
+ */
+public class OctreeLodTest {
+
+    private static final int LEVEL_COUNT = 4;
+    private static final int VIEWPORT_HEIGHT = 1000;
+    private static final float MAX_ERROR = 2f;
+    private static final float TOLERANCE = 1e-3f;
+
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mProjectionMatrix = new float[16];
+    private OctreeLod mLod;
+
+    @Before
+    public void setUp() {
+        Matrix4.setLookAt(mViewMatrix, 0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f);
+        Matrix4.setPerspective(mProjectionMatrix, 90f, 1f, 0.1f, 1000f);
+        // Cells of 1, 0.5, 0.25 and 0.125 m
+        mLod = new OctreeLod(1f, LEVEL_COUNT);
+        mLod.setView(mViewMatrix, mProjectionMatrix, VIEWPORT_HEIGHT);
+    }
+
+    @Test
+    public void boxesOutsideOfTheFrustumAreNotVisible() {
+        // In front, and straddling the side planes
+        assertTrue(mLod.isVisible(-1f, -1f, -6f, 1f, 1f, -4f));
+        assertTrue(mLod.isVisible(-10f, -1f, -6f, -5.5f, 1f, -4f));
+        // Behind the camera, beside the frustum, and past the far plane
+        assertFalse(mLod.isVisible(-1f, -1f, 4f, 1f, 1f, 6f));
+        assertFalse(mLod.isVisible(-20f, -1f, -6f, -10f, 1f, -4f));
+        assertFalse(mLod.isVisible(-1f, 10f, -6f, 1f, 20f, -4f));
+        assertFalse(mLod.isVisible(-1f, -1f, -1200f, 1f, 1f, -1100f));
+    }
+
+    @Test
+    public void nodesOutsideOfTheFrustumAreNotSelected() {
+        float[] bounds = {
+                -0.5f, -0.5f, -3f, 0.5f, 0.5f, -2f,
+                -0.5f, -0.5f, 2f, 0.5f, 0.5f, 3f,
+                50f, -0.5f, -3f, 51f, 0.5f, -2f };
+        int[] counts = new int[3 * LEVEL_COUNT];
+        Arrays.fill(counts, 10);
+        int[] levels = new int[3];
+        int pointCount = mLod.select(3, bounds, counts, MAX_ERROR,
+                Integer.MAX_VALUE, levels);
+        assertArrayEquals(new int[] { LEVEL_COUNT - 1, -1, -1 }, levels);
+        assertEquals(10 * LEVEL_COUNT, pointCount);
+    }
+
+    @Test
+    public void projectedSizeShrinksWithDistance() {
+        assertEquals(250f, mLod.getProjectedSize(1f, 2f), TOLERANCE);
+        assertEquals(2.5f, mLod.getProjectedSize(1f, 200f), TOLERANCE);
+    }
+
+    @Test
+    public void nodesAreRefinedUntilTheirCellsProjectUnderTheMaxError() {
+        // At 2 m, even the finest cells are 31 pixels: drawn down to the
+        // last level. At 200 m, level 0 cells are 2.5 pixels and level 1
+        // cells 1.25 pixels: drawn down to level 1.
+        float[] bounds = {
+                -0.5f, -0.5f, -3f, 0.5f, 0.5f, -2f,
+                -0.5f, -0.5f, -201f, 0.5f, 0.5f, -200f };
+        int[] counts = new int[2 * LEVEL_COUNT];
+        Arrays.fill(counts, 10);
+        int[] levels = new int[2];
+        int pointCount = mLod.select(2, bounds, counts, MAX_ERROR,
+                Integer.MAX_VALUE, levels);
+        assertArrayEquals(new int[] { LEVEL_COUNT - 1, 1 }, levels);
+        assertEquals(10 * LEVEL_COUNT + 10 * 2, pointCount);
+
+        // A larger error tolerance leaves the far node at its root level
+        pointCount = mLod.select(2, bounds, counts, 3f, Integer.MAX_VALUE,
+                levels);
+        assertArrayEquals(new int[] { LEVEL_COUNT - 1, 0 }, levels);
+        assertEquals(10 * LEVEL_COUNT + 10, pointCount);
+    }
+
+    @Test
+    public void pointBudgetStopsTheRefinement() {
+        float[] bounds = { -0.5f, -0.5f, -3f, 0.5f, 0.5f, -2f };
+        int[] counts = { 100, 100, 100, 100 };
+        int[] levels = new int[1];
+        int pointCount = mLod.select(1, bounds, counts, MAX_ERROR, 250, levels);
+        assertEquals(1, levels[0]);
+        assertEquals(200, pointCount);
+
+        // The root level of visible nodes is drawn even over the budget
+        pointCount = mLod.select(1, bounds, counts, MAX_ERROR, 50, levels);
+        assertEquals(0, levels[0]);
+        assertEquals(100, pointCount);
+    }
+
+    @Test
+    public void pointBudgetGoesToTheLargestErrorsFirst() {
+        float[] bounds = {
+                -0.5f, -0.5f, -201f, 0.5f, 0.5f, -200f,
+                -0.5f, -0.5f, -3f, 0.5f, 0.5f, -2f };
+        int[] counts = new int[2 * LEVEL_COUNT];
+        Arrays.fill(counts, 100);
+        int[] levels = new int[2];
+        int pointCount = mLod.select(2, bounds, counts, MAX_ERROR, 300, levels);
+        // The close node gets the only refinement the budget allows, although
+        // the far node comes first and needs refining too
+        assertArrayEquals(new int[] { 0, 1 }, levels);
+        assertEquals(300, pointCount);
+    }
+}
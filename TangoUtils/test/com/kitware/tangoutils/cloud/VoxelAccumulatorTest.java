@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the voxel assignment and the centroids of
+ * {@link VoxelAccumulator}.
+ */
+public class VoxelAccumulatorTest {
+
+    private static final float VOXEL_SIZE = 0.1f;
+    private static final float TOLERANCE = 1e-5f;
+
+    @Test
+    public void pointsOfAVoxelMergeIntoTheirCentroid() {
+        VoxelAccumulator accumulator = new VoxelAccumulator(VOXEL_SIZE);
+        assertEquals(1, accumulator.addPoints(new float[] { 0.01f, 0.02f,
+                0.03f, 0.05f, 0.06f, 0.07f, 0.09f, 0.01f, 0.02f }, 0, 3));
+        assertEquals(1, accumulator.size());
+        assertEquals(3, accumulator.getCount(0));
+        float[] centroid = new float[3];
+        accumulator.copyCentroids(centroid, 0);
+        assertEquals(0.05f, centroid[0], TOLERANCE);
+        assertEquals(0.03f, centroid[1], TOLERANCE);
+        assertEquals(0.04f, centroid[2], TOLERANCE);
+    }
+
+    @Test
+    public void negativeCoordinatesRoundDown() {
+        VoxelAccumulator accumulator = new VoxelAccumulator(VOXEL_SIZE);
+        // On both sides of 0, which truncation would merge
+        accumulator.addPoint(0.05f, 0.05f, 0.05f);
+        accumulator.addPoint(-0.05f, 0.05f, 0.05f);
+        accumulator.addPoint(-0.15f, 0.05f, 0.05f);
+        assertEquals(3, accumulator.size());
+        assertNotEquals(VoxelAccumulator.packKey(-1, 0, 0),
+                VoxelAccumulator.packKey(0, 0, 0));
+        assertNotEquals(VoxelAccumulator.packKey(0, -1, 0),
+                VoxelAccumulator.packKey(0, 0, -1));
+    }
+
+    @Test
+    public void invalidPointsAreDropped() {
+        VoxelAccumulator accumulator = new VoxelAccumulator(VOXEL_SIZE);
+        float outOfRange = VoxelAccumulator.COORDINATE_RANGE * VOXEL_SIZE * 2;
+        accumulator.addPoint(Float.NaN, 0f, 0f);
+        accumulator.addPoint(0f, Float.POSITIVE_INFINITY, 0f);
+        accumulator.addPoint(0f, 0f, outOfRange);
+        accumulator.addPoint(-outOfRange, 0f, 0f);
+        assertEquals(0, accumulator.size());
+        assertEquals(4, accumulator.getDroppedPointCount());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        VoxelAccumulator accumulator = new VoxelAccumulator(VOXEL_SIZE);
+        int side = 20;
+        // Two points per voxel, at the quarters of its diagonal
+        for (int pass = 1; pass <= 3; pass += 2) {
+            for (int x = 0; x < side; x++) {
+                for (int y = 0; y < side; y++) {
+                    for (int z = -side; z < side; z++) {
+                        float offset = pass * VOXEL_SIZE / 4;
+                        accumulator.addPoint(x * VOXEL_SIZE + offset, y
+                                * VOXEL_SIZE + offset, z * VOXEL_SIZE + offset);
+                    }
+                }
+            }
+        }
+        int voxelCount = side * side * side * 2;
+        assertEquals(voxelCount, accumulator.size());
+        float[] centroids = new float[voxelCount * 3];
+        accumulator.copyCentroids(centroids, 0);
+        int voxel = 0;
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                for (int z = -side; z < side; z++) {
+                    assertEquals(2, accumulator.getCount(voxel));
+                    assertEquals((x + 0.5f) * VOXEL_SIZE, centroids[voxel * 3],
+                            TOLERANCE);
+                    assertEquals((z + 0.5f) * VOXEL_SIZE,
+                            centroids[voxel * 3 + 2], TOLERANCE);
+                    voxel++;
+                }
+            }
+        }
+
+        accumulator.clear();
+        assertEquals(0, accumulator.size());
+        accumulator.addPoint(0.01f, 0.01f, 0.01f);
+        assertEquals(1, accumulator.getCount(0));
+    }
+}
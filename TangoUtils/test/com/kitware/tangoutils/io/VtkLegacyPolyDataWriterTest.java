@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link VtkLegacyPolyDataWriter} writes the same bytes as the
+ * DataOutputStream code it replaced in PointCloudActivity, and that the
+ * point cloud files written from the frame buffers, with their double
+ * timestamp and with or without their VERTICES cell, match the VTK legacy
+ * format. The time taken to write them is
+ * measured by VtkExportBenchmark of the benchmarks module.
+ */
+public class VtkLegacyPolyDataWriterTest {
+
+    private static final int[] POINT_COUNTS = { 0, 1, 17, 1000, 60000 };
+    private static final int[] BUFFER_SIZES = { 64, 1000, 64 * 1024 };
+    private static final float[] CAM2DEV_TRANSFORM = { 1f, 0f, 0f, 0f, 0f,
+            -1f, 0f, 0f, 0f, 0f, -1f, 0f, 0.01f, 0.02f, -0.03f, 1f };
+
+    @Test
+    public void pointCloudMatchesDataOutputStreamWriter() throws IOException {
+        for (int pointCount : POINT_COUNTS) {
+            byte[] xyz = createTangoPoints(pointCount, pointCount);
+            double timestamp = 1234.5678 + pointCount;
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            writeLegacyPointCloud(expected, xyz, 0, pointCount, timestamp);
+
+            for (int bufferSize : BUFFER_SIZES) {
+                VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter(
+                        bufferSize);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                writePointCloud(writer, actual, xyz, pointCount, timestamp);
+                assertArrayEquals(pointCount + " points, buffer " + bufferSize,
+                        expected.toByteArray(), actual.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void writerCanBeReusedForSeveralFiles() throws IOException {
+        VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter(1000);
+        for (int i = POINT_COUNTS.length - 1; i >= 0; i--) {
+            int pointCount = POINT_COUNTS[i];
+            byte[] xyz = createTangoPoints(pointCount, i);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            writeLegacyPointCloud(expected, xyz, 0, pointCount, i);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            writePointCloud(writer, actual, xyz, pointCount, i);
+            assertArrayEquals(pointCount + " points", expected.toByteArray(),
+                    actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void poseFileMatchesDataOutputStreamWriter() throws IOException {
+        for (int poseCount : POINT_COUNTS) {
+            Random random = new Random(poseCount);
+            float[] positions = new float[3 * poseCount];
+            float[] orientations = new float[4 * poseCount];
+            float[] timestamps = new float[poseCount];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = (float) random.nextGaussian();
+            }
+            for (int i = 0; i < orientations.length; i++) {
+                orientations[i] = random.nextFloat() * 2f - 1f;
+            }
+            for (int i = 0; i < poseCount; i++) {
+                timestamps[i] = 100f + i * 0.01f;
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            writeLegacyPoses(expected, positions, orientations, timestamps,
+                    poseCount);
+
+            for (int bufferSize : BUFFER_SIZES) {
+                VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter(
+                        bufferSize);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                writer.open(Channels.newChannel(actual));
+                writer.writeHeader(poseCount);
+                writer.writeFloats(positions, 0, positions.length);
+                writer.writeCells(VtkLegacyPolyDataWriter.CELLS_LINES, poseCount);
+                writer.writeAscii("\nFIELD FieldData 1\n");
+                writer.writeArrayHeader("Cam2Dev_transform", 16, 1,
+                        VtkLegacyPolyDataWriter.TYPE_FLOAT);
+                writer.writeFloats(CAM2DEV_TRANSFORM, 0, CAM2DEV_TRANSFORM.length);
+                writer.writeAscii("\nPOINT_DATA ");
+                writer.writeAscii(poseCount);
+                writer.writeAscii("\nFIELD FieldData 2\n");
+                writer.writeArrayHeader("orientation", 4, poseCount,
+                        VtkLegacyPolyDataWriter.TYPE_FLOAT);
+                writer.writeFloats(orientations, 0, orientations.length);
+                writer.writeAscii("\n");
+                writer.writeArrayHeader("timestamp", 1, poseCount,
+                        VtkLegacyPolyDataWriter.TYPE_FLOAT);
+                writer.writeFloats(timestamps, 0, poseCount);
+                writer.close();
+                assertArrayEquals(poseCount + " poses, buffer " + bufferSize,
+                        expected.toByteArray(), actual.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void frameBufferPointCloudMatchesReferenceWriter()
+            throws IOException {
+        for (int pointCount : POINT_COUNTS) {
+            byte[] xyz = createTangoPoints(pointCount, pointCount);
+            // The native order direct buffer of a PointCloudFrame
+            ByteBuffer frameBuffer = ByteBuffer.allocateDirect(xyz.length)
+                    .order(ByteOrder.nativeOrder());
+            frameBuffer.asFloatBuffer().put(
+                    ByteBuffer.wrap(xyz).order(ByteOrder.LITTLE_ENDIAN)
+                            .asFloatBuffer());
+            FloatBuffer points = frameBuffer.asFloatBuffer();
+            // A device timestamp that a float cannot hold
+            double timestamp = 86400.123456789 + pointCount;
+            for (boolean vertices : new boolean[] { true, false }) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                writeReferencePointCloud(expected, xyz, pointCount, timestamp,
+                        vertices);
+
+                for (int bufferSize : BUFFER_SIZES) {
+                    VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter(
+                            bufferSize);
+                    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                    writer.open(Channels.newChannel(actual));
+                    writer.writePointCloud(points.duplicate(), timestamp,
+                            vertices);
+                    writer.close();
+                    assertArrayEquals(pointCount + " points, buffer "
+                            + bufferSize + ", vertices " + vertices,
+                            expected.toByteArray(), actual.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pointCloudWithoutVerticesIsReadBack() throws IOException {
+        int pointCount = 1000;
+        byte[] xyz = createTangoPoints(pointCount, 7);
+        FloatBuffer points = ByteBuffer.wrap(xyz)
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        double timestamp = 86400.123456789;
+        ByteArrayOutputStream withVertices = new ByteArrayOutputStream();
+        ByteArrayOutputStream withoutVertices = new ByteArrayOutputStream();
+        VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter();
+        writer.open(Channels.newChannel(withVertices));
+        writer.writePointCloud(points.duplicate(), timestamp, true);
+        writer.close();
+        writer.open(Channels.newChannel(withoutVertices));
+        writer.writePointCloud(points.duplicate(), timestamp, false);
+        writer.close();
+        // The keyword line, the size of the cell and one id per point
+        int cellSize = ("\nVERTICES 1 " + (pointCount + 1) + "\n").length()
+                + (pointCount + 1) * 4;
+        assertEquals(withVertices.size() - cellSize, withoutVertices.size());
+
+        VtkLegacyPolyDataReader reader = new VtkLegacyPolyDataReader(
+                ByteBuffer.wrap(withoutVertices.toByteArray()));
+        assertEquals(pointCount, reader.getPointCount());
+        float[] actual = new float[pointCount * 3];
+        reader.readPoints(actual, 0);
+        float[] expected = new float[pointCount * 3];
+        points.duplicate().get(expected);
+        assertArrayEquals(expected, actual, 0f);
+        assertArrayEquals(new double[] { timestamp },
+                reader.getFieldArray("timestamp"), 0.0);
+    }
+
+    /**
+     * Creates pointCount random points in the little-endian layout of the
+     * Tango depth buffers.
+     */
+    private static byte[] createTangoPoints(int pointCount, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer xyz = ByteBuffer.allocate(pointCount * 3 * 4).order(
+                ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < pointCount; i++) {
+            xyz.putFloat((float) random.nextGaussian());
+            xyz.putFloat((float) random.nextGaussian());
+            xyz.putFloat(0.5f + 4f * random.nextFloat());
+        }
+        return xyz.array();
+    }
+
+    /**
+     * Writes a point cloud the way PointCloudActivity does, with the float
+     * timestamp of the files the legacy writer produced.
+     */
+    private static void writePointCloud(VtkLegacyPolyDataWriter writer,
+            OutputStream out, byte[] xyz, int pointCount, double timestamp)
+            throws IOException {
+        FloatBuffer points = ByteBuffer.wrap(xyz)
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        writer.open(Channels.newChannel(out));
+        writer.writeHeader(pointCount);
+        writer.writeFloats(points);
+        writer.writeCells(VtkLegacyPolyDataWriter.CELLS_VERTICES, pointCount);
+        writer.writeAscii("\nFIELD FieldData 1\n");
+        writer.writeArrayHeader("timestamp", 1, 1,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        writer.writeFloat((float) timestamp);
+        writer.close();
+    }
+
+    /**
+     * The point cloud writer of PointCloudActivity before
+     * VtkLegacyPolyDataWriter, without the file handling.
+     */
+    private static void writeLegacyPointCloud(OutputStream stream,
+            byte[] buffer, int offset, int xyzCount, double timestamp)
+            throws IOException {
+        ByteBuffer myBuffer = ByteBuffer.allocate(xyzCount * 3 * 4);
+        myBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        myBuffer.put(buffer, offset, myBuffer.capacity());
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                stream));
+
+        out.write(("# vtk DataFile Version 3.0\n" + "vtk output\n"
+                + "BINARY\n" + "DATASET POLYDATA\n" + "POINTS " + xyzCount
+                + " float\n").getBytes());
+
+        for (int i = 0; i < xyzCount; i++) {
+            out.writeFloat(myBuffer.getFloat(3 * i * 4));
+            out.writeFloat(myBuffer.getFloat((3 * i + 1) * 4));
+            out.writeFloat(myBuffer.getFloat((3 * i + 2) * 4));
+        }
+
+        out.write(("\nVERTICES 1 " + String.valueOf(xyzCount + 1) + "\n")
+                .getBytes());
+        out.writeInt(xyzCount);
+        for (int i = 0; i < xyzCount; i++) {
+            out.writeInt(i);
+        }
+
+        out.write(("\nFIELD FieldData 1\n" + "timestamp 1 1 float\n")
+                .getBytes());
+        out.writeFloat((float) timestamp);
+
+        out.close();
+    }
+
+    /**
+     * The point cloud file PointCloudActivity writes, with a double
+     * timestamp and an optional VERTICES cell, written with DataOutputStream.
+     */
+    private static void writeReferencePointCloud(OutputStream stream,
+            byte[] xyz, int pointCount, double timestamp, boolean vertices)
+            throws IOException {
+        ByteBuffer points = ByteBuffer.wrap(xyz).order(ByteOrder.LITTLE_ENDIAN);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                stream));
+        out.write(("# vtk DataFile Version 3.0\n" + "vtk output\n"
+                + "BINARY\n" + "DATASET POLYDATA\n" + "POINTS " + pointCount
+                + " float\n").getBytes());
+        for (int i = 0; i < pointCount * 3; i++) {
+            out.writeFloat(points.getFloat(i * 4));
+        }
+        if (vertices) {
+            out.write(("\nVERTICES 1 " + (pointCount + 1) + "\n").getBytes());
+            out.writeInt(pointCount);
+            for (int i = 0; i < pointCount; i++) {
+                out.writeInt(i);
+            }
+        }
+        out.write(("\nFIELD FieldData 1\n" + "timestamp 1 1 double\n")
+                .getBytes());
+        out.writeDouble(timestamp);
+        out.close();
+    }
+
+    /**
+     * The pose writer of PointCloudActivity before VtkLegacyPolyDataWriter,
+     * without the file handling, and with the pose buffers flattened.
+     */
+    private static void writeLegacyPoses(OutputStream stream,
+            float[] positions, float[] orientations, float[] timestamps,
+            int numPoints) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                stream));
+
+        out.write(("# vtk DataFile Version 3.0\n" + "vtk output\n"
+                + "BINARY\n" + "DATASET POLYDATA\n" + "POINTS " + numPoints
+                + " float\n").getBytes());
+
+        for (int i = 0; i < numPoints; i++) {
+            out.writeFloat(positions[3 * i]);
+            out.writeFloat(positions[3 * i + 1]);
+            out.writeFloat(positions[3 * i + 2]);
+        }
+
+        out.write(("\nLINES 1 " + String.valueOf(numPoints + 1) + "\n")
+                .getBytes());
+        out.writeInt(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            out.writeInt(i);
+        }
+
+        out.write(("\nFIELD FieldData 1\n" + "Cam2Dev_transform 16 1 float\n")
+                .getBytes());
+        for (int i = 0; i < CAM2DEV_TRANSFORM.length; i++) {
+            out.writeFloat(CAM2DEV_TRANSFORM[i]);
+        }
+
+        out.write(("\nPOINT_DATA " + String.valueOf(numPoints) + "\n"
+                + "FIELD FieldData 2\n" + "orientation 4 "
+                + String.valueOf(numPoints) + " float\n").getBytes());
+
+        for (int i = 0; i < numPoints; i++) {
+            out.writeFloat(orientations[4 * i]);
+            out.writeFloat(orientations[4 * i + 1]);
+            out.writeFloat(orientations[4 * i + 2]);
+            out.writeFloat(orientations[4 * i + 3]);
+        }
+
+        out.write(("\ntimestamp 1 " + String.valueOf(numPoints) + " float\n")
+                .getBytes());
+        for (int i = 0; i < numPoints; i++) {
+            out.writeFloat(timestamps[i]);
+        }
+
+        out.close();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link Matrix4} against the android.opengl.Matrix methods it
+ * replaces, ported in {@link AndroidMatrix}, on random matrices.
+ */
+public class Matrix4Test {
+
+    private static final int ITERATIONS = 10000;
+    private static final float TOLERANCE = 1e-5f;
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void multiplyMatchesAndroid() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] lhs = randomMatrix();
+            float[] rhs = i % 2 == 0 ? randomMatrix() : randomRigid();
+            AndroidMatrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+            Matrix4.multiply(actual, lhs, rhs);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void multiplyAllowsResultToBeAnInput() {
+        float[] lhs = randomMatrix();
+        float[] rhs = randomMatrix();
+        float[] expected = new float[16];
+        AndroidMatrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+
+        float[] result = lhs.clone();
+        Matrix4.multiply(result, result, rhs);
+        assertMatrixEquals("result is lhs", expected, result);
+        result = rhs.clone();
+        Matrix4.multiply(result, lhs, result);
+        assertMatrixEquals("result is rhs", expected, result);
+    }
+
+    @Test
+    public void multiplyAffineMatchesAndroidOnRigidTransforms() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] lhs = randomRigid();
+            float[] rhs = randomRigid();
+            AndroidMatrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+            Matrix4.multiplyAffine(actual, lhs, rhs);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void invertMatchesAndroid() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] m = i % 2 == 0 ? randomMatrix() : randomRigid();
+            assertTrue(AndroidMatrix.invertM(expected, 0, m, 0));
+            assertTrue(Matrix4.invert(actual, m));
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void invertRigidMatchesAndroid() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] m = randomRigid();
+            assertTrue(AndroidMatrix.invertM(expected, 0, m, 0));
+            Matrix4.invertRigid(actual, m);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void invertLeavesResultUnchangedForSingularMatrix() {
+        float[] m = randomMatrix();
+        // A null column makes the determinant exactly 0
+        for (int row = 0; row < 4; row++) {
+            m[12 + row] = 0f;
+        }
+        float[] result = randomMatrix();
+        float[] before = result.clone();
+        assertFalse(AndroidMatrix.invertM(new float[16], 0, m, 0));
+        assertFalse(Matrix4.invert(result, m));
+        assertArrayEquals(before, result, 0f);
+    }
+
+    @Test
+    public void setLookAtMatchesAndroid() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float eyeX = randomFloat(10f), eyeY = randomFloat(10f), eyeZ = randomFloat(10f);
+            float centerX = randomFloat(10f), centerY = randomFloat(10f), centerZ = randomFloat(10f);
+            float upX = 0f, upY = 1f, upZ = 0f;
+            if (i % 2 == 1) {
+                upX = randomFloat(1f);
+                upY = randomFloat(1f);
+                upZ = randomFloat(1f);
+            }
+            AndroidMatrix.setLookAtM(expected, 0, eyeX, eyeY, eyeZ, centerX,
+                    centerY, centerZ, upX, upY, upZ);
+            Matrix4.setLookAt(actual, eyeX, eyeY, eyeZ, centerX, centerY,
+                    centerZ, upX, upY, upZ);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void setPerspectiveMatchesAndroid() {
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float fovy = 20f + 100f * mRandom.nextFloat();
+            float aspect = 0.5f + 2f * mRandom.nextFloat();
+            float zNear = 0.01f + mRandom.nextFloat();
+            float zFar = zNear + 1f + 1000f * mRandom.nextFloat();
+            AndroidMatrix.perspectiveM(expected, 0, fovy, aspect, zNear, zFar);
+            Matrix4.setPerspective(actual, fovy, aspect, zNear, zFar);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void setRigidMatchesTranslatedRotation() {
+        float[] rotation = new float[16];
+        float[] translation = new float[16];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] q = QuaternionTest.randomUnitQuaternion(mRandom);
+            float tx = randomFloat(5f), ty = randomFloat(5f), tz = randomFloat(5f);
+            Quaternion.toMatrix(q, rotation);
+            AndroidMatrix.setIdentityM(translation, 0);
+            AndroidMatrix.translateM(translation, 0, tx, ty, tz);
+            AndroidMatrix.multiplyMM(expected, 0, translation, 0, rotation, 0);
+            Matrix4.setRigid(actual, q[0], q[1], q[2], q[3], tx, ty, tz);
+            assertMatrixEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    /**
+     * Compares matrices element by element, relative to the magnitude of the
+     * expected element when it is larger than 1.
+     */
+    static void assertMatrixEquals(String message, float[] expected,
+            float[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            float tolerance = TOLERANCE * Math.max(1f, Math.abs(expected[i]));
+            assertEquals(message + ", element " + i, expected[i], actual[i],
+                    tolerance);
+        }
+    }
+
+    private float randomFloat(float range) {
+        return (2f * mRandom.nextFloat() - 1f) * range;
+    }
+
+    /**
+     * A random matrix, kept away from singular ones by its diagonal.
+     */
+    private float[] randomMatrix() {
+        float[] m = new float[16];
+        for (int i = 0; i < 16; i++) {
+            m[i] = randomFloat(1f);
+        }
+        for (int i = 0; i < 16; i += 5) {
+            m[i] += mRandom.nextBoolean() ? 3f : -3f;
+        }
+        return m;
+    }
+
+    private float[] randomRigid() {
+        float[] q = QuaternionTest.randomUnitQuaternion(mRandom);
+        float[] m = new float[16];
+        Matrix4.setRigid(m, q[0], q[1], q[2], q[3], randomFloat(5f),
+                randomFloat(5f), randomFloat(5f));
+        return m;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link PolylineSimplifier} keeps the endpoints, keeps its
+ * vertices in order, and only drops vertices within the tolerance of the
+ * simplified polyline.
+ */
+public class PolylineSimplifierTest {
+
+    private static final float TOLERANCE = 0.05f;
+    // The distances are computed in float
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void shortPolylinesAreLeftAsIs() {
+        PolylineSimplifier simplifier = new PolylineSimplifier();
+        float[] vertices = { 0f, 0f, 0f, 1f, 1f, 1f };
+        assertEquals(0, simplifier.simplify(vertices, 0, 0, TOLERANCE));
+        assertEquals(1, simplifier.simplify(vertices, 3, 1, TOLERANCE));
+        assertEquals(2, simplifier.simplify(vertices, 0, 2, TOLERANCE));
+        assertArrayEquals(new float[] { 0f, 0f, 0f, 1f, 1f, 1f }, vertices, 0f);
+    }
+
+    @Test
+    public void straightPolylineKeepsItsEndpoints() {
+        float[] vertices = new float[100 * 3];
+        for (int i = 0; i < 100; i++) {
+            vertices[i * 3] = i;
+            vertices[i * 3 + 1] = 2 * i;
+            vertices[i * 3 + 2] = -i;
+        }
+        assertEquals(2, new PolylineSimplifier().simplify(vertices, 0, 100,
+                TOLERANCE));
+        assertArrayEquals(new float[] { 0f, 0f, 0f, 99f, 198f, -99f },
+                Arrays.copyOf(vertices, 6), 0f);
+    }
+
+    @Test
+    public void droppedVerticesAreWithinTheTolerance() {
+        Random random = new Random(42);
+        PolylineSimplifier simplifier = new PolylineSimplifier();
+        // Large enough to grow the stack, then smaller to reuse the arrays
+        int[] counts = { 20000, 3, 500, 50 };
+        for (int count : counts) {
+            // A random walk, after a prefix that must be left untouched
+            int offset = 6;
+            float[] original = new float[offset + count * 3];
+            for (int i = 0; i < offset; i++) {
+                original[i] = i;
+            }
+            for (int i = 1; i < count; i++) {
+                int v = offset + i * 3;
+                for (int j = 0; j < 3; j++) {
+                    original[v + j] = original[v + j - 3]
+                            + (random.nextFloat() - 0.5f) * 0.1f;
+                }
+            }
+            float[] vertices = original.clone();
+            int kept = simplifier.simplify(vertices, offset, count, TOLERANCE);
+            assertTrue(kept >= 2 && kept <= count);
+            assertTrue("some vertices are dropped", count < 100 || kept < count);
+            assertArrayEquals(Arrays.copyOf(original, offset),
+                    Arrays.copyOf(vertices, offset), 0f);
+            checkSimplified(original, vertices, offset, count, kept);
+        }
+    }
+
+    /**
+     * Matches the kept vertices with the original ones, in order, and checks
+     * the distance of every original vertex between two kept ones to the
+     * segment joining them.
+     */
+    private static void checkSimplified(float[] original, float[] vertices,
+            int offset, int count, int kept) {
+        int[] indices = new int[kept];
+        int index = 0;
+        for (int k = 0; k < kept; k++) {
+            while (index < count
+                    && !sameVertex(original, offset + index * 3, vertices,
+                            offset + k * 3)) {
+                index++;
+            }
+            assertTrue("kept vertex " + k + " is an original one", index < count);
+            indices[k] = index++;
+        }
+        assertEquals(0, indices[0]);
+        assertEquals(count - 1, indices[kept - 1]);
+        for (int k = 0; k + 1 < kept; k++) {
+            int a = offset + indices[k] * 3;
+            int b = offset + indices[k + 1] * 3;
+            for (int i = indices[k] + 1; i < indices[k + 1]; i++) {
+                double distance = getSegmentDistance(original,
+                        offset + i * 3, a, b);
+                assertTrue("vertex " + i + " at " + distance,
+                        distance <= TOLERANCE + EPSILON);
+            }
+        }
+    }
+
+    private static boolean sameVertex(float[] a, int i, float[] b, int j) {
+        return a[i] == b[j] && a[i + 1] == b[j + 1] && a[i + 2] == b[j + 2];
+    }
+
+    private static double getSegmentDistance(float[] v, int p, int a, int b) {
+        double[] ab = new double[3];
+        double[] ap = new double[3];
+        double length2 = 0;
+        double dot = 0;
+        for (int j = 0; j < 3; j++) {
+            ab[j] = v[b + j] - v[a + j];
+            ap[j] = v[p + j] - v[a + j];
+            length2 += ab[j] * ab[j];
+            dot += ap[j] * ab[j];
+        }
+        double t = length2 > 0 ? Math.max(0, Math.min(1, dot / length2)) : 0;
+        double distance2 = 0;
+        for (int j = 0; j < 3; j++) {
+            double d = ap[j] - t * ab[j];
+            distance2 += d * d;
+        }
+        return Math.sqrt(distance2);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the SLERP of {@link Quaternion} against a double precision
+ * reference, and its rotation matrices against rotating by the quaternion.
+ */
+public class QuaternionTest {
+
+    private static final int ITERATIONS = 10000;
+    private static final float TOLERANCE = 1e-5f;
+    private static final double ANGLE_TOLERANCE = 1e-3;
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void slerpReturnsEndpoints() {
+        float[] result = new float[4];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] a = randomUnitQuaternion(mRandom);
+            float[] b = randomUnitQuaternion(mRandom);
+            if (dot(a, b) < 0f) {
+                negate(b);
+            }
+            Quaternion.slerp(result, a, b, 0f);
+            assertQuaternionEquals("t = 0, iteration " + i, a, result);
+            Quaternion.slerp(result, a, b, 1f);
+            assertQuaternionEquals("t = 1, iteration " + i, b, result);
+        }
+    }
+
+    @Test
+    public void slerpMatchesDoubleReference() {
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] a = randomUnitQuaternion(mRandom);
+            float[] b = randomUnitQuaternion(mRandom);
+            float t = mRandom.nextFloat();
+            referenceSlerp(expected, a, b, t);
+            Quaternion.slerp(actual, a, b, t);
+            assertQuaternionEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void slerpTakesShortestPath() {
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] a = randomUnitQuaternion(mRandom);
+            float[] b = randomUnitQuaternion(mRandom);
+            float t = mRandom.nextFloat();
+            Quaternion.slerp(expected, a, b, t);
+            negate(b);
+            Quaternion.slerp(actual, a, b, t);
+            assertQuaternionEquals("iteration " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void slerpHasConstantAngularVelocity() {
+        float[] result = new float[4];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] a = randomUnitQuaternion(mRandom);
+            float[] b = randomUnitQuaternion(mRandom);
+            float t = mRandom.nextFloat();
+            Quaternion.slerp(result, a, b, t);
+            double angle = angle(a, b);
+            assertEquals("iteration " + i, t * angle, angle(a, result),
+                    ANGLE_TOLERANCE);
+            assertEquals("iteration " + i, (1 - t) * angle, angle(result, b),
+                    ANGLE_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void slerpOfCloseQuaternionsIsNormalized() {
+        float[] result = new float[4];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] a = randomUnitQuaternion(mRandom);
+            float[] b = a.clone();
+            for (int j = 0; j < 4; j++) {
+                b[j] += (2f * mRandom.nextFloat() - 1f) * 1e-3f;
+            }
+            Quaternion.normalize(b);
+            float t = mRandom.nextFloat();
+            Quaternion.slerp(result, a, b, t);
+            assertEquals("iteration " + i, 1f, (float) Math.sqrt(dot(result,
+                    result)), TOLERANCE);
+            float[] expected = new float[4];
+            referenceSlerp(expected, a, b, t);
+            assertQuaternionEquals("iteration " + i, expected, result);
+        }
+    }
+
+    @Test
+    public void slerpAllowsResultToBeAnInput() {
+        float[] a = randomUnitQuaternion(mRandom);
+        float[] b = randomUnitQuaternion(mRandom);
+        float[] expected = new float[4];
+        Quaternion.slerp(expected, a, b, 0.3f);
+        float[] result = a.clone();
+        Quaternion.slerp(result, result, b, 0.3f);
+        assertQuaternionEquals("result is a", expected, result);
+        result = b.clone();
+        Quaternion.slerp(result, a, result, 0.3f);
+        assertQuaternionEquals("result is b", expected, result);
+    }
+
+    @Test
+    public void toMatrixRotatesLikeQuaternion() {
+        float[] matrix = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            float[] q = randomUnitQuaternion(mRandom);
+            float vx = mRandom.nextFloat(), vy = mRandom.nextFloat(), vz = mRandom.nextFloat();
+            Quaternion.toMatrix(q, matrix);
+
+            // q * (v, 0) * conjugate(q)
+            double x = q[0], y = q[1], z = q[2], w = q[3];
+            double tx = w * vx + y * vz - z * vy;
+            double ty = w * vy + z * vx - x * vz;
+            double tz = w * vz + x * vy - y * vx;
+            double tw = -x * vx - y * vy - z * vz;
+            double rx = -tw * x + tx * w - ty * z + tz * y;
+            double ry = -tw * y + ty * w - tz * x + tx * z;
+            double rz = -tw * z + tz * w - tx * y + ty * x;
+
+            assertEquals("iteration " + i, rx, matrix[0] * vx + matrix[4] * vy
+                    + matrix[8] * vz, TOLERANCE);
+            assertEquals("iteration " + i, ry, matrix[1] * vx + matrix[5] * vy
+                    + matrix[9] * vz, TOLERANCE);
+            assertEquals("iteration " + i, rz, matrix[2] * vx + matrix[6] * vy
+                    + matrix[10] * vz, TOLERANCE);
+        }
+    }
+
+    static float[] randomUnitQuaternion(Random random) {
+        float[] q = new float[4];
+        double norm;
+        do {
+            for (int i = 0; i < 4; i++) {
+                q[i] = (float) random.nextGaussian();
+            }
+            norm = Math.sqrt(dot(q, q));
+        } while (norm < 1e-3);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+        return q;
+    }
+
+    /**
+     * Textbook SLERP in double precision, along the shortest path.
+     */
+    private static void referenceSlerp(float[] result, float[] a, float[] b,
+            float t) {
+        double cos = 0;
+        for (int i = 0; i < 4; i++) {
+            cos += (double) a[i] * b[i];
+        }
+        double sign = cos < 0 ? -1 : 1;
+        cos = Math.min(Math.abs(cos), 1.0);
+        double angle = Math.acos(cos);
+        double wa;
+        double wb;
+        if (angle < 1e-9) {
+            wa = 1 - t;
+            wb = t;
+        } else {
+            wa = Math.sin((1 - t) * angle) / Math.sin(angle);
+            wb = Math.sin(t * angle) / Math.sin(angle);
+        }
+        double norm = 0;
+        double[] q = new double[4];
+        for (int i = 0; i < 4; i++) {
+            q[i] = wa * a[i] + wb * sign * b[i];
+            norm += q[i] * q[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < 4; i++) {
+            result[i] = (float) (q[i] / norm);
+        }
+    }
+
+    /**
+     * Rotation angle between two unit quaternions, in [0, pi / 2] since q
+     * and -q are the same rotation.
+     */
+    private static double angle(float[] a, float[] b) {
+        return Math.acos(Math.min(Math.abs((double) dot(a, b)), 1.0));
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    }
+
+    private static void negate(float[] q) {
+        for (int i = 0; i < 4; i++) {
+            q[i] = -q[i];
+        }
+    }
+
+    private static void assertQuaternionEquals(String message,
+            float[] expected, float[] actual) {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(message + ", component " + i, expected[i], actual[i],
+                    TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.session;
+
+import static org.junit.Assert.assertEquals;
+
+import com.kitware.tangoutils.io.VtkLegacyPolyDataReader;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs {@link SessionProcessor} on a synthetic archive whose frames are
+ * stored out of order, and checks the order of the frames in the output.
+ */
+public class SessionProcessorTest {
+
+    // Past 999, where the 3 digit indices of the recorder stop sorting by
+    // name
+    private static final int FRAME_COUNT = 1100;
+    private static final double FRAME_INTERVAL = 0.1;
+    private static final float[] IDENTITY = { 1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f,
+            0f, 0f, 1f, 0f, 0f, 0f, 0f, 1f };
+
+    private final List<File> mFiles = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void framesAreWrittenInNumericOrder() throws IOException {
+        File archive = File.createTempFile("session", ".zip");
+        mFiles.add(archive);
+        File output = File.createTempFile("session", ".vtk");
+        mFiles.add(output);
+
+        // Each frame is a single point whose x is the frame index
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            names.add("pc_123456_" + String.format("%03d", i) + ".vtk");
+        }
+        names.add("pc_123456_extra.vtk");
+        Collections.shuffle(names, new Random(42));
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (String name : names) {
+                int index = name.endsWith("extra.vtk") ? FRAME_COUNT
+                        : Integer.parseInt(name.substring(10, name.length() - 4));
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(createFrame(index, (index + 0.5) * FRAME_INTERVAL));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("pc_123456" + SessionProcessor.POSES_SUFFIX));
+            zip.write(createPoses((FRAME_COUNT + 1) * FRAME_INTERVAL));
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+
+        SessionProcessor processor = new SessionProcessor(3, true);
+        processor.process(archive, output);
+        assertEquals(FRAME_COUNT + 1, processor.getFrameCount());
+        assertEquals(0, processor.getSkippedFrameCount());
+
+        RandomAccessFile file = new RandomAccessFile(output, "r");
+        VtkLegacyPolyDataReader reader;
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            reader = new VtkLegacyPolyDataReader(ByteBuffer.wrap(bytes));
+        } finally {
+            file.close();
+        }
+        assertEquals(FRAME_COUNT + 1, reader.getPointCount());
+        float[] points = new float[reader.getPointCount() * 3];
+        reader.readPoints(points, 0);
+        // The frame without an index goes last
+        for (int i = 0; i <= FRAME_COUNT; i++) {
+            assertEquals("point " + i, i, points[i * 3], 0f);
+        }
+    }
+
+    private static byte[] createFrame(int index, double timestamp)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter();
+        writer.open(Channels.newChannel(out));
+        writer.writeHeader(1);
+        writer.writeFloats(new float[] { index, 0f, 1f }, 0, 3);
+        writer.writeCells(VtkLegacyPolyDataWriter.CELLS_VERTICES, 1);
+        writer.writeAscii("\nFIELD FieldData 1\n");
+        writer.writeArrayHeader("timestamp", 1, 1,
+                VtkLegacyPolyDataWriter.TYPE_DOUBLE);
+        writer.writeDouble(timestamp);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a poses file holding the device still at the origin, once per
+     *         second from 0 to at least duration.
+     */
+    private static byte[] createPoses(double duration) throws IOException {
+        int poseCount = (int) Math.ceil(duration) + 1;
+        float[] positions = new float[poseCount * 3];
+        float[] orientations = new float[poseCount * 4];
+        double[] timestamps = new double[poseCount];
+        for (int i = 0; i < poseCount; i++) {
+            orientations[i * 4 + 3] = 1f;
+            timestamps[i] = i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter();
+        writer.open(Channels.newChannel(out));
+        writer.writeHeader(poseCount);
+        writer.writeFloats(positions, 0, positions.length);
+        writer.writeCells(VtkLegacyPolyDataWriter.CELLS_LINES, poseCount);
+        writer.writeAscii("\nFIELD FieldData 1\n");
+        writer.writeArrayHeader("Cam2Dev_transform", 16, 1,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        writer.writeFloats(IDENTITY, 0, IDENTITY.length);
+        writer.writeAscii("\nPOINT_DATA ");
+        writer.writeAscii(poseCount);
+        writer.writeAscii("\nFIELD FieldData 2\n");
+        writer.writeArrayHeader("orientation", 4, poseCount,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        writer.writeFloats(orientations, 0, orientations.length);
+        writer.writeAscii("\n");
+        writer.writeArrayHeader("timestamp", 1, poseCount,
+                VtkLegacyPolyDataWriter.TYPE_DOUBLE);
+        writer.writeDoubles(timestamps, 0, poseCount);
+        writer.close();
+        return out.toByteArray();
+    }
+}
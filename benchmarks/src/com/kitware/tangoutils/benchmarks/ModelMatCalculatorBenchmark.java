@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.benchmarks;
+
+import com.kitware.tangoutils.ModelMatCalculator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The pose updates of {@link ModelMatCalculator}, from the double arrays of
+ * TangoPoseData, run for every pose and every depth frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelMatCalculatorBenchmark {
+
+    // A power of two, to cycle through the poses with a mask
+    private static final int POSE_COUNT = 1024;
+
+    private final double[][] mTranslations = new double[POSE_COUNT][3];
+    private final double[][] mRotations = new double[POSE_COUNT][4];
+    private final float[] mPointCloudModelMatrix = new float[16];
+    private ModelMatCalculator mCalculator;
+    private int mPoseIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < POSE_COUNT; i++) {
+            for (int j = 0; j < 3; j++) {
+                mTranslations[i][j] = 5 * random.nextGaussian();
+            }
+            SyntheticData.randomUnitQuaternion(random, mRotations[i]);
+        }
+        mCalculator = new ModelMatCalculator();
+        // Non trivial extrinsics, as set up from the device
+        mCalculator.SetDevice2IMUMatrix(new float[] { 0f, 0f, 0f },
+                new float[] { 0f, 0f, 0.7071068f, 0.7071068f });
+        mCalculator.SetColorCamera2IMUMatrix(new float[] { 0.0656f, 0.0063f,
+                -0.0049f }, new float[] { 0.7061f, -0.0087f, 0.0087f, 0.7080f });
+    }
+
+    /**
+     * The update of the pose callback, read by the renderer.
+     */
+    @Benchmark
+    public float[] updateModelMatrix() {
+        int i = mPoseIndex++ & (POSE_COUNT - 1);
+        mCalculator.updateModelMatrix(mTranslations[i], mRotations[i]);
+        return mCalculator.getModelMatrix();
+    }
+
+    /**
+     * The update of the depth callback, with the copy handed to PointCloud.
+     */
+    @Benchmark
+    public float[] updatePointCloudModelMatrix() {
+        int i = mPoseIndex++ & (POSE_COUNT - 1);
+        mCalculator.updatePointCloudModelMatrix(mTranslations[i], mRotations[i]);
+        return mCalculator.getPointCloudModelMatrixCopy(mPointCloudModelMatrix);
+    }
+}
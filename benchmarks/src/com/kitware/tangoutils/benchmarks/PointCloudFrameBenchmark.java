@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.benchmarks;
+
+import com.kitware.tangoutils.PointCloudFrame;
+import com.kitware.tangoutils.PointCloudFramePool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per depth frame work of the capture loop: reading the points into a
+ * pooled {@link PointCloudFrame}, its average Z reduction, and the copy of
+ * the points that uploading them to the vertex buffer of PointCloud makes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PointCloudFrameBenchmark {
+
+    @Param({ "10000", "50000", "250000" })
+    public int pointCount;
+
+    private File mDepthFile;
+    private RandomAccessFile mDepthStream;
+    private FileChannel mDepthChannel;
+    private PointCloudFramePool mPool;
+    private PointCloudFrame mFrame;
+    private FloatBuffer mVertexBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDepthFile = SyntheticData.createDepthFile(pointCount, pointCount);
+        mDepthStream = new RandomAccessFile(mDepthFile, "r");
+        mDepthChannel = mDepthStream.getChannel();
+        mPool = new PointCloudFramePool(pointCount, 2);
+        mFrame = mPool.acquire();
+        mFrame.getByteBuffer().put(SyntheticData.createPoints(pointCount, pointCount));
+        mFrame.getByteBuffer().position(0);
+        mFrame.setPointCount(pointCount, 0);
+        mVertexBuffer = ByteBuffer
+                .allocateDirect(pointCount * SyntheticData.BYTES_PER_POINT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFrame.release();
+        mDepthStream.close();
+        mDepthFile.delete();
+    }
+
+    /**
+     * Reads a frame like XyzIjReader: positional reads from the depth file
+     * into a frame of the pool, then the frame statistics.
+     */
+    @Benchmark
+    public float readFrame() throws IOException {
+        PointCloudFrame frame = mPool.acquire();
+        ByteBuffer buffer = frame.getByteBuffer();
+        buffer.limit(pointCount * SyntheticData.BYTES_PER_POINT);
+        while (buffer.hasRemaining()) {
+            if (mDepthChannel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        int readCount = buffer.position() / SyntheticData.BYTES_PER_POINT;
+        buffer.position(0);
+        frame.setPointCount(readCount, 0);
+        float averageZ = frame.getAverageZ();
+        frame.release();
+        return averageZ;
+    }
+
+    /**
+     * The average Z reduction of {@link PointCloudFrame#setPointCount}.
+     */
+    @Benchmark
+    public float averageZ() {
+        mFrame.setPointCount(pointCount, 0);
+        return mFrame.getAverageZ();
+    }
+
+    /**
+     * The copy of the points made by glBufferSubData when PointCloud uploads
+     * a frame, from a duplicate of the frame buffer.
+     */
+    @Benchmark
+    public FloatBuffer copyToVertexBuffer() {
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mFrame.getPoints().duplicate());
+        return mVertexBuffer;
+    }
+}
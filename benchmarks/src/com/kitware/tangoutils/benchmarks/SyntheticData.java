@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic depth frames and poses shared by the benchmarks. Points are
+ * spread like a depth camera sees them: x and y normally distributed, z
+ * between 0.5 and 4.5 meters. Everything is seeded, so runs are comparable.
+ */
+final class SyntheticData {
+
+    static final int BYTES_PER_POINT = 3 * 4;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return pointCount points in the native order layout of the depth
+     *         buffers of the Tango service.
+     */
+    static ByteBuffer createPoints(int pointCount, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer points = ByteBuffer.allocate(pointCount * BYTES_PER_POINT)
+                .order(ByteOrder.nativeOrder());
+        for (int i = 0; i < pointCount; i++) {
+            points.putFloat((float) random.nextGaussian());
+            points.putFloat((float) random.nextGaussian());
+            points.putFloat(0.5f + 4f * random.nextFloat());
+        }
+        points.flip();
+        return points;
+    }
+
+    /**
+     * Writes pointCount points to a temporary file, standing for the file
+     * descriptor the depth frames are read from.
+     */
+    static File createDepthFile(int pointCount, long seed) throws IOException {
+        File file = File.createTempFile("depth", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            ByteBuffer points = createPoints(pointCount, seed);
+            while (points.hasRemaining()) {
+                out.getChannel().write(points);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static void randomUnitQuaternion(Random random, double[] q) {
+        double norm = 0;
+        for (int i = 0; i < 4; i++) {
+            q[i] = random.nextGaussian();
+            norm += q[i] * q[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+    }
+}
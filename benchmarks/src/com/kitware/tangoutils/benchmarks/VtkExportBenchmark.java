@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.benchmarks;
+
+import com.kitware.tangoutils.io.PoseJournal;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The serialisation of writePointCloudToFile and writePoseToFile of
+ * PointCloudActivity, through {@link VtkLegacyPolyDataWriter}, to a file
+ * rewritten from its start by every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VtkExportBenchmark {
+
+    private static final float[] CAM2DEV_TRANSFORM = { 0f, -1f, 0f, 0f, 1f,
+            0f, 0f, 0f, 0f, 0f, 1f, 0f, 0.0063f, -0.0656f, -0.0049f, 1f };
+
+    /**
+     * The output file and the writer, reused by every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+        File mFile;
+        RandomAccessFile mStream;
+        FileChannel mChannel;
+        final VtkLegacyPolyDataWriter mWriter = new VtkLegacyPolyDataWriter();
+
+        @Setup
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("export", ".vtk");
+            mStream = new RandomAccessFile(mFile, "rw");
+            mChannel = mStream.getChannel();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            mStream.close();
+            mFile.delete();
+        }
+
+        VtkLegacyPolyDataWriter open() throws IOException {
+            mChannel.position(0);
+            mWriter.open(mChannel);
+            return mWriter;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cloud {
+        @Param({ "10000", "50000", "250000" })
+        public int pointCount;
+        // Whether the files hold a VERTICES cell
+        @Param({ "true", "false" })
+        public boolean vertices;
+
+        FloatBuffer mPoints;
+
+        @Setup
+        public void setUp() {
+            // Direct, like the buffers of the frames
+            ByteBuffer points = ByteBuffer.allocateDirect(
+                    pointCount * SyntheticData.BYTES_PER_POINT).order(
+                    ByteOrder.nativeOrder());
+            points.put(SyntheticData.createPoints(pointCount, pointCount));
+            points.flip();
+            mPoints = points.asFloatBuffer();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Poses {
+        @Param({ "10000", "50000", "250000" })
+        public int poseCount;
+
+        PoseJournal mJournal;
+
+        @Setup
+        public void setUp() throws IOException {
+            Random random = new Random(poseCount);
+            double[] translation = new double[3];
+            double[] rotation = new double[4];
+            mJournal = new PoseJournal(File.createTempFile("poses", ".bin"));
+            for (int i = 0; i < poseCount; i++) {
+                for (int j = 0; j < 3; j++) {
+                    translation[j] = random.nextGaussian();
+                }
+                SyntheticData.randomUnitQuaternion(random, rotation);
+                mJournal.append(i * 0.01, translation, rotation);
+            }
+            mJournal.finish();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            mJournal.delete();
+        }
+    }
+
+    /**
+     * A depth frame written like writePointCloudToFile.
+     */
+    @Benchmark
+    public long writePointCloud(Output output, Cloud cloud) throws IOException {
+        VtkLegacyPolyDataWriter writer = output.open();
+        FloatBuffer points = cloud.mPoints.duplicate();
+        points.position(0);
+        writer.writePointCloud(points, 1234.5678, cloud.vertices);
+        writer.flush();
+        return output.mChannel.position();
+    }
+
+    /**
+     * The pose file written like writePoseToFile, from a journal.
+     */
+    @Benchmark
+    public long writePoses(Output output, Poses poses) throws IOException {
+        PoseJournal journal = poses.mJournal;
+        int numPoints = journal.size();
+        VtkLegacyPolyDataWriter writer = output.open();
+        writer.writeHeader(numPoints);
+        journal.writePositions(writer, numPoints);
+
+        writer.writeCells(VtkLegacyPolyDataWriter.CELLS_LINES, numPoints);
+
+        writer.writeAscii("\nFIELD FieldData 1\n");
+        writer.writeArrayHeader("Cam2Dev_transform", 16, 1,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        writer.writeFloats(CAM2DEV_TRANSFORM, 0, CAM2DEV_TRANSFORM.length);
+
+        writer.writeAscii("\nPOINT_DATA ");
+        writer.writeAscii(numPoints);
+        writer.writeAscii("\nFIELD FieldData 2\n");
+        writer.writeArrayHeader("orientation", 4, numPoints,
+                VtkLegacyPolyDataWriter.TYPE_FLOAT);
+        journal.writeOrientations(writer, numPoints);
+
+        writer.writeAscii("\n");
+        writer.writeArrayHeader("timestamp", 1, numPoints,
+                VtkLegacyPolyDataWriter.TYPE_DOUBLE);
+        journal.writeTimestamps(writer, numPoints);
+
+        writer.flush();
+        return output.mChannel.position();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Kitware Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kitware.tangoutils.benchmarks;
+
+import com.kitware.tangoproject.paraviewtangorecorder.ZipWriter;
+import com.kitware.tangoutils.io.VtkLegacyPolyDataWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding a depth frame file to the archive of a recording, with each
+ * compression of {@link ZipWriter}, and with the ZipOutputStream the
+ * archive used to be written with. Each measurement iteration writes to a
+ * new archive; the entries still being compressed when it ends are written
+ * outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipWriterBenchmark {
+
+    // The staging buffer size of VtkLegacyPolyDataWriter
+    private static final int WRITE_SIZE = 64 * 1024;
+    // The copy buffer size of the former ZipWriter.zip()
+    private static final int STREAM_WRITE_SIZE = 2048;
+    private static final int THREAD_COUNT = 2;
+
+    /**
+     * A depth frame serialised like writePointCloudToFile does.
+     */
+    @State(Scope.Thread)
+    public static class Frame {
+        @Param({ "10000", "50000", "250000" })
+        public int pointCount;
+
+        byte[] mBytes;
+        ByteBuffer mContent;
+
+        @Setup
+        public void setUp() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            VtkLegacyPolyDataWriter writer = new VtkLegacyPolyDataWriter();
+            writer.open(Channels.newChannel(out));
+            writer.writeHeader(pointCount);
+            writer.writeFloats(SyntheticData.createPoints(pointCount,
+                    pointCount).asFloatBuffer());
+            writer.writeCells(VtkLegacyPolyDataWriter.CELLS_VERTICES,
+                    pointCount);
+            writer.writeAscii("\nFIELD FieldData 1\n");
+            writer.writeArrayHeader("timestamp", 1, 1,
+                    VtkLegacyPolyDataWriter.TYPE_DOUBLE);
+            writer.writeDouble(1234.5678);
+            writer.close();
+            mBytes = out.toByteArray();
+            mContent = ByteBuffer.allocateDirect(mBytes.length);
+            mContent.put(mBytes);
+            mContent.flip();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Archive {
+        @Param({ "STORED", "DEFLATE", "PARALLEL_DEFLATE" })
+        public ZipWriter.Compression compression;
+
+        File mFile;
+        ZipWriter mWriter;
+        int mEntryIndex;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("archive", ".zip");
+            mWriter = new ZipWriter(mFile.getPath(), compression,
+                    Deflater.BEST_SPEED, THREAD_COUNT);
+            mEntryIndex = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            mWriter.close(mFile.getPath()).delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StreamArchive {
+        File mFile;
+        ZipOutputStream mStream;
+        int mEntryIndex;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("archive", ".zip");
+            mStream = new ZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mFile)));
+            mEntryIndex = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            mStream.close();
+            mFile.delete();
+        }
+    }
+
+    /**
+     * An entry written like writePointCloudToFile, in the chunks flushed by
+     * VtkLegacyPolyDataWriter.
+     */
+    @Benchmark
+    public int zipWriter(Frame frame, Archive archive) throws IOException {
+        WritableByteChannel channel = archive.mWriter.beginEntry("pc_"
+                + archive.mEntryIndex++ + ".vtk");
+        ByteBuffer content = frame.mContent.duplicate();
+        int end = content.limit();
+        while (content.position() < end) {
+            content.limit(Math.min(content.position() + WRITE_SIZE, end));
+            channel.write(content);
+        }
+        archive.mWriter.closeEntry();
+        return archive.mWriter.getEntryCount();
+    }
+
+    /**
+     * An entry written like the former ZipWriter.zip(), with the default
+     * compression level.
+     */
+    @Benchmark
+    public int zipOutputStream(Frame frame, StreamArchive archive)
+            throws IOException {
+        ZipOutputStream stream = archive.mStream;
+        stream.putNextEntry(new ZipEntry("pc_" + archive.mEntryIndex++
+                + ".vtk"));
+        byte[] bytes = frame.mBytes;
+        for (int offset = 0; offset < bytes.length; offset += STREAM_WRITE_SIZE) {
+            stream.write(bytes, offset,
+                    Math.min(STREAM_WRITE_SIZE, bytes.length - offset));
+        }
+        stream.closeEntry();
+        return archive.mEntryIndex;
+    }
+}